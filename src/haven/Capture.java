@@ -0,0 +1,226 @@
+package haven;
+
+import java.io.*;
+import java.net.SocketAddress;
+
+/*
+ * Session packet captures. A capture starts with a small header
+ * describing the session state at the point recording began (so that
+ * captures taken mid-session can still be replayed), followed by one
+ * record per datagram:
+ *
+ *   uint8 dir (0 = received, 1 = sent), uint32 msecs since start,
+ *   uint16 length, followed by the datagram itself, type byte first.
+ */
+public class Capture {
+    public static final byte[] magic = {'H', 'C', 'A', 'P'};
+    public static final int VER = 1;
+    public static final int HF_FROMSTART = 1;
+    public static final int DIR_IN = 0, DIR_OUT = 1;
+
+    public static class FormatException extends IOException {
+	public FormatException(String msg) {
+	    super(msg);
+	}
+    }
+
+    public static class Writer implements Closeable {
+	private final StreamMessage out;
+	private final long epoch = System.currentTimeMillis();
+	private long lastflush = epoch;
+	private boolean closed = false;
+	public int records = 0;
+	public long bytes = 0;
+
+	public Writer(OutputStream out) {
+	    this.out = new StreamMessage(out);
+	}
+
+	public Writer(File file) throws IOException {
+	    this(new FileOutputStream(file));
+	}
+
+	public synchronized void header(boolean fromstart, int rseq) {
+	    out.addbytes(magic);
+	    out.adduint8(VER);
+	    out.adduint8(fromstart ? HF_FROMSTART : 0);
+	    out.adduint16(rseq);
+	}
+
+	public synchronized void resid(int id, String name, int ver) {
+	    out.adduint16(id);
+	    out.addstring(name);
+	    out.adduint16(ver);
+	}
+
+	public synchronized void begin() {
+	    out.adduint16(65535);
+	}
+
+	public synchronized void record(int dir, byte[] buf, int off, int len) {
+	    if(closed)
+		return;
+	    long now = System.currentTimeMillis();
+	    out.adduint8(dir);
+	    out.adduint32(now - epoch);
+	    out.adduint16(len);
+	    out.addbytes(buf, off, len);
+	    records++;
+	    bytes += len;
+	    if(now - lastflush > 1000) {
+		out.flush();
+		lastflush = now;
+	    }
+	}
+
+	public void record(PMessage msg) {
+	    byte[] buf = new byte[msg.rt - msg.rh + 1];
+	    buf[0] = (byte)msg.type;
+	    System.arraycopy(msg.rbuf, msg.rh, buf, 1, msg.rt - msg.rh);
+	    record(DIR_IN, buf, 0, buf.length);
+	}
+
+	public synchronized void close() {
+	    if(!closed) {
+		closed = true;
+		out.close();
+	    }
+	}
+
+	public String toString() {
+	    return(String.format("#<capture %d records, %,d bytes>", records, bytes));
+	}
+    }
+
+    /* Plays a capture back into a Session in place of the network,
+     * either paced by the recorded timestamps or as fast as the
+     * session will take it. Outgoing traffic from the session is
+     * dropped, but recorded map requests are reissued so that the
+     * map cache accepts the grids that follow them. */
+    public static class Replay extends Transport {
+	private final StreamMessage in;
+	public final boolean realtime;
+	public final boolean fromstart;
+	public final int rseq;
+	private final IntMap<Resource.Spec> resids = new IntMap<>();
+	private final byte[] buf = new byte[65536];
+	private Session sess;
+	private long start = -1;
+	private boolean loaded = false, done = false;
+	private int dir, len;
+	private long time;
+	public int packets = 0;
+	public long bytes = 0;
+	public final int[] types = new int[256];
+
+	public Replay(InputStream in, boolean realtime) throws IOException {
+	    this.in = new StreamMessage(in);
+	    this.realtime = realtime;
+	    byte[] m = new byte[magic.length];
+	    this.in.bytes(m);
+	    if(!java.util.Arrays.equals(m, magic))
+		throw(new FormatException("Not a session capture"));
+	    int ver = this.in.uint8();
+	    if(ver != VER)
+		throw(new FormatException("Unknown capture version: " + ver));
+	    fromstart = (this.in.uint8() & HF_FROMSTART) != 0;
+	    rseq = this.in.uint16();
+	    while(true) {
+		int id = this.in.uint16();
+		if(id == 65535)
+		    break;
+		String nm = this.in.string();
+		int rver = this.in.uint16();
+		resids.put(id, new Resource.Spec(Resource.remote(), nm, rver));
+	    }
+	}
+
+	public Replay(File file, boolean realtime) throws IOException {
+	    this(new BufferedInputStream(new FileInputStream(file)), realtime);
+	}
+
+	protected void attach(Session sess) {
+	    this.sess = sess;
+	    if(!fromstart) {
+		sess.state = "";
+		sess.rseq = rseq;
+	    }
+	    for(java.util.Map.Entry<Integer, Resource.Spec> ent : resids.entrySet())
+		sess.resid(ent.getKey(), ent.getValue().name, ent.getValue().ver);
+	}
+
+	private boolean next() {
+	    if(in.eom())
+		return(false);
+	    dir = in.uint8();
+	    time = in.uint32();
+	    len = in.uint16();
+	    in.bytes(buf, 0, len);
+	    return(true);
+	}
+
+	private void outbound() {
+	    if((sess != null) && (len > 0) && (buf[0] == Session.MSG_MAPREQ))
+		sess.glob.map.request(new MessageBuf(buf, 1, len - 1).coord());
+	}
+
+	public PMessage recv() throws IOException {
+	    try {
+		while(true) {
+		    if(!loaded) {
+			if(!next()) {
+			    synchronized(this) {
+				done = true;
+				notifyAll();
+			    }
+			    Thread.sleep(100);
+			    return(null);
+			}
+			loaded = true;
+		    }
+		    long now = System.currentTimeMillis();
+		    if(start < 0)
+			start = now - time;
+		    if(realtime && (start + time > now)) {
+			Thread.sleep(Math.min(start + time - now, 1000));
+			if(start + time > System.currentTimeMillis())
+			    return(null);
+		    }
+		    loaded = false;
+		    if(dir == DIR_OUT) {
+			outbound();
+			continue;
+		    }
+		    if(len < 1)
+			continue;
+		    packets++;
+		    bytes += len;
+		    types[buf[0] & 0xff]++;
+		    return(new PMessage(buf[0], buf, 1, len - 1));
+		}
+	    } catch(InterruptedException e) {
+		Thread.currentThread().interrupt();
+		return(null);
+	    }
+	}
+
+	public void send(byte[] buf, int off, int len) {
+	}
+
+	public SocketAddress local() {
+	    return(null);
+	}
+
+	public void close() {
+	    in.close();
+	}
+
+	public synchronized boolean done() {
+	    return(done);
+	}
+
+	public String toString() {
+	    return(String.format("#<replay %d packets, %,d bytes%s>", packets, bytes, done() ? ", done" : ""));
+	}
+    }
+}
@@ -72,6 +72,26 @@ public class Config {
     public static URL mapbase = geturl("haven.mapbase", "");
     public static boolean bounddb = getprop("haven.bounddb", "off").equals("on");
     public static boolean par = false;
+    public static boolean niotransport = getprop("haven.niotransport", "off").equals("on");
+    public static String netcap = getprop("haven.netcap", null);
+    public static String netstats = getprop("haven.netstats", null);
+    public static int netstatsint = getint("haven.netstatsint", 5);
+    public static String gobstats = getprop("haven.gobstats", null);
+    public static int gobstatsint = getint("haven.gobstatsint", 60);
+    public static int gobleak = getint("haven.gobleak", 30);
+    public static int gobpool = getint("haven.gobpool", 0);
+    public static int gobpoolage = getint("haven.gobpoolage", 10);
+    public static int odthreads = getint("haven.odthreads", Math.min(Runtime.getRuntime().availableProcessors() - 1, 4));
+    public static boolean loadtrace = getprop("haven.loadtrace", "off").equals("on");
+    public static boolean loadstats = getprop("haven.loadstats", "off").equals("on");
+    public static boolean ticklod = getprop("haven.ticklod", "on").equals("on");
+    public static int lodnear = getint("haven.lodnear", 40);
+    public static int lodmax = getint("haven.lodmax", 8);
+    public static int mapthreads = getint("haven.mapthreads", Runtime.getRuntime().availableProcessors());
+    public static boolean mapprio = getprop("haven.mapprio", "on").equals("on");
+    public static boolean gridrle = getprop("haven.gridrle", "on").equals("on");
+    public static int meshcache = getint("haven.meshcache", 64);
+    public static int meshdisk = getint("haven.meshdisk", 256);
     public static boolean fscache = getprop("haven.fscache", "on").equals("on");
     public static String loadwaited = getprop("haven.loadwaited", null);
     public static String allused = getprop("haven.allused", null);
@@ -884,6 +904,34 @@ public class Config {
 		    par = Utils.parsebool(args[1]);
 		}
 	    });
+	Console.setscmd("loadstats", new Console.Command() {
+		public void run(Console cons, String[] args) throws Exception {
+		    if(args.length < 2) {
+			LoadStats.report(cons.out, 20);
+		    } else if(args[1].equals("reset")) {
+			LoadStats.reset();
+		    } else if(args[1].equals("on") || args[1].equals("off")) {
+			loadstats = args[1].equals("on");
+		    } else if(args[1].equals("trace") && (args.length > 2)) {
+			loadtrace = Utils.parsebool(args[2]);
+		    } else if(args[1].equals("dump") && (args.length > 2)) {
+			try(PrintWriter out = new PrintWriter(new FileWriter(args[2]))) {
+			    LoadStats.report(out, Integer.MAX_VALUE);
+			}
+		    } else {
+			throw(new Exception("usage: loadstats [on|off|reset|trace BOOL|dump FILE]"));
+		    }
+		}
+	    });
+	Console.setscmd("ticklod", new Console.Command() {
+		public void run(Console cons, String[] args) {
+		    ticklod = Utils.parsebool(args[1]);
+		    if(args.length > 2)
+			lodnear = Integer.parseInt(args[2]);
+		    if(args.length > 3)
+			lodmax = Integer.parseInt(args[3]);
+		}
+	    });
 	Console.setscmd("profile", new Console.Command() {
 		public void run(Console cons, String[] args) {
 		    if(args[1].equals("none") || args[1].equals("off")) {
@@ -26,20 +26,41 @@
 
 package haven;
 
+import java.util.*;
+
+/*
+ * Reassembles fragmented messages into a single buffer, so that
+ * every byte is copied in exactly once (or amortized-twice, when the
+ * final length isn't known up front) and the result is handed out as
+ * a view over that buffer rather than another copy.
+ *
+ * Defrag(len) accepts fragments at arbitrary offsets into a message
+ * of known length (as for map data), while Defrag() accepts
+ * fragments appended in order and grows its buffer geometrically (as
+ * for RMSG_FRAGMENT).
+ */
 public class Defrag {
     byte[] blob;
     int len;
     long last = 0;
-    final int[] ms1 = new int[20], ms2 = new int[20];
+    final int[] ms1, ms2;
     
     public Defrag(int len) {
 	this.len = len;
 	this.blob = new byte[len];
+	ms1 = new int[20];
+	ms2 = new int[20];
 	ms1[0] = 0;
 	ms2[0] = len;
 	for(int i = 1; i < 20; i++)
 	    ms1[i] = -1;
     }
+
+    public Defrag() {
+	this.len = 0;
+	this.blob = new byte[4096];
+	ms1 = ms2 = null;
+    }
     
     private void addm(int m1, int m2) {
 	for(int i = 0; i < ms1.length; i++) {
@@ -53,6 +74,8 @@ public class Defrag {
     }
     
     public void add(byte[] blob, int boff, int blen, int off) {
+	if(ms1 == null)
+	    throw(new IllegalStateException("offset fragment added to appending defragmenter"));
 	System.arraycopy(blob, boff, this.blob, off, blen);
 	for(int i = 0; i < ms1.length; i++) {
 	    if(ms1[i] == -1)
@@ -76,15 +99,109 @@ public class Defrag {
 	add(blob, 0, blob.length, off);
     }
 
+    /* Adds the remainder of msg at the given offset, reading it
+     * straight out of the message's buffer. */
+    public void add(MessageBuf msg, int off) {
+	int n = msg.rem();
+	add(msg.rbuf, msg.rh, n, off);
+	msg.rh += n;
+    }
+
+    public void append(byte[] blob, int off, int len) {
+	if(ms1 != null)
+	    throw(new IllegalStateException("appended to fixed-length defragmenter"));
+	if(this.len + len > this.blob.length) {
+	    int nl = this.blob.length * 2;
+	    while(nl < this.len + len)
+		nl *= 2;
+	    this.blob = Arrays.copyOf(this.blob, nl);
+	}
+	System.arraycopy(blob, off, this.blob, this.len, len);
+	this.len += len;
+    }
+
+    public void append(MessageBuf msg) {
+	int n = msg.rem();
+	append(msg.rbuf, msg.rh, n);
+	msg.rh += n;
+    }
+
     public boolean done() {
+	if(ms1 == null)
+	    return(true);
 	for(int i = 0; i < ms1.length; i++) {
 	    if(ms1[i] != -1)
 		return(false);
 	}
 	return(true);
     }
+
+    public int size() {
+	return(len);
+    }
     
-    public Message msg() {
-	return(new MessageBuf(blob));
+    public MessageBuf msg() {
+	return(new MessageBuf(blob, 0, len));
+    }
+
+    /* A set of concurrently pending reassemblies, keyed by whatever
+     * identifies a message on the wire. Stale entries are expired in
+     * a sweep that runs at most once per interval rather than on
+     * every fragment. */
+    public static class Table<K> {
+	public final long timeout, interval;
+	private final Map<K, Defrag> bufs = new HashMap<>();
+	private long lastsweep = 0;
+	public int completed = 0, expired = 0;
+
+	public Table(long timeout, long interval) {
+	    this.timeout = timeout;
+	    this.interval = interval;
+	}
+
+	public Table(long timeout) {
+	    this(timeout, timeout / 4);
+	}
+
+	/* Adds a fragment at the given offset of the message with
+	 * the given key and total length, returning the completed
+	 * message if this was its last missing part. */
+	public MessageBuf add(K key, int len, MessageBuf frag, int off) {
+	    long now = System.currentTimeMillis();
+	    Defrag buf;
+	    synchronized(this) {
+		if((buf = bufs.get(key)) == null)
+		    bufs.put(key, buf = new Defrag(len));
+		buf.add(frag, off);
+		buf.last = now;
+		if(buf.done()) {
+		    bufs.remove(key);
+		    completed++;
+		} else {
+		    buf = null;
+		}
+		if(now - lastsweep >= interval)
+		    sweep(now);
+	    }
+	    return((buf == null) ? null : buf.msg());
+	}
+
+	private void sweep(long now) {
+	    for(Iterator<Defrag> i = bufs.values().iterator(); i.hasNext();) {
+		if(now - i.next().last > timeout) {
+		    i.remove();
+		    expired++;
+		}
+	    }
+	    lastsweep = now;
+	}
+
+	public synchronized int size() {
+	    return(bufs.size());
+	}
+
+	public synchronized String toString() {
+	    return(String.format("%d pending, %d completed, %d expired", bufs.size(), completed, expired));
+	}
     }
 }
@@ -48,6 +48,13 @@ public class Following extends Moving {
 	return(tgt.getc());
     }
 
+    public Coord2d getc2() {
+	Gob tgt = gob.glob.oc.getgob(this.tgt);
+	if(tgt == null)
+	    return(gob.rc);
+	return(tgt.getc2());
+    }
+
     private double lastv = 0.0;
     public double getv() {
 	Gob tgt = gob.glob.oc.getgob(this.tgt);
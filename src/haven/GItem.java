@@ -56,6 +56,13 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
     	    Message sdt = (args.length > 1)?new MessageBuf((byte[])args[1]):Message.nil;
     	    return(new GItem(ui.sess.getres(res), sdt));
     	}
+
+	public Widget create(UI ui, Message.Cursor args) {
+	    args.next();
+	    int res = args.intval();
+	    Message sdt = args.next()?new MessageBuf(args.bytes()):Message.nil;
+	    return(new GItem(ui.sess.getres(res), sdt));
+	}
     }
 
     public interface ColorInfo {
@@ -197,6 +204,25 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
     	return(spr);
     }
 
+    /* Reads "num" and "meter" straight from the cursor; a subclass
+     * handling them in the Object... form must override this too. */
+    public void uimsg(String name, Message.Cursor args) {
+	if(name == "num") {
+	    args.next();
+	    num = args.intval();
+	} else if(name == "meter") {
+	    args.next();
+	    setmeter(args.intval());
+	} else {
+	    super.uimsg(name, args);
+	}
+    }
+
+    private void setmeter(int meter) {
+	this.meter = meter;
+	metertex = Text.renderstroked(String.format("%d%%", meter), Color.WHITE, Color.BLACK, num10Fnd).tex();
+    }
+
     public void uimsg(String name, Object... args) {
     	if(name == "num") {
     	    num = (Integer)args[0];
@@ -210,8 +236,7 @@ public class GItem extends AWidget implements ItemInfo.SpriteOwner, GSprite.Owne
     	    info = null;
     	    rawinfo = new ItemInfo.Raw(args);
     	} else if(name == "meter") {
-    	    meter = (int)((Number)args[0]).doubleValue();
-            metertex = Text.renderstroked(String.format("%d%%", meter), Color.WHITE, Color.BLACK, num10Fnd).tex();
+    	    setmeter((int)((Number)args[0]).doubleValue());
     	}
     }
     public void qualitycalc(List<ItemInfo> infolist) {
@@ -32,10 +32,11 @@ import haven.render.*;
 import haven.render.sl.*;
 
 public class Glob {
+    /* Before oc, whose gob applier runs on it. */
+    public final Loader loader = new Loader();
     public final OCache oc = new OCache(this);
     public final MCache map;
     public final Session sess;
-    public final Loader loader = new Loader();
     public double time, epoch = Utils.rtime();
     public Astronomy ast;
     public Party party;
@@ -28,18 +28,29 @@ package haven;
 
 import java.util.*;
 import java.util.function.*;
+import java.util.concurrent.atomic.*;
 import haven.render.*;
 // import integrations.mapv4.MappingClient;
 // import integrations.map.Navigation;
 
-public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
+public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner, TickList.Throttled {
     public Coord2d rc;
     public double a;
     public boolean virtual = false;
     int clprio = 0;
+    int ocidx = -1;
+    int gridslot = -1;
+    long gridkey;
+    volatile Coord2d gridc;
+    double lodacc;
+    volatile boolean lodskip;
+    /* The ground height last sampled under the gob by OCache.ctick,
+     * and where it was sampled. */
+    double gzx = Double.NaN, gzy, gz;
+    GobPool retired = null;
     public long id;
     public final Glob glob;
-    Map<Class<? extends GAttrib>, GAttrib> attr = new HashMap<Class<? extends GAttrib>, GAttrib>();
+    private GAttrib[] attr = noattr;
     public final Collection<Overlay> ols = new ArrayList<Overlay>();
     public final Collection<RenderTree.Slot> slots = new ArrayList<>(1);
     private final Collection<SetupMod> setupmods = new ArrayList<>();
@@ -126,6 +137,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     	    if(spr instanceof SetupMod)
     		gob.setupmods.add((SetupMod)spr);
     	    added = true;
+    	    gob.count(GobStats.OVERLAY, true);
     	}
 
     	private void remove0() {
@@ -138,6 +150,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     	    if(spr instanceof SetupMod)
     		gob.setupmods.remove(spr);
     	    added = false;
+    	    gob.count(GobStats.OVERLAY, false);
     	}
 
     	public void remove() {
@@ -245,8 +258,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     }
 
     public void ctick(double dt) {
-	for(GAttrib a : attr.values())
-	    a.ctick(dt);
+	for(GAttrib a : attr) {
+	    if(a != null)
+		a.ctick(dt);
+	}
 	loadrattr();
 	for(Iterator<Overlay> i = ols.iterator(); i.hasNext();) {
 	    Overlay ol = i.next();
@@ -267,6 +282,12 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    glob.oc.remove(id);
     }
 
+    /* Whether OCache's tick LOD deferred this gob's last tick, in
+     * which case its render-tree tickers are deferred as well. */
+    public boolean throttled() {
+	return(lodskip);
+    }
+
     public void gtick(Render g) {
 	Drawable d = getattr(Drawable.class);
 	if(d != null)
@@ -302,12 +323,46 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     }
 
     public void dispose() {
-	for(GAttrib a : attr.values())
-	    a.dispose();
+	for(GAttrib a : attr) {
+	    if(a != null)
+		a.dispose();
+	}
 	for(ResAttr.Cell rd : rdata) {
 	    if(rd.attr != null)
 		rd.attr.dispose();
 	}
+	if(retired != null)
+	    retired.put(this);
+    }
+
+    /* Makes a disposed gob from GobPool into a fresh one for the given
+     * id, keeping its containers. Anything still waiting on its
+     * updates is woken, to find that they will not come. */
+    void recycle(long id) {
+	this.id = id;
+	rc = Coord2d.z;
+	a = 0;
+	virtual = (id < 0);
+	clprio = 0;
+	ocidx = -1;
+	gridslot = -1;
+	gridkey = 0;
+	gridc = null;
+	lodacc = 0;
+	lodskip = false;
+	gzx = Double.NaN;
+	retired = null;
+	Arrays.fill(attr, null);
+	ols.clear();
+	setupmods.clear();
+	rdata.clear();
+	lrdata.clear();
+	cropstgmaxval = 0;
+	knocked = null;
+	type = null;
+	curstate = null;
+	placed.cur = null;
+	updated();
     }
 
     public void move(Coord2d c, double a) {
@@ -316,6 +371,14 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    m.move(c);
 	this.rc = c;
 	this.a = a;
+	glob.oc.grid.update(this);
+    }
+
+    /* The current position on the ground plane, which for moving gobs
+     * lies somewhere between their server positions. */
+    public Coord2d getc2() {
+	Moving m = getattr(Moving.class);
+	return((m != null) ? m.getc2() : rc);
     }
 
     public Coord3f getc() {
@@ -328,7 +391,17 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     }
 
     public Coord3f getrc() {
-	return(glob.map.getzp(rc));
+	return(new Coord3f((float)rc.x, (float)rc.y, (float)groundz(rc)));
+    }
+
+    /* The height of the map at pc, which is where OCache last sampled
+     * it for the gob unless it has moved since. */
+    public double groundz(Coord2d pc) {
+	synchronized(this) {
+	    if((pc.x == gzx) && (pc.y == gzy))
+		return(gz);
+	}
+	return(glob.map.getcz(pc));
     }
 
     protected Pipe.Op getmapstate(Coord3f pc) {
@@ -336,24 +409,51 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	return(tile.drawstate(glob, pc));
     }
 
-    private Class<? extends GAttrib> attrclass(Class<? extends GAttrib> cl) {
-	while(true) {
+    /* Attributes are filed under their class's ancestor directly
+     * below GAttrib. Each such class is given a dense slot number the
+     * first time it is seen, so that a gob keeps its attributes in an
+     * array indexed by slot, which is only ever replaced whole when it
+     * must grow, so that unlocked readers see either array. */
+    private static final GAttrib[] noattr = {};
+    private static final AtomicInteger nattrslots = new AtomicInteger(0);
+    private static final ClassValue<Integer> attrslots = new ClassValue<Integer>() {
+	protected Integer computeValue(Class<?> cl) {
 	    Class<?> p = cl.getSuperclass();
 	    if(p == GAttrib.class)
-		return(cl);
-	    cl = p.asSubclass(GAttrib.class);
+		return(nattrslots.getAndIncrement());
+	    if((p == null) || !GAttrib.class.isAssignableFrom(p))
+		throw(new ClassCastException(cl + " is not a gob attribute class"));
+	    return(get(p));
 	}
+    };
+
+    private static int attrslot(Class<?> cl) {
+	return(attrslots.get(cl));
     }
 
     public <C extends GAttrib> C getattr(Class<C> c) {
-	GAttrib attr = this.attr.get(attrclass(c));
-	if(!c.isInstance(attr))
+	GAttrib[] attr = this.attr;
+	int slot = attrslot(c);
+	if(slot >= attr.length)
+	    return(null);
+	GAttrib a = attr[slot];
+	if(!c.isInstance(a))
 	    return(null);
-	return(c.cast(attr));
+	return(c.cast(a));
+    }
+
+    private void putattr(int slot, GAttrib a) {
+	if(slot >= attr.length) {
+	    if(a == null)
+		return;
+	    attr = Arrays.copyOf(attr, Math.max(slot + 1, nattrslots.get()));
+	}
+	attr[slot] = a;
     }
 
-    private void setattr(Class<? extends GAttrib> ac, GAttrib a) {
-	GAttrib prev = attr.remove(ac);
+    private void setattr(int ac, GAttrib a) {
+	GAttrib prev = (ac < attr.length) ? attr[ac] : null;
+	putattr(ac, null);
 	if(prev != null) {
 	    if((prev instanceof RenderTree.Node) && (prev.slots != null))
 		RUtils.multirem(new ArrayList<>(prev.slots));
@@ -367,7 +467,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 		} catch(Loading l) {
 		    if(prev instanceof RenderTree.Node) {
 			RUtils.multiadd(this.slots, (RenderTree.Node)prev);
-			attr.put(ac, prev);
+			putattr(ac, prev);
 		    }
 		    if(prev instanceof SetupMod)
 			setupmods.add((SetupMod)prev);
@@ -376,18 +476,41 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    }
 	    if(a instanceof SetupMod)
 		setupmods.add((SetupMod)a);
-	    attr.put(ac, a);
+	    putattr(ac, a);
 	}
+	if(prev instanceof Composite)
+	    count(GobStats.COMPOSITE, false);
+	if(a instanceof Composite)
+	    count(GobStats.COMPOSITE, true);
 	if(prev != null)
 	    prev.dispose();
     }
 
     public void setattr(GAttrib a) {
-	setattr(attrclass(a.getClass()), a);
+	setattr(attrslot(a.getClass()), a);
     }
 
     public void delattr(Class<? extends GAttrib> c) {
-	setattr(attrclass(c), null);
+	setattr(attrslot(c), null);
+    }
+
+    /* The resources of the resource attributes currently set. */
+    Collection<Indir<Resource>> rattrres() {
+	Collection<Indir<Resource>> ret = new ArrayList<>(rdata.size());
+	for(ResAttr.Cell<?> rd : rdata) {
+	    if(rd.attr != null)
+		ret.add(rd.resid);
+	}
+	return(ret);
+    }
+
+    private void count(int kind, boolean created) {
+	if((glob == null) || (glob.oc == null))
+	    return;
+	if(created)
+	    glob.oc.stats.created(kind);
+	else
+	    glob.oc.stats.destroyed(kind);
     }
 
     private Class<? extends ResAttr> rattrclass(Class<? extends ResAttr> cl) {
@@ -432,7 +555,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    else if(rc.resid != rd.resid)
 		throw(new RuntimeException("Conflicting resattr resource IDs on " + rc.clsid + ": " + rc.resid + " -> " + rd.resid));
 	    rc.odat = rd.dat;
+	    if(rc.attr != null)
+		count(GobStats.RESATTR, false);
 	    rc.set(attr);
+	    count(GobStats.RESATTR, true);
 	    i.remove();
 	    upd = true;
 	}
@@ -466,6 +592,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    if(rd.resid == resid) {
 		i.remove();
 		rd.attr.dispose();
+		count(GobStats.RESATTR, false);
 		break;
 	    }
 	}
@@ -561,7 +688,7 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
 	    if(ol.slots != null)
 		slot.add(ol);
 	}
-	for(GAttrib a : attr.values()) {
+	for(GAttrib a : attr) {
 	    if(a instanceof RenderTree.Node)
 		slot.add((RenderTree.Node)a);
 	}
@@ -878,6 +1005,10 @@ public class Gob implements RenderTree.Node, Sprite.Owner, Skeleton.ModOwner {
     	    return((this.cur != null) ? this.cur.oc : null);
     	}
 
+    	boolean unplaced() {
+    	    return(slots.isEmpty());
+    	}
+
     	public TickList.Ticking ticker() {return(this);}
     }
     public final Placed placed = new Placed();
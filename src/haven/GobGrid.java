@@ -0,0 +1,227 @@
+package haven;
+
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * A uniform-grid spatial index over the gobs of an OCache, for finding
+ * the gobs near some point without walking all of them. Each gob is
+ * filed under the cell of its current position, as given by
+ * Gob.getc2(), and refiled when that position leaves its cell; the
+ * OCache does so on moves and on each tick of moving gobs. Queries
+ * test the position a gob was last filed with, which may trail a
+ * moving gob by up to one tick.
+ */
+public class GobGrid {
+    public static final double cellsz = MCache.tilesz.x * 10;
+    private final LongMap<Cell> cells = new LongMap<>(256);
+    private int size = 0;
+
+    private static class Cell {
+	Gob[] gobs = new Gob[4];
+	int n = 0;
+    }
+
+    private static int cellc(double c) {
+	return((int)Math.floor(c / cellsz));
+    }
+
+    private static long key(int x, int y) {
+	return(((long)x << 32) | (y & 0xffffffffL));
+    }
+
+    private void file(Gob gob, Coord2d c) {
+	long k = key(cellc(c.x), cellc(c.y));
+	Cell cell = cells.get(k);
+	if(cell == null)
+	    cells.put(k, cell = new Cell());
+	if(cell.n == cell.gobs.length)
+	    cell.gobs = Arrays.copyOf(cell.gobs, cell.n * 2);
+	cell.gobs[gob.gridslot = cell.n++] = gob;
+	gob.gridkey = k;
+	gob.gridc = c;
+    }
+
+    private void unfile(Gob gob) {
+	Cell cell = cells.get(gob.gridkey);
+	Gob last = cell.gobs[--cell.n];
+	cell.gobs[last.gridslot = gob.gridslot] = last;
+	cell.gobs[cell.n] = null;
+	if(cell.n == 0)
+	    cells.remove(gob.gridkey);
+	gob.gridslot = -1;
+    }
+
+    public synchronized void add(Gob gob) {
+	Coord2d c = gob.getc2();
+	if((c == null) || (gob.gridslot >= 0))
+	    return;
+	file(gob, c);
+	size++;
+    }
+
+    public synchronized void remove(Gob gob) {
+	if(gob.gridslot < 0)
+	    return;
+	unfile(gob);
+	size--;
+    }
+
+    /* Cheap enough to call for every gob on every tick, since the lock
+     * is only taken when a gob changes cells. */
+    public void update(Gob gob) {
+	Coord2d c = gob.getc2();
+	if(c == null)
+	    return;
+	if(key(cellc(c.x), cellc(c.y)) == gob.gridkey) {
+	    gob.gridc = c;
+	    return;
+	}
+	synchronized(this) {
+	    if(gob.gridslot < 0)
+		return;
+	    unfile(gob);
+	    file(gob, c);
+	}
+    }
+
+    public synchronized int size() {
+	return(size);
+    }
+
+    /* Calls f for each indexed gob in the cells overlapping the given
+     * rectangle, without checking their positions. */
+    private void cells(Coord2d ul, Coord2d br, Consumer<Gob> f) {
+	int x1 = cellc(ul.x), y1 = cellc(ul.y), x2 = cellc(br.x), y2 = cellc(br.y);
+	if((long)(x2 - x1 + 1) * (y2 - y1 + 1) > cells.size()) {
+	    /* Cheaper to walk the occupied cells than to probe the
+	     * empty ones. */
+	    cells.forEach(cell -> {
+		    for(int i = 0; i < cell.n; i++)
+			f.accept(cell.gobs[i]);
+		});
+	    return;
+	}
+	for(int y = y1; y <= y2; y++) {
+	    for(int x = x1; x <= x2; x++) {
+		Cell cell = cells.get(key(x, y));
+		if(cell != null) {
+		    for(int i = 0; i < cell.n; i++)
+			f.accept(cell.gobs[i]);
+		}
+	    }
+	}
+    }
+
+    private static double d2(Coord2d a, Coord2d b) {
+	double dx = a.x - b.x, dy = a.y - b.y;
+	return((dx * dx) + (dy * dy));
+    }
+
+    private static boolean test(Predicate<? super Gob> filter, Gob gob) {
+	try {
+	    return((filter == null) || filter.test(gob));
+	} catch(Loading l) {
+	    return(false);
+	}
+    }
+
+    /* The gobs within the rectangle from ul to br, inclusive. */
+    public synchronized List<Gob> rect(Coord2d ul, Coord2d br, Predicate<? super Gob> filter) {
+	List<Gob> ret = new ArrayList<>();
+	cells(ul, br, gob -> {
+		Coord2d c = gob.gridc;
+		if((c.x >= ul.x) && (c.y >= ul.y) && (c.x <= br.x) && (c.y <= br.y) && test(filter, gob))
+		    ret.add(gob);
+	    });
+	return(ret);
+    }
+
+    /* Positions of moving gobs may be updated during a query, so
+     * each hit keeps the distance it was found at. */
+    private static class Hit {
+	final Gob gob;
+	final double d;
+
+	Hit(Gob gob, double d) {
+	    this.gob = gob;
+	    this.d = d;
+	}
+    }
+
+    private static final Comparator<Hit> nearfirst = Comparator.comparingDouble(h -> h.d);
+
+    private static List<Gob> gobs(Collection<Hit> hits) {
+	Hit[] buf = hits.toArray(new Hit[0]);
+	Arrays.sort(buf, nearfirst);
+	List<Gob> ret = new ArrayList<>(buf.length);
+	for(Hit h : buf)
+	    ret.add(h.gob);
+	return(ret);
+    }
+
+    /* The gobs within r of c, nearest first. */
+    public synchronized List<Gob> radius(Coord2d c, double r, Predicate<? super Gob> filter) {
+	List<Hit> ret = new ArrayList<>();
+	double r2 = r * r;
+	cells(c.sub(r, r), c.add(r, r), gob -> {
+		double d = d2(gob.gridc, c);
+		if((d <= r2) && test(filter, gob))
+		    ret.add(new Hit(gob, d));
+	    });
+	return(gobs(ret));
+    }
+
+    /* The k gobs nearest to c and within maxr of it, nearest first,
+     * searching rings of cells outward until no unsearched cell could
+     * hold a nearer gob. */
+    public synchronized List<Gob> nearest(Coord2d c, int k, double maxr, Predicate<? super Gob> filter) {
+	if(k <= 0)
+	    return(Collections.emptyList());
+	PriorityQueue<Hit> best = new PriorityQueue<>(nearfirst.reversed());
+	double r2 = maxr * maxr;
+	Consumer<Gob> consider = gob -> {
+	    double d = d2(gob.gridc, c);
+	    if((d > r2) || ((best.size() == k) && (d >= best.peek().d)))
+		return;
+	    if(!test(filter, gob))
+		return;
+	    best.add(new Hit(gob, d));
+	    if(best.size() > k)
+		best.poll();
+	};
+	int cx = cellc(c.x), cy = cellc(c.y);
+	int maxring = (int)Math.min(Math.ceil(maxr / cellsz) + 1, Integer.MAX_VALUE / 4);
+	int seen = 0;
+	for(int ring = 0; (ring <= maxring) && (seen < size); ring++) {
+	    /* Every point outside this ring's square is at least this
+	     * far away. */
+	    double inner = Math.min(Math.min(c.x - (cx - ring) * cellsz, (cx + ring + 1) * cellsz - c.x),
+				    Math.min(c.y - (cy - ring) * cellsz, (cy + ring + 1) * cellsz - c.y));
+	    for(int y = cy - ring; y <= cy + ring; y++) {
+		for(int x = cx - ring; x <= cx + ring; x++) {
+		    if((ring > 0) && (y > cy - ring) && (y < cy + ring) && (x == cx - ring + 1))
+			x = cx + ring;
+		    Cell cell = cells.get(key(x, y));
+		    if(cell != null) {
+			for(int i = 0; i < cell.n; i++)
+			    consider.accept(cell.gobs[i]);
+			seen += cell.n;
+		    }
+		}
+	    }
+	    if((best.size() == k) && (best.peek().d <= inner * inner))
+		break;
+	}
+	return(gobs(best));
+    }
+
+    /* A query filter on the name of a gob's resource, which excludes
+     * gobs whose resource is not yet known. */
+    public static Predicate<Gob> resname(Predicate<? super String> nm) {
+	return(gob -> {
+		Resource res = gob.getres();
+		return((res != null) && nm.test(res.name));
+	    });
+    }
+}
@@ -0,0 +1,111 @@
+package haven;
+
+import java.util.*;
+
+/*
+ * An optional pool of gobs for OCache to reuse, to spare the allocation
+ * of a gob and its containers (attribute table, overlay and slot lists,
+ * placement node) each time an object comes into view. Nothing knows
+ * for certain when the last reference to a removed gob is dropped, so
+ * removed gobs are held for Config.gobpoolage seconds before being
+ * disposed and pooled, which is long enough for the render tree,
+ * loaders and batches to have let go of them, and are only pooled at
+ * all if they are out of every render slot by then. The ChangeCallbacks
+ * of the cache thus never see a gob added again before it has been
+ * removed, and never see a removed gob come back in under its old id.
+ */
+public class GobPool {
+    public final Glob glob;
+    public final int max;
+    private final Deque<Retired> retired = new ArrayDeque<>();
+    private final Gob[] free;
+    private int nfree = 0;
+    public long made, reused, pooled, dropped;
+
+    private static class Retired {
+	final Gob gob;
+	final double t;
+
+	Retired(Gob gob, double t) {
+	    this.gob = gob;
+	    this.t = t;
+	}
+    }
+
+    public GobPool(Glob glob, int max) {
+	this.glob = glob;
+	this.max = max;
+	this.free = new Gob[max];
+    }
+
+    public Gob get(long id) {
+	Gob gob = null;
+	synchronized(this) {
+	    if(nfree > 0) {
+		gob = free[--nfree];
+		free[nfree] = null;
+		reused++;
+	    } else {
+		made++;
+	    }
+	}
+	if(gob == null)
+	    return(new Gob(glob, Coord2d.z, id));
+	synchronized(gob) {
+	    gob.recycle(id);
+	}
+	return(gob);
+    }
+
+    /* Called with gobs removed from the cache, once the removal
+     * callbacks have run. */
+    public void retire(Gob gob) {
+	if(gob.getClass() != Gob.class)
+	    return;
+	synchronized(this) {
+	    retired.add(new Retired(gob, Utils.rtime()));
+	}
+	synchronized(gob) {
+	    gob.retired = this;
+	}
+    }
+
+    /* Called by Gob.dispose. */
+    void put(Gob gob) {
+	synchronized(this) {
+	    if(nfree < max) {
+		free[nfree++] = gob;
+		pooled++;
+		return;
+	    }
+	    dropped++;
+	}
+    }
+
+    public void tick() {
+	double now = Utils.rtime();
+	while(true) {
+	    Gob gob;
+	    synchronized(this) {
+		Retired r = retired.peek();
+		if((r == null) || (now - r.t < Config.gobpoolage))
+		    break;
+		retired.poll();
+		gob = r.gob;
+	    }
+	    synchronized(gob) {
+		if(gob.slots.isEmpty() && gob.placed.unplaced()) {
+		    gob.dispose();
+		} else {
+		    synchronized(this) {
+			dropped++;
+		    }
+		}
+	    }
+	}
+    }
+
+    public synchronized String toString() {
+	return(String.format("%d free, %d retiring, %,d made, %,d reused, %,d pooled, %,d dropped", nfree, retired.size(), made, reused, pooled, dropped));
+    }
+}
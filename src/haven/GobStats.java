@@ -0,0 +1,320 @@
+package haven;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import java.lang.ref.*;
+import java.io.*;
+
+/*
+ * Accounting of the gobs of an OCache and what hangs off them, to find
+ * out what holds memory over long sessions. Creations and removals of
+ * gobs, overlays, resource attributes and composites are counted as
+ * they happen; live counts and sizes per resource are gathered by
+ * walking the cache when a report is made. Sizes are estimates of the
+ * vertex, index and texture data of meshes and textures, which are
+ * shared by all users of a resource and so counted once for it, and of
+ * the data each composite keeps for itself, its poses and morphed
+ * meshes.
+ *
+ * Gobs removed from the cache are also watched, and those still in
+ * some render tree after Config.gobleak seconds are reported as leaks.
+ */
+public class GobStats {
+    public static final String[] kinds = {"gob", "overlay", "resattr", "composite"};
+    public static final int GOB = 0, OVERLAY = 1, RESATTR = 2, COMPOSITE = 3;
+    public final OCache oc;
+    public final AtomicLong[] created = new AtomicLong[kinds.length], destroyed = new AtomicLong[kinds.length];
+    private final Collection<Removed> removed = new ArrayList<>();
+    private final List<String> leaks = new ArrayList<>();
+    private final Map<Resource, Long> ressizes = new WeakHashMap<>();
+    private double lastcheck = Utils.rtime();
+
+    {
+	for(int i = 0; i < kinds.length; i++) {
+	    created[i] = new AtomicLong();
+	    destroyed[i] = new AtomicLong();
+	}
+    }
+
+    private static class Removed extends WeakReference<Gob> {
+	final long id;
+	final double t;
+
+	Removed(Gob gob, double t) {
+	    super(gob);
+	    this.id = gob.id;
+	    this.t = t;
+	}
+    }
+
+    public GobStats(OCache oc) {
+	this.oc = oc;
+    }
+
+    public void created(int kind) {
+	created[kind].incrementAndGet();
+    }
+
+    public void destroyed(int kind) {
+	destroyed[kind].incrementAndGet();
+    }
+
+    /* Called with the gob locked as it leaves the cache. What it still
+     * has attached is never detached one by one, and so is counted as
+     * destroyed along with it. */
+    public void removed(Gob gob) {
+	destroyed(GOB);
+	destroyed[OVERLAY].addAndGet(gob.ols.size());
+	destroyed[RESATTR].addAndGet(gob.rattrres().size());
+	if(gob.getattr(Composite.class) != null)
+	    destroyed(COMPOSITE);
+	synchronized(removed) {
+	    removed.add(new Removed(gob, Utils.rtime()));
+	}
+    }
+
+    /* Called from OCache's tick, and only does anything every few
+     * seconds. */
+    public void check() {
+	double now = Utils.rtime();
+	synchronized(removed) {
+	    if(now - lastcheck < 5)
+		return;
+	    lastcheck = now;
+	}
+	for(String leak : checkleaks(now)) {
+	    Debug.log.printf("gob leak: %s\n", leak);
+	    Debug.log.flush();
+	}
+    }
+
+    private List<String> checkleaks(double now) {
+	List<Removed> due = new ArrayList<>();
+	synchronized(removed) {
+	    for(Iterator<Removed> i = removed.iterator(); i.hasNext();) {
+		Removed r = i.next();
+		if(r.get() == null) {
+		    i.remove();
+		} else if(now - r.t >= Config.gobleak) {
+		    due.add(r);
+		    i.remove();
+		}
+	    }
+	}
+	List<String> found = new ArrayList<>();
+	for(Removed r : due) {
+	    Gob gob = r.get();
+	    if(gob == null)
+		continue;
+	    int nslots;
+	    synchronized(gob) {
+		/* Pooled gobs may be back under another id. */
+		if((gob.id != r.id) || (gob.ocidx >= 0))
+		    continue;
+		nslots = gob.slots.size();
+	    }
+	    if(nslots > 0)
+		found.add(String.format("%d (%s), removed %.0f s ago, still in %d render slots", r.id, resname(gob), now - r.t, nslots));
+	}
+	synchronized(leaks) {
+	    leaks.addAll(found);
+	}
+	return(found);
+    }
+
+    private static String resname(Gob gob) {
+	try {
+	    Resource res = gob.getres();
+	    return((res == null) ? "?" : res.name);
+	} catch(Loading l) {
+	    return("?");
+	}
+    }
+
+    private static long vbytes(VertexBuf buf) {
+	long ret = 0;
+	for(VertexBuf.AttribData d : buf.bufs)
+	    ret += (long)d.elfmt.size() * d.size();
+	return(ret);
+    }
+
+    private static long meshbytes(FastMesh m) {
+	return(vbytes(m.vert) + (m.indb.capacity() * 2L));
+    }
+
+    /* Mesh and texture data of a resource, counting a third more for
+     * the mipmaps of textures. */
+    private long ressize(Resource res) {
+	synchronized(ressizes) {
+	    Long sz = ressizes.get(res);
+	    if(sz != null)
+		return(sz);
+	}
+	long sz = 0;
+	for(FastMesh.MeshRes mr : res.layers(FastMesh.MeshRes.class))
+	    sz += meshbytes(mr.m);
+	for(TexR tr : res.layers(TexR.class)) {
+	    Coord tsz = tr.tex().sz();
+	    sz += (long)tsz.x * tsz.y * 4 * 4 / 3;
+	}
+	synchronized(ressizes) {
+	    ressizes.put(res, sz);
+	}
+	return(sz);
+    }
+
+    /* Poses keep four float vectors per bone, and the old pose while
+     * blending; each model has its own morphed copy of its mesh. */
+    private static long compsize(Composited comp) {
+	long ret = comp.skel.blist.length * (14 * 4 + 4 * 16) * ((comp.poses.old != null) ? 2 : 1);
+	for(Composited.Model mod : comp.mod)
+	    ret += vbytes(mod.m.vert);
+	return(ret);
+    }
+
+    public static class Entry {
+	public final String res;
+	public final int[] live = new int[kinds.length];
+	public long ressize, instsize;
+
+	Entry(String res) {
+	    this.res = res;
+	}
+    }
+
+    public static class Snapshot {
+	public final double t = Utils.rtime();
+	public final Map<String, Entry> byres = new HashMap<>();
+	public final long[] created = new long[kinds.length], destroyed = new long[kinds.length];
+	public int ngobs;
+
+	Entry get(String res) {
+	    return(byres.computeIfAbsent(res, Entry::new));
+	}
+
+	public long ressize() {
+	    long ret = 0;
+	    for(Entry e : byres.values())
+		ret += e.ressize;
+	    return(ret);
+	}
+
+	public long instsize() {
+	    long ret = 0;
+	    for(Entry e : byres.values())
+		ret += e.instsize;
+	    return(ret);
+	}
+    }
+
+    private void account(Snapshot s, int kind, Resource res, long instsize) {
+	Entry e = s.get((res == null) ? "?" : res.name);
+	if((e.ressize == 0) && (res != null))
+	    e.ressize = ressize(res);
+	e.live[kind]++;
+	e.instsize += instsize;
+    }
+
+    private static Resource resof(Indir<Resource> ind) {
+	try {
+	    return((ind == null) ? null : ind.get());
+	} catch(Loading l) {
+	    return(null);
+	}
+    }
+
+    public Snapshot snapshot() {
+	checkleaks(Utils.rtime());
+	Snapshot s = new Snapshot();
+	for(int i = 0; i < kinds.length; i++) {
+	    s.created[i] = created[i].get();
+	    s.destroyed[i] = destroyed[i].get();
+	}
+	for(Gob gob : oc.snapshot()) {
+	    synchronized(gob) {
+		s.ngobs++;
+		Resource res;
+		try {
+		    res = gob.getres();
+		} catch(Loading l) {
+		    res = null;
+		}
+		account(s, GOB, res, 0);
+		for(Gob.Overlay ol : gob.ols) {
+		    Resource ores = (ol.spr != null) ? ol.spr.res : resof(ol.res);
+		    account(s, OVERLAY, ores, 0);
+		}
+		for(Indir<Resource> rres : gob.rattrres())
+		    account(s, RESATTR, resof(rres), 0);
+		Composite comp = gob.getattr(Composite.class);
+		if(comp != null)
+		    account(s, COMPOSITE, res, compsize(comp.comp));
+	    }
+	}
+	return(s);
+    }
+
+    public void report(PrintWriter out, Snapshot s, Snapshot prev, int n) {
+	double dt = (prev == null) ? 0 : (s.t - prev.t);
+	out.printf("%,d gobs, est. %,d kB resource data, %,d kB instance data\n", s.ngobs, s.ressize() / 1024, s.instsize() / 1024);
+	for(int i = 0; i < kinds.length; i++) {
+	    out.printf("  %-10s %,10d created %,10d destroyed", kinds[i], s.created[i], s.destroyed[i]);
+	    if(dt > 0)
+		out.printf(" (%.1f/s, %.1f/s)", (s.created[i] - prev.created[i]) / dt, (s.destroyed[i] - prev.destroyed[i]) / dt);
+	    out.println();
+	}
+	List<Entry> ents = new ArrayList<>(s.byres.values());
+	ents.sort(Comparator.comparingLong((Entry e) -> e.ressize + e.instsize).reversed());
+	out.printf("  %8s %8s %8s %8s %10s %10s  %s\n", "gobs", "ols", "rattrs", "comps", "res kB", "inst kB", "resource");
+	for(Entry e : ents.subList(0, Math.min(n, ents.size()))) {
+	    out.printf("  %8d %8d %8d %8d %,10d %,10d  %s\n", e.live[GOB], e.live[OVERLAY], e.live[RESATTR], e.live[COMPOSITE],
+		       e.ressize / 1024, e.instsize / 1024, e.res);
+	}
+	synchronized(leaks) {
+	    if(!leaks.isEmpty()) {
+		out.printf("  %d leaked gobs:\n", leaks.size());
+		for(String leak : leaks)
+		    out.printf("    %s\n", leak);
+	    }
+	}
+	out.flush();
+    }
+
+    public void reset() {
+	for(int i = 0; i < kinds.length; i++) {
+	    created[i].set(0);
+	    destroyed[i].set(0);
+	}
+	synchronized(leaks) {
+	    leaks.clear();
+	}
+    }
+
+    public class Dumper extends HackThread {
+	public final File file;
+	public final int interval;
+
+	public Dumper(File file, int interval) {
+	    super("Gob stats dumper");
+	    setDaemon(true);
+	    this.file = file;
+	    this.interval = interval;
+	}
+
+	public void run() {
+	    try(PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+		Snapshot prev = null;
+		while(true) {
+		    Snapshot cur = snapshot();
+		    out.printf("%tF %<tT.%<tL: ", new Date());
+		    report(out, cur, prev, 50);
+		    prev = cur;
+		    Thread.sleep(interval * 1000L);
+		}
+	    } catch(InterruptedException e) {
+	    } catch(IOException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
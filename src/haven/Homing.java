@@ -39,6 +39,11 @@ public class Homing extends Moving {
     }
     
     public Coord3f getc() {
+	Coord2d c = getc2();
+	return(new Coord3f((float)c.x, (float)c.y, (float)gob.groundz(c)));
+    }
+
+    public Coord2d getc2() {
 	Coord2d rc = gob.rc;
 	Coord2d tc = this.tc;
 	Gob tgt = gob.glob.oc.getgob(this.tgt);
@@ -50,7 +55,7 @@ public class Homing extends Moving {
 	    rc = tc;
 	else if(e > 0.00001)
 	    rc = rc.add(d.mul(dist / e));
-	return(gob.glob.map.getzp(rc));
+	return(rc);
     }
     
     public double getv() {
@@ -81,6 +81,22 @@ public class IMeter extends Widget {
 	}
     }
     
+    /* Reads "set" straight from the cursor; a subclass handling it in
+     * the Object... form must override this too. */
+    public void uimsg(String msg, Message.Cursor args) {
+	if(msg == "set") {
+	    List<Meter> meters = new LinkedList<Meter>();
+	    while(args.next()) {
+		Color c = args.color();
+		args.next();
+		meters.add(new Meter(c, args.intval()));
+	    }
+	    this.meters = meters;
+	} else {
+	    super.uimsg(msg, args);
+	}
+    }
+
     public void uimsg(String msg, Object... args) {
 	if(msg == "set") {
 	    List<Meter> meters = new LinkedList<Meter>();
@@ -301,6 +301,10 @@ public class JOGLPanel extends GLCanvas implements Runnable, UIPanel, Console.Di
     private void drawstats(UI ui, GOut g, GLRender buf) {
 	int y = g.sz().y - 190;
 	FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "FPS: %d (%d%%, %d%% idle, latency %d)", fps, (int)(uidle * 100.0), (int)(ridle * 100.0), framelag);
+	if(ui.sess != null) {
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Net: %s", ui.sess.stats);
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Net in: %s", ui.sess.stats.topin(4));
+	}
 	Runtime rt = Runtime.getRuntime();
 	long free = rt.freeMemory(), total = rt.totalMemory();
 	FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Mem: %,011d/%,011d/%,011d/%,011d", free, total - free, total, rt.maxMemory());
@@ -313,9 +317,14 @@ public class JOGLPanel extends GLCanvas implements Runnable, UIPanel, Console.Di
 	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Mapview: %s", map.stats());
 	    // FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Click: Map: %s, Obj: %s", map.clmaplist.stats(), map.clobjlist.stats());
 	}
-	if(ui.sess != null)
+	if(ui.sess != null) {
 	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Async: L %s, D %s", ui.sess.glob.loader.stats(), Defer.gstats());
-	else
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Gob apply: %s", ui.sess.glob.oc.applier.stats());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Tick LOD: %s", ui.sess.glob.oc.lod.stats());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Map build: %s", ui.sess.glob.map.builder.stats());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Map: %s", ui.sess.glob.map.stats());
+	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Mesh cache: %s", ui.sess.glob.map.meshcache.stats());
+	} else
 	    FastText.aprintf(g, new Coord(10, y -= 15), 0, 1, "Async: D %s", Defer.gstats());
 	int rqd = Resource.local().qdepth() + Resource.remote().qdepth();
 	if(rqd > 0)
@@ -42,6 +42,15 @@ public class Label extends Widget {
 	    else
 		return(new Label((String)args[0]));
 	}
+
+	public Widget create(UI ui, Message.Cursor args) {
+	    args.next();
+	    String text = args.str();
+	    if(args.next())
+		return(new Label(text, args.intval()));
+	    else
+		return(new Label(text));
+	}
     }
 	
     public void draw(GOut g) {
@@ -81,6 +90,20 @@ public class Label extends Widget {
 	sz = this.text.sz();
     }
 	
+    /* Reads "set" and "col" straight from the cursor; a subclass
+     * handling them in the Object... form must override this too. */
+    public void uimsg(String msg, Message.Cursor args) {
+	if(msg == "set") {
+	    args.next();
+	    settext(args.str());
+	} else if(msg == "col") {
+	    args.next();
+	    setcolor(args.color());
+	} else {
+	    super.uimsg(msg, args);
+	}
+    }
+
     public void uimsg(String msg, Object... args) {
 	if(msg == "set") {
 	    settext((String)args[0]);
@@ -41,7 +41,12 @@ public class LinMove extends Moving {
     }
 
     public Coord3f getc() {
-	return(gob.glob.map.getzp(s.add(v.mul(t))));
+	Coord2d c = getc2();
+	return(new Coord3f((float)c.x, (float)c.y, (float)gob.groundz(c)));
+    }
+
+    public Coord2d getc2() {
+	return(s.add(v.mul(t)));
     }
 
     public double getv() {
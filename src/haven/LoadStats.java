@@ -0,0 +1,128 @@
+package haven;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.io.*;
+
+/*
+ * Counts Loading exceptions by where they were thrown and by what they
+ * waited for, and how long waits registered through Waitable took to
+ * resolve, to find the loads that keep the client spinning. Only kept
+ * with haven.loadstats on. Without stack traces (see Config.loadtrace)
+ * a throw site is only the class of the exception; with them, it is
+ * the first frame outside the exception's constructors. What is waited
+ * for is known for resources and for whatever else names a subject.
+ */
+public class LoadStats {
+    private static final ConcurrentHashMap<String, Entry> sites = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, Entry> subjects = new ConcurrentHashMap<>();
+
+    public static class Entry {
+	public final String key;
+	public final AtomicLong thrown = new AtomicLong(), waits = new AtomicLong();
+	public final AtomicLong waitns = new AtomicLong(), maxns = new AtomicLong();
+
+	private Entry(String key) {
+	    this.key = key;
+	}
+
+	void waited(long ns) {
+	    waits.incrementAndGet();
+	    waitns.addAndGet(ns);
+	    maxns.accumulateAndGet(ns, Math::max);
+	}
+    }
+
+    private static Entry get(ConcurrentHashMap<String, Entry> map, String key) {
+	return(map.computeIfAbsent(key, Entry::new));
+    }
+
+    /* Loadings nested in some class, like Resource.Loading, are mostly
+     * thrown from that class on behalf of its callers, so the first
+     * frame outside of it, and outside Loading's own helpers, is taken
+     * to be the site. */
+    private static String site(Loading l) {
+	StackTraceElement[] st = l.getStackTrace();
+	if(st.length == 0)
+	    return(l.getClass().getName());
+	Set<String> ctors = new HashSet<>();
+	for(Class<?> c = l.getClass(); c != Throwable.class; c = c.getSuperclass())
+	    ctors.add(c.getName());
+	String outer = l.getClass().getName();
+	outer = (outer.indexOf('$') < 0) ? null : outer.substring(0, outer.indexOf('$'));
+	for(StackTraceElement f : st) {
+	    String cl = f.getClassName();
+	    if((f.getMethodName().equals("<init>") && ctors.contains(cl)) || cl.equals(Loading.class.getName()))
+		continue;
+	    if((outer != null) && (cl.equals(outer) || cl.startsWith(outer + "$")))
+		continue;
+	    return(String.format("%s (%s.%s:%d)", l.getClass().getName(), f.getClassName(), f.getMethodName(), f.getLineNumber()));
+	}
+	return(l.getClass().getName());
+    }
+
+    static String thrown(Loading l) {
+	Entry e = get(sites, site(l));
+	e.thrown.incrementAndGet();
+	return(e.key);
+    }
+
+    static void subject(String nm) {
+	get(subjects, nm).thrown.incrementAndGet();
+    }
+
+    /* Wraps a callback to be registered with l.waitfor so that the
+     * time until it is called is recorded. */
+    public static Runnable timed(Loading l, Runnable callback) {
+	if(!Config.loadstats || (l.site == null))
+	    return(callback);
+	String subject = null;
+	for(Loading c = l; (c != null) && (subject == null); c = c.rec)
+	    subject = c.subject;
+	String site = l.site, subj = subject;
+	long st = System.nanoTime();
+	AtomicBoolean done = new AtomicBoolean(false);
+	return(() -> {
+		if(!done.getAndSet(true)) {
+		    long t = System.nanoTime() - st;
+		    get(sites, site).waited(t);
+		    if(subj != null)
+			get(subjects, subj).waited(t);
+		}
+		callback.run();
+	    });
+    }
+
+    public static void reset() {
+	sites.clear();
+	subjects.clear();
+    }
+
+    private static void report(PrintWriter out, String title, Collection<Entry> ents, int n) {
+	List<Entry> byct = new ArrayList<>(ents);
+	byct.sort(Comparator.comparingLong((Entry e) -> e.thrown.get()).reversed());
+	out.printf("%s, by throws:\n", title);
+	for(Entry e : byct.subList(0, Math.min(n, byct.size())))
+	    out.printf("  %,10d  %s\n", e.thrown.get(), e.key);
+	List<Entry> bywait = new ArrayList<>();
+	for(Entry e : ents) {
+	    if(e.waits.get() > 0)
+		bywait.add(e);
+	}
+	bywait.sort(Comparator.comparingLong((Entry e) -> e.waitns.get()).reversed());
+	out.printf("%s, by total wait:\n", title);
+	for(Entry e : bywait.subList(0, Math.min(n, bywait.size()))) {
+	    out.printf("  %,10.1f ms in %,d waits (%,.2f ms avg, %,.2f ms max)  %s\n",
+		       e.waitns.get() / 1e6, e.waits.get(), e.waitns.get() / 1e6 / e.waits.get(), e.maxns.get() / 1e6, e.key);
+	}
+    }
+
+    public static void report(PrintWriter out, int n) {
+	if(!Config.loadstats)
+	    out.println("Loading statistics are off (haven.loadstats).");
+	report(out, "Sites", sites.values(), n);
+	report(out, "Subjects", subjects.values(), n);
+	out.flush();
+    }
+}
@@ -75,7 +75,7 @@ public class Loader {
 			    }
 			} catch(Loading l) {
 			    curload = l;
-			    l.waitfor(() -> {
+			    l.waitfor(LoadStats.timed(l, () -> {
 				    synchronized(queue) {
 					if(loading.remove(this) != null) {
 					    curload = null;
@@ -84,7 +84,7 @@ public class Loader {
 					}
 				    }
 				    check();
-				},
+				}),
 				wait -> {
 				    boolean ck = false;
 				    synchronized(queue) {
@@ -237,6 +237,169 @@ public class Loader {
 		}, false));
     }
 
+    /* Runs a task over a changing set of items in chunks, with at most
+     * a given number of loader tasks draining the set, rather than
+     * deferring one future per item. Each such task goes to the back
+     * of the loader's queue after every chunk, so that other loader
+     * work gets its turn. An item is never run by two threads at
+     * once, and one submitted while it runs is run again afterwards.
+     * An item whose task throws Loading is set aside until what it
+     * waits for is done, and is then run again. Any other error is
+     * thrown from the loader thread once its chunk is done, as from
+     * a future deferred without capturing exceptions. */
+    public class Batch<T> {
+	public final Consumer<? super T> task;
+	public final int maxworkers, chunk;
+	private final Queue<T> queue = new ArrayDeque<>();
+	private final Map<T, Long> queued = new IdentityHashMap<>();
+	private final Set<T> running = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Set<T> rerun = Collections.newSetFromMap(new IdentityHashMap<>());
+	private final Map<T, Parked> parked = new IdentityHashMap<>();
+	private int workers = 0;
+	private long batches, items, nparked, batchns, maxbatchns, waitns, maxwaitns;
+
+	private class Parked {
+	    Waiting wait = null;
+	}
+
+	public Batch(Consumer<? super T> task, int maxworkers, int chunk) {
+	    this.task = task;
+	    this.maxworkers = maxworkers;
+	    this.chunk = chunk;
+	}
+
+	/* A parked item is only run again before its wait is over if
+	 * interrupt is given, as with Future.restart(), in which case
+	 * the wait is cancelled. */
+	public void submit(T item, boolean interrupt) {
+	    boolean spawn = false;
+	    Waiting wait = null;
+	    synchronized(this) {
+		if(parked.containsKey(item)) {
+		    if(!interrupt)
+			return;
+		    wait = parked.remove(item).wait;
+		}
+		if(running.contains(item)) {
+		    rerun.add(item);
+		} else if(!queued.containsKey(item)) {
+		    queued.put(item, System.nanoTime());
+		    queue.add(item);
+		    if((workers < maxworkers) && (queue.size() > workers * chunk)) {
+			workers++;
+			spawn = true;
+		    }
+		}
+	    }
+	    if(wait != null)
+		wait.cancel();
+	    if(spawn)
+		defer(this::drain, null);
+	}
+
+	public void submit(T item) {
+	    submit(item, false);
+	}
+
+	private void resume(T item, Parked p) {
+	    synchronized(this) {
+		if(parked.get(item) != p)
+		    return;
+		parked.remove(item);
+	    }
+	    submit(item, true);
+	}
+
+	private void park(T item, Loading l) {
+	    Parked p = new Parked();
+	    synchronized(this) {
+		parked.put(item, p);
+		nparked++;
+	    }
+	    try {
+		l.waitfor(LoadStats.timed(l, () -> resume(item, p)), wait -> {
+			boolean stale;
+			synchronized(this) {
+			    if(!(stale = (parked.get(item) != p)))
+				p.wait = wait;
+			}
+			if(stale)
+			    wait.cancel();
+		    });
+	    } catch(Loading.UnwaitableEvent e) {
+		synchronized(this) {
+		    if(parked.get(item) == p)
+			parked.remove(item);
+		}
+		e.printStackTrace();
+	    }
+	}
+
+	private void drain() {
+	    List<T> batch = new ArrayList<>(chunk);
+	    long st;
+	    synchronized(this) {
+		st = System.nanoTime();
+		T item;
+		while((batch.size() < chunk) && ((item = queue.poll()) != null)) {
+		    long wait = st - queued.remove(item);
+		    waitns += wait;
+		    maxwaitns = Math.max(maxwaitns, wait);
+		    running.add(item);
+		    batch.add(item);
+		}
+		if(batch.isEmpty()) {
+		    workers--;
+		    return;
+		}
+	    }
+	    Throwable err = null;
+	    for(T item : batch) {
+		try {
+		    task.accept(item);
+		} catch(Loading l) {
+		    park(item, l);
+		} catch(RuntimeException | Error e) {
+		    if(err == null)
+			err = e;
+		    else
+			err.addSuppressed(e);
+		} finally {
+		    boolean again;
+		    synchronized(this) {
+			running.remove(item);
+			again = rerun.remove(item);
+		    }
+		    if(again)
+			submit(item, true);
+		}
+	    }
+	    long t = System.nanoTime() - st;
+	    boolean more;
+	    synchronized(this) {
+		batches++;
+		items += batch.size();
+		batchns += t;
+		maxbatchns = Math.max(maxbatchns, t);
+		if(!(more = !queue.isEmpty()))
+		    workers--;
+	    }
+	    if(more)
+		defer(this::drain, null);
+	    if(err instanceof Error)
+		throw((Error)err);
+	    if(err != null)
+		throw((RuntimeException)err);
+	}
+
+	public synchronized String stats() {
+	    return(String.format("%d+%d %d/%d, %,d in %,d batches (%.2f ms avg, %.2f max), wait %.2f ms avg %.2f max, %,d parked",
+				 queue.size(), parked.size(), workers, maxworkers, items, batches,
+				 batchns / 1e6 / Math.max(batches, 1), maxbatchns / 1e6,
+				 waitns / 1e6 / Math.max(items, 1), maxwaitns / 1e6, nparked));
+	}
+    }
+
     public String stats() {
 	synchronized(queue) {
 	    return(String.format("%d+%d %d/%d", queue.size(), loading.size(), busy.get(), pool.size()));
@@ -30,6 +30,13 @@ import java.util.function.Consumer;
 
 public class Loading extends RuntimeException implements Waitable {
     public final Loading rec;
+    /* Keys under which LoadStats counts this, when it does. */
+    transient String site, subject;
+
+    {
+	if(Config.loadstats)
+	    site = LoadStats.thrown(this);
+    }
 
     public Loading() {
 	super();
@@ -61,6 +68,24 @@ public class Loading extends RuntimeException implements Waitable {
 	this.rec = rec;
     }
 
+    /* Loadings are thrown as a matter of course, often every frame
+     * until something is done, so their stack traces are only
+     * captured when debugging with haven.loadtrace. */
+    public Throwable fillInStackTrace() {
+	if(!Config.loadtrace)
+	    return(this);
+	return(super.fillInStackTrace());
+    }
+
+    /* Names what is being waited for, such as a resource, so that
+     * LoadStats can count by it. */
+    protected void subject(String nm) {
+	if(site != null) {
+	    subject = nm;
+	    LoadStats.subject(nm);
+	}
+    }
+
     public String getMessage() {
 	if(rec != null)
 	    return(rec.getMessage());
@@ -87,12 +112,12 @@ public class Loading extends RuntimeException implements Waitable {
     private void queuewait() throws InterruptedException {
 	boolean[] buf = {false};
 	Waitable.Waiting[] wbuf = {null};
-	waitfor(() -> {
-		synchronized(buf) {
-		    buf[0] = true;
-		    buf.notifyAll();
-		}
-	    },
+	waitfor(LoadStats.timed(this, () -> {
+		    synchronized(buf) {
+			buf[0] = true;
+			buf.notifyAll();
+		    }
+		}),
 	    wait -> wbuf[0] = wait);
 	try {
 	    synchronized(buf) {
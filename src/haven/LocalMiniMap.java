@@ -152,36 +152,39 @@ public class LocalMiniMap extends Widget {
 	       return(c.sub(sz.div(2)).add(cc).mul(tilesz).add(tilesz.div(2)));
     }
 
+    /* Icons are drawn centered on their gobs, so gobs somewhat
+     * outside a region may still have icons inside it. */
+    private static final int iconslop = 32;
+
+    private List<Gob> icongobs(Coord ul, Coord br) {
+	return(ui.sess.glob.oc.grid.rect(c2p(ul.sub(iconslop, iconslop)), c2p(br.add(iconslop, iconslop)),
+					 gob -> gob.getattr(GobIcon.class) != null));
+    }
+
     public void drawicons(GOut g) {
-    	OCache oc = ui.sess.glob.oc;
-    	synchronized(oc) {
-    	    for(Gob gob : oc) {
-    		try {
-    		    GobIcon icon = gob.getattr(GobIcon.class);
-    		    if(icon != null) {
-    			Coord gc = p2c(gob.rc);
-    			Tex tex = icon.tex();
-    			g.image(tex, gc.sub(tex.sz().div(2)));
-    		    }
-    		} catch(Loading l) {}
-    	    }
+    	for(Gob gob : icongobs(Coord.z, sz)) {
+    	    try {
+    		GobIcon icon = gob.getattr(GobIcon.class);
+    		if(icon != null) {
+    		    Coord gc = p2c(gob.rc);
+    		    Tex tex = icon.tex();
+    		    g.image(tex, gc.sub(tex.sz().div(2)));
+    		}
+    	    } catch(Loading l) {}
     	}
     }
 
     public Gob findicongob(Coord c) {
-    	OCache oc = ui.sess.glob.oc;
-    	synchronized(oc) {
-    	    for(Gob gob : oc) {
-    		try {
-    		    GobIcon icon = gob.getattr(GobIcon.class);
-    		    if(icon != null) {
-    			Coord gc = p2c(gob.rc);
-    			Coord sz = icon.tex().sz();
-    			if(c.isect(gc.sub(sz.div(2)), sz))
-    			    return(gob);
-    		    }
-    		} catch(Loading l) {}
-    	    }
+    	for(Gob gob : icongobs(c, c)) {
+    	    try {
+    		GobIcon icon = gob.getattr(GobIcon.class);
+    		if(icon != null) {
+    		    Coord gc = p2c(gob.rc);
+    		    Coord sz = icon.tex().sz();
+    		    if(c.isect(gc.sub(sz.div(2)), sz))
+    			return(gob);
+    		}
+    	    } catch(Loading l) {}
     	}
     	return(null);
     }
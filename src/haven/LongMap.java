@@ -0,0 +1,131 @@
+package haven;
+
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * A hash map from primitive longs, so that lookups neither box their
+ * keys nor allocate entries. It uses open addressing with linear
+ * probing, and deletes by shifting later entries of the same probe
+ * run back rather than leaving tombstones. Null values cannot be
+ * stored, since a null value marks an empty slot.
+ */
+public class LongMap<V> {
+    private long[] keys;
+    private Object[] vals;
+    private int sz = 0, shift;
+
+    public LongMap(int capacity) {
+	int n = 8;
+	while(n < capacity * 2)
+	    n <<= 1;
+	alloc(n);
+    }
+
+    public LongMap() {
+	this(8);
+    }
+
+    private void alloc(int n) {
+	keys = new long[n];
+	vals = new Object[n];
+	shift = 64 - Integer.numberOfTrailingZeros(n);
+    }
+
+    private int slot(long k) {
+	return((int)((k * 0x9e3779b97f4a7c15L) >>> shift));
+    }
+
+    private int find(long k) {
+	int m = keys.length - 1;
+	for(int i = slot(k); ; i = (i + 1) & m) {
+	    if(vals[i] == null)
+		return(~i);
+	    if(keys[i] == k)
+		return(i);
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    public V get(long k) {
+	int i = find(k);
+	return((i < 0) ? null : (V)vals[i]);
+    }
+
+    public boolean containsKey(long k) {
+	return(find(k) >= 0);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V put(long k, V v) {
+	if(v == null)
+	    throw(new NullPointerException());
+	int i = find(k);
+	if(i >= 0) {
+	    V ret = (V)vals[i];
+	    vals[i] = v;
+	    return(ret);
+	}
+	if((sz + 1) * 2 > keys.length) {
+	    rehash(keys.length * 2);
+	    i = find(k);
+	}
+	i = ~i;
+	keys[i] = k;
+	vals[i] = v;
+	sz++;
+	return(null);
+    }
+
+    @SuppressWarnings("unchecked")
+    public V remove(long k) {
+	int i = find(k);
+	if(i < 0)
+	    return(null);
+	V ret = (V)vals[i];
+	int m = keys.length - 1;
+	for(int j = (i + 1) & m; vals[j] != null; j = (j + 1) & m) {
+	    /* Move the entry at j into the hole at i unless its home
+	     * slot lies cyclically within (i, j]. */
+	    int h = slot(keys[j]);
+	    if(((j - h) & m) >= ((j - i) & m)) {
+		keys[i] = keys[j];
+		vals[i] = vals[j];
+		i = j;
+	    }
+	}
+	vals[i] = null;
+	sz--;
+	return(ret);
+    }
+
+    private void rehash(int n) {
+	long[] ok = keys;
+	Object[] ov = vals;
+	alloc(n);
+	for(int i = 0; i < ok.length; i++) {
+	    if(ov[i] != null) {
+		int s = ~find(ok[i]);
+		keys[s] = ok[i];
+		vals[s] = ov[i];
+	    }
+	}
+    }
+
+    public int size() {
+	return(sz);
+    }
+
+    public void clear() {
+	Arrays.fill(vals, null);
+	sz = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    public void forEach(Consumer<? super V> action) {
+	for(int i = 0; i < vals.length; i++) {
+	    if(vals[i] != null)
+		action.accept((V)vals[i]);
+	}
+    }
+}
@@ -29,6 +29,7 @@ package haven;
 import java.util.*;
 import java.util.function.*;
 import java.lang.ref.*;
+import java.io.PrintWriter;
 import haven.render.*;
 
 /* XXX: This whole file is a bit of a mess and could use a bit of a
@@ -39,6 +40,11 @@ public class MCache {
     public static final Coord cmaps = new Coord(100, 100);
     public static final Coord cutsz = new Coord(25, 25);
     public static final Coord cutn = cmaps.div(cutsz);
+    /* How far, in tiles, a changed tile or height can affect the
+     * meshes of the cuts around it. TerrainTile blends across 12
+     * tiles and WaterTile smooths depths across 10, while heights
+     * only reach the surface vertices and ridges next to them. */
+    public static final int tilereach = 13, zreach = 2;
     public final Resource.Spec[] nsets = new Resource.Spec[256];
     @SuppressWarnings("unchecked")
     private final Reference<Resource>[] sets = new Reference[256];
@@ -52,7 +58,11 @@ public class MCache {
     Session sess;
     Set<Overlay> ols = new HashSet<Overlay>();
     public int olseq = 0;
-    Map<Integer, Defrag> fragbufs = new TreeMap<Integer, Defrag>();
+    final Defrag.Table<Integer> fragbufs = new Defrag.Table<>(10000);
+    public final MapBuilder builder = new MapBuilder();
+    public final MeshCache meshcache = new MeshCache(this);
+    public long nfills, cutsbuilt, cutskept;
+    public volatile Heights heights = Heights.empty;
 
     public static class LoadingMap extends Loading {
 	public final Coord gc;
@@ -118,10 +128,228 @@ public class MCache {
 	}
     }
 
+    /* Per-tile data of a grid, kept row by row in the smallest type
+     * that holds it. With haven.gridrle on, rows whose tiles all have
+     * the same value, as in most of any ocean or cave grid, share one
+     * read-only row of that value with all other such rows. */
+    public static abstract class Layer {
+	public abstract int get(int x, int y);
+	/* Sets row y from the first cmaps.x elements of buf. */
+	public abstract void setrow(int y, int[] buf);
+	protected abstract boolean shared(int y);
+	protected abstract int elsize();
+
+	public int get(int i) {
+	    return(get(i % cmaps.x, i / cmaps.x));
+	}
+
+	public int get(Coord tc) {
+	    return(get(tc.x, tc.y));
+	}
+
+	protected static boolean uniform(int[] buf) {
+	    if(!Config.gridrle)
+		return(false);
+	    for(int x = 1; x < cmaps.x; x++) {
+		if(buf[x] != buf[0])
+		    return(false);
+	    }
+	    return(true);
+	}
+
+	public int packed() {
+	    int ret = 0;
+	    for(int y = 0; y < cmaps.y; y++) {
+		if(shared(y))
+		    ret++;
+	    }
+	    return(ret);
+	}
+
+	/* Approximate heap size, with 16 bytes per array header. */
+	public int bytes() {
+	    return((16 + (cmaps.y * 4)) + ((cmaps.y - packed()) * (16 + (cmaps.x * elsize()))));
+	}
+    }
+
+    public static class ByteLayer extends Layer {
+	private static final byte[][] uniform = new byte[256][];
+	private final byte[][] rows = new byte[cmaps.y][];
+
+	public ByteLayer() {
+	    Arrays.fill(rows, uniform(0));
+	}
+
+	private static byte[] uniform(int v) {
+	    synchronized(uniform) {
+		if(uniform[v] == null)
+		    Arrays.fill(uniform[v] = new byte[cmaps.x], (byte)v);
+		return(uniform[v]);
+	    }
+	}
+
+	public int get(int x, int y) {
+	    return(rows[y][x] & 0xff);
+	}
+
+	public void setrow(int y, int[] buf) {
+	    if(uniform(buf)) {
+		rows[y] = uniform(buf[0] & 0xff);
+		return;
+	    }
+	    byte[] r = rows[y];
+	    /* A fresh row is filled before it is published, since
+	     * builders and Heights read rows unlocked. */
+	    if(shared(y))
+		r = new byte[cmaps.x];
+	    for(int x = 0; x < cmaps.x; x++)
+		r[x] = (byte)buf[x];
+	    rows[y] = r;
+	}
+
+	protected boolean shared(int y) {
+	    byte[] r = rows[y];
+	    return(r == uniform[r[0] & 0xff]);
+	}
+
+	protected int elsize() {return(1);}
+    }
+
+    public static class ShortLayer extends Layer {
+	/* Uniform heights are few in practice, but are not interned
+	 * beyond this many. */
+	private static final int maxuniform = 1024;
+	private static final Map<Integer, short[]> uniform = new HashMap<>();
+	private final int mask;
+	private final short[][] rows = new short[cmaps.y][];
+
+	public ShortLayer(boolean signed) {
+	    this.mask = signed ? -1 : 0xffff;
+	    Arrays.fill(rows, uniform(0));
+	}
+
+	private static short[] uniform(int v) {
+	    synchronized(uniform) {
+		short[] r = uniform.get(v);
+		if((r == null) && (uniform.size() < maxuniform)) {
+		    Arrays.fill(r = new short[cmaps.x], (short)v);
+		    uniform.put(v, r);
+		}
+		return(r);
+	    }
+	}
+
+	public int get(int x, int y) {
+	    return(rows[y][x] & mask);
+	}
+
+	public void setrow(int y, int[] buf) {
+	    short[] u;
+	    if(uniform(buf) && ((u = uniform(buf[0] & mask)) != null)) {
+		rows[y] = u;
+		return;
+	    }
+	    short[] r = rows[y];
+	    if(shared(y))
+		r = new short[cmaps.x];
+	    for(int x = 0; x < cmaps.x; x++)
+		r[x] = (short)buf[x];
+	    rows[y] = r;
+	}
+
+	protected boolean shared(int y) {
+	    short[] r = rows[y];
+	    synchronized(uniform) {
+		return(r == uniform.get(r[0] & mask));
+	    }
+	}
+
+	protected int elsize() {return(2);}
+    }
+
+    /* The height layers of the loaded grids, for sampling heights
+     * without locking the grids or allocating. A new one replaces the
+     * last whenever grids come or go, and it is never modified
+     * itself. A grid being refilled meanwhile may be seen with some of
+     * its rows updated and some not, which is off by at most a
+     * frame. */
+    public static class Heights {
+	public static final Heights empty = new Heights(Collections.emptyMap());
+	private final int[] gx, gy;
+	private final ShortLayer[] z;
+	private final int mask;
+
+	Heights(Map<Coord, Grid> grids) {
+	    int sz = 4;
+	    while(sz < grids.size() * 2)
+		sz <<= 1;
+	    gx = new int[sz];
+	    gy = new int[sz];
+	    z = new ShortLayer[sz];
+	    mask = sz - 1;
+	    for(Grid g : grids.values()) {
+		int i = hash(g.gc.x, g.gc.y) & mask;
+		while(z[i] != null)
+		    i = (i + 1) & mask;
+		gx[i] = g.gc.x;
+		gy[i] = g.gc.y;
+		z[i] = g.z;
+	    }
+	}
+
+	private static int hash(int x, int y) {
+	    int h = (x * 0x9e3779b1) ^ (y * 0x7feb352d);
+	    return(h ^ (h >>> 15));
+	}
+
+	public ShortLayer get(int x, int y) {
+	    for(int i = hash(x, y) & mask; z[i] != null; i = (i + 1) & mask) {
+		if((gx[i] == x) && (gy[i] == y))
+		    return(z[i]);
+	    }
+	    return(null);
+	}
+
+	/* The height of tile (tx, ty), or Integer.MIN_VALUE if its grid
+	 * is not loaded. */
+	public int getz(int tx, int ty) {
+	    int x = Utils.floordiv(tx, cmaps.x), y = Utils.floordiv(ty, cmaps.y);
+	    ShortLayer l = get(x, y);
+	    if(l == null)
+		return(Integer.MIN_VALUE);
+	    return(l.get(tx - (x * cmaps.x), ty - (y * cmaps.y)));
+	}
+
+	/* The height at (px, py), interpolated between the four tiles
+	 * around it as MCache.getcz does, or NaN if any of them is in
+	 * a grid not loaded. */
+	public double sample(double px, double py) {
+	    double qx = px / tilesz.x, qy = py / tilesz.y;
+	    int tx = (int)Math.floor(qx), ty = (int)Math.floor(qy);
+	    double sx = qx - tx, sy = qy - ty;
+	    int x = Utils.floordiv(tx, cmaps.x), y = Utils.floordiv(ty, cmaps.y);
+	    int lx = tx - (x * cmaps.x), ly = ty - (y * cmaps.y);
+	    int z00, z10, z01, z11;
+	    if((lx < cmaps.x - 1) && (ly < cmaps.y - 1)) {
+		ShortLayer l = get(x, y);
+		if(l == null)
+		    return(Double.NaN);
+		z00 = l.get(lx, ly);     z10 = l.get(lx + 1, ly);
+		z01 = l.get(lx, ly + 1); z11 = l.get(lx + 1, ly + 1);
+	    } else {
+		if(((z00 = getz(tx, ty)) == Integer.MIN_VALUE) || ((z10 = getz(tx + 1, ty)) == Integer.MIN_VALUE) ||
+		   ((z01 = getz(tx, ty + 1)) == Integer.MIN_VALUE) || ((z11 = getz(tx + 1, ty + 1)) == Integer.MIN_VALUE))
+		    return(Double.NaN);
+	    }
+	    return(((1.0f - sy) * (((1.0f - sx) * z00) + (sx * z10))) +
+		   (sy * (((1.0f - sx) * z01) + (sx * z11))));
+	}
+    }
+
     public class Grid {
-	public final int tiles[] = new int[cmaps.x * cmaps.y];
-	public final int z[] = new int[cmaps.x * cmaps.y];
-	public final int ol[] = new int[cmaps.x * cmaps.y];
+	public final ByteLayer tiles = new ByteLayer();
+	public final ShortLayer z = new ShortLayer(true);
+	public final ShortLayer ol = new ShortLayer(false);
 	public final Coord gc, ul;
 	public long id;
 	public int seq = -1;
@@ -132,7 +360,7 @@ public class MCache {
 
 	private class Cut {
 	    MapMesh mesh;
-	    Defer.Future<MapMesh> dmesh;
+	    MapBuilder.Job dmesh;
 	    RenderTree.Node[] ols;
 	}
 
@@ -159,15 +387,15 @@ public class MCache {
 	}
 
 	public int gettile(Coord tc) {
-	    return(tiles[tc.x + (tc.y * cmaps.x)]);
+	    return(tiles.get(tc.x, tc.y));
 	}
 
 	public int getz(Coord tc) {
-	    return(z[tc.x + (tc.y * cmaps.x)]);
+	    return(z.get(tc.x, tc.y));
 	}
 
 	public int getol(Coord tc) {
-	    return(ol[tc.x + (tc.y * cmaps.x)]);
+	    return(ol.get(tc.x, tc.y));
 	}
 
 	private class Flavobjs implements RenderTree.Node {
@@ -222,7 +450,7 @@ public class MCache {
 	    Random rnd = new Random(id + cutc.x + (cutc.y * cutn.x));
 	    for(o.y = 0; o.y < cutsz.x; o.y++, i += (cmaps.x - cutsz.x)) {
 		for(o.x = 0; o.x < cutsz.y; o.x++, i++) {
-		    Tileset set = tileset(tiles[i]);
+		    Tileset set = tileset(tiles.get(i));
 		    Collection<Gob> mbuf = buf.get(set.flavobjmat);
 		    if(mbuf == null)
 			buf.put(set.flavobjmat, mbuf = new ArrayList<>());
@@ -290,17 +518,38 @@ public class MCache {
 	
 	private void buildcut(final Coord cc) {
 	    final Cut cut = geticut(cc);
-	    Defer.Future<?> prev = cut.dmesh;
-	    cut.dmesh = Defer.later(new Defer.Callable<MapMesh>() {
+	    MapBuilder.Job prev = cut.dmesh;
+	    cutsbuilt++;
+	    int zmin = Integer.MAX_VALUE, zmax = Integer.MIN_VALUE;
+	    for(int y = cc.y * cutsz.y; y < (cc.y + 1) * cutsz.y; y++) {
+		for(int x = cc.x * cutsz.x; x < (cc.x + 1) * cutsz.x; x++) {
+		    int h = z.get(x, y);
+		    zmin = Math.min(zmin, h);
+		    zmax = Math.max(zmax, h);
+		}
+	    }
+	    long id = this.id;
+	    cut.dmesh = builder.submit(gc.mul(cutn).add(cc), zmin, zmax, new Defer.Callable<MapMesh>() {
 		    public MapMesh call() {
+			Coord cul = ul.add(cc.mul(cutsz));
+			MeshCache.Key key;
+			try {
+			    key = meshcache.key(id, cc, cul, cutsz);
+			} catch(Loading l) {
+			    key = null;
+			}
+			MapMesh ret = (key == null) ? null : meshcache.take(key);
+			if(ret != null)
+			    return(ret);
 			Random rnd = new Random(id);
 			rnd.setSeed(rnd.nextInt() ^ cc.x);
 			rnd.setSeed(rnd.nextInt() ^ cc.y);
-			return(MapMesh.build(MCache.this, rnd, ul.add(cc.mul(cutsz)), cutsz));
-		    }
-
-		    public String toString() {
-			return("Building map...");
+			if((key != null) && ((ret = meshcache.load(key, rnd, cul, cutsz)) != null))
+			    return(ret);
+			ret = MapMesh.build(MCache.this, rnd, cul, cutsz);
+			ret.key = key;
+			meshcache.store(ret);
+			return(ret);
 		    }
 		});
 	    if(prev != null)
@@ -349,11 +598,79 @@ public class MCache {
 	    }
 	}
 
+	/* The cuts affected by changes to the data of a grid being
+	 * refreshed, including those along the edges of its
+	 * neighbours, which are indexed from (-1, -1). */
+	private class Dirty {
+	    final int w = cutn.x + 2;
+	    final boolean[] mesh = new boolean[w * (cutn.y + 2)];
+	    final boolean[] flavor = new boolean[cutn.x * cutn.y], ols = new boolean[cutn.x * cutn.y];
+
+	    void mark(int i, int r) {
+		int x = i % cmaps.x, y = i / cmaps.x;
+		int x1 = Math.max(Utils.floordiv(x - r, cutsz.x), -1), x2 = Math.min(Utils.floordiv(x + r, cutsz.x), cutn.x);
+		int y1 = Math.max(Utils.floordiv(y - r, cutsz.y), -1), y2 = Math.min(Utils.floordiv(y + r, cutsz.y), cutn.y);
+		for(int cy = y1; cy <= y2; cy++) {
+		    for(int cx = x1; cx <= x2; cx++)
+			mesh[(cx + 1) + ((cy + 1) * w)] = true;
+		}
+	    }
+
+	    int cut(int i) {
+		return(((i % cmaps.x) / cutsz.x) + (((i / cmaps.x) / cutsz.y) * cutn.x));
+	    }
+
+	    void tile(int i) {
+		mark(i, tilereach);
+		flavor[cut(i)] = true;
+	    }
+
+	    void z(int i) {
+		mark(i, zreach);
+	    }
+
+	    void ol(int i) {
+		ols[cut(i)] = true;
+	    }
+	}
+
+	private void rebuild(Dirty d) {
+	    Coord cc = new Coord();
+	    for(cc.y = -1; cc.y <= cutn.y; cc.y++) {
+		for(cc.x = -1; cc.x <= cutn.x; cc.x++) {
+		    boolean own = (cc.x >= 0) && (cc.y >= 0) && (cc.x < cutn.x) && (cc.y < cutn.y);
+		    if(!d.mesh[(cc.x + 1) + ((cc.y + 1) * d.w)]) {
+			if(own)
+			    cutskept++;
+			continue;
+		    }
+		    Grid g = own ? this : grids.get(gc.add(cc.div(cutn)));
+		    if(g != null)
+			g.buildcut(cc.mod(cutn));
+		}
+	    }
+	    for(int i = 0; i < cuts.length; i++) {
+		if(d.flavor[i])
+		    fo[i] = null;
+		if(d.ols[i] && (cuts[i].ols != null)) {
+		    for(RenderTree.Node r : cuts[i].ols) {
+			if(r instanceof Disposable)
+			    ((Disposable)r).dispose();
+		    }
+		    cuts[i].ols = null;
+		}
+	    }
+	}
+
+	public int bytes() {
+	    return(tiles.bytes() + z.bytes() + ol.bytes());
+	}
+
 	public void dispose() {
 	    for(Cut cut : cuts) {
 		if(cut.dmesh != null)
 		    cut.dmesh.cancel();
-		if(cut.mesh != null)
+		if((cut.mesh != null) && !meshcache.put(cut.mesh))
 		    cut.mesh.dispose();
 		if(cut.ols != null) {
 		    for(RenderTree.Node r : cut.ols) {
@@ -378,21 +695,40 @@ public class MCache {
 		pfl[pidx] = msg.uint8();
 	    }
 	    Message blob = new ZMessage(msg);
-	    id = blob.int64();
+	    long id = blob.int64();
+	    /* Refreshes of a grid, such as after digging or paving,
+	     * usually change only a few tiles, so only the cuts
+	     * affected by what changed are rebuilt. */
+	    boolean full = (seq < 0) || (id != this.id);
+	    this.id = id;
 	    while(true) {
 		int tileid = blob.uint8();
 		if(tileid == 255)
 		    break;
 		String resnm = blob.string();
 		int resver = blob.uint16();
-		nsets[tileid] = new Resource.Spec(Resource.remote(), resnm, resver);
-	    }
-	    for(int i = 0; i < tiles.length; i++)
-		tiles[i] = blob.uint8();
-	    for(int i = 0; i < z.length; i++)
-		z[i] = blob.int16();
-	    for(int i = 0; i < ol.length; i++)
-		ol[i] = 0;
+		Resource.Spec set = new Resource.Spec(Resource.remote(), resnm, resver);
+		if(!set.equals(nsets[tileid]))
+		    full = true;
+		nsets[tileid] = set;
+	    }
+	    Dirty d = new Dirty();
+	    int[] buf = new int[cmaps.x];
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    if((buf[x] = blob.uint8()) != tiles.get(x, y))
+			d.tile(i);
+		}
+		tiles.setrow(y, buf);
+	    }
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    if((buf[x] = blob.int16()) != z.get(x, y))
+			d.z(i);
+		}
+		z.setrow(y, buf);
+	    }
+	    int[] nol = new int[cmaps.x * cmaps.y];
 	    while(true) {
 		int pidx = blob.uint8();
 		if(pidx == 255)
@@ -424,11 +760,22 @@ public class MCache {
 		}
 		for(int y = c1.y; y <= c2.y; y++) {
 		    for(int x = c1.x; x <= c2.x; x++) {
-			this.ol[x + (y * cmaps.x)] |= ol;
+			nol[x + (y * cmaps.x)] |= ol;
 		    }
 		}
 	    }
-	    invalidate();
+	    for(int y = 0, i = 0; y < cmaps.y; y++) {
+		for(int x = 0; x < cmaps.x; x++, i++) {
+		    if((buf[x] = nol[i]) != this.ol.get(x, y))
+			d.ol(i);
+		}
+		this.ol.setrow(y, buf);
+	    }
+	    if(full)
+		invalidate();
+	    else
+		rebuild(d);
+	    nfills++;
 	    seq++;
 	}
     }
@@ -455,6 +802,41 @@ public class MCache {
 	    gr.gtick(g);
     }
 
+    /* Called by the map view each frame; see MapBuilder. */
+    public void focus(Coord3f c, Matrix4f clip) {
+	builder.focus(c, clip, () -> {
+		Coord cc = new Coord2d(c.x, c.y).floor(tilesz).div(cutsz);
+		synchronized(grids) {
+		    Grid g = grids.get(cc.div(cutn));
+		    return((g != null) && (g.geticut(cc.mod(cutn)).mesh != null));
+		}
+	    });
+    }
+
+    public String stats() {
+	synchronized(grids) {
+	    long mem = 0;
+	    for(Grid g : grids.values())
+		mem += g.bytes();
+	    return(String.format("%d grids (%,d kB), %,d fills, %,d cuts built, %,d kept", grids.size(), mem / 1024, nfills, cutsbuilt, cutskept));
+	}
+    }
+
+    public void memreport(PrintWriter out) {
+	synchronized(grids) {
+	    long mem = 0;
+	    List<Grid> sorted = new ArrayList<>(grids.values());
+	    sorted.sort(Comparator.comparingInt(Grid::bytes).reversed());
+	    for(Grid g : sorted) {
+		out.printf("%-10s %016x: %,7d B; tiles %,6d B (%3d rows packed), heights %,6d B (%3d), overlays %,6d B (%3d)\n",
+			   g.gc, g.id, g.bytes(), g.tiles.bytes(), g.tiles.packed(), g.z.bytes(), g.z.packed(), g.ol.bytes(), g.ol.packed());
+		mem += g.bytes();
+	    }
+	    out.printf("%d grids, %,d B, against %,d B as int arrays\n", grids.size(), mem, grids.size() * 3L * (16 + (cmaps.x * cmaps.y * 4)));
+	    out.flush();
+	}
+    }
+
     public void invalidate(Coord cc) {
 	synchronized(req) {
 	    if(req.get(cc) == null)
@@ -503,7 +885,47 @@ public class MCache {
 	return(g.getz(tc.sub(g.ul)));
     }
 
+    /* Samples heights from the current Heights without locking,
+     * falling back on the grids themselves, so as to request and
+     * throw LoadingMap for one not yet loaded. */
     public double getcz(double px, double py) {
+	double z = heights.sample(px, py);
+	if(!Double.isNaN(z))
+	    return(z);
+	return(getczl(px, py));
+    }
+
+    /* Samples the heights at the n positions whose coordinates are
+     * given in pairs in xy into z, without locking or allocating.
+     * Positions in grids not yet loaded get NaN, and those grids are
+     * requested. Returns how many did. */
+    public int getcz(double[] xy, double[] z, int n) {
+	Heights h = heights;
+	int miss = 0;
+	for(int i = 0; i < n; i++) {
+	    double px = xy[i * 2], py = xy[(i * 2) + 1];
+	    if(Double.isNaN(z[i] = h.sample(px, py))) {
+		miss++;
+		reqz(px, py);
+	    }
+	}
+	return(miss);
+    }
+
+    private void reqz(double px, double py) {
+	int tx = Utils.floordiv(px, tilesz.x), ty = Utils.floordiv(py, tilesz.y);
+	synchronized(grids) {
+	    for(int y = 0; y < 2; y++) {
+		for(int x = 0; x < 2; x++) {
+		    Coord gc = new Coord(Utils.floordiv(tx + x, cmaps.x), Utils.floordiv(ty + y, cmaps.y));
+		    if(!grids.containsKey(gc))
+			request(gc);
+		}
+	    }
+	}
+    }
+
+    private double getczl(double px, double py) {
 	double tw = tilesz.x, th = tilesz.y;
 	Coord ul = new Coord(Utils.floordiv(px, tw), Utils.floordiv(py, th));
 	double sx = Utils.floormod(px, tw) / tw;
@@ -562,45 +984,28 @@ public class MCache {
 	    synchronized(req) {
 		if(req.containsKey(c)) {
 		    Grid g = grids.get(c);
-		    if(g == null) {
+		    boolean added = (g == null);
+		    if(added) {
 			grids.put(c, g = new Grid(c));
 			cached = null;
 		    }
 		    g.fill(msg);
+		    if(added)
+			heights = new Heights(grids);
 		    req.remove(c);
-		    olseq++;
 		    gridwait.wnotify();
 		}
 	    }
 	}
     }
 
-    public void mapdata(Message msg) {
-	long now = System.currentTimeMillis();
+    public void mapdata(MessageBuf msg) {
 	int pktid = msg.int32();
 	int off = msg.uint16();
 	int len = msg.uint16();
-	Defrag fragbuf;
-	synchronized(fragbufs) {
-	    if((fragbuf = fragbufs.get(pktid)) == null) {
-		fragbuf = new Defrag(len);
-		fragbufs.put(pktid, fragbuf);
-	    }
-	    fragbuf.add(msg.bytes(), off);
-	    fragbuf.last = now;
-	    if(fragbuf.done()) {
-		mapdata2(fragbuf.msg());
-		fragbufs.remove(pktid);
-	    }
-	
-	    /* Clean up old buffers */
-	    for(Iterator<Map.Entry<Integer, Defrag>> i = fragbufs.entrySet().iterator(); i.hasNext();) {
-		Map.Entry<Integer, Defrag> e = i.next();
-		Defrag old = e.getValue();
-		if(now - old.last > 10000)
-		    i.remove();
-	    }
-	}
+	MessageBuf blob = fragbufs.add(pktid, len, msg, off);
+	if(blob != null)
+	    mapdata2(blob);
     }
 
     public Resource tilesetr(int i) {
@@ -650,6 +1055,7 @@ public class MCache {
 		    g.dispose();
 		grids.clear();
 		req.clear();
+		heights = Heights.empty;
 		cached = null;
 	    }
 	    gridwait.wnotify();
@@ -673,6 +1079,7 @@ public class MCache {
 		    if((gc.x < ul.x) || (gc.y < ul.y) || (gc.x > lr.x) || (gc.y > lr.y))
 			i.remove();
 		}
+		heights = new Heights(grids);
 		cached = null;
 	    }
 	    gridwait.wnotify();
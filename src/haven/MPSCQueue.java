@@ -0,0 +1,89 @@
+package haven;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * An unbounded lock-free queue for any number of producers and a
+ * single consumer, which can block on the queue itself rather than on
+ * some shared monitor. Producers link new nodes in with one atomic
+ * swap of the head; the consumer alone advances the tail. A node may
+ * be swapped in slightly before it is linked, during which poll()
+ * returns null even though the queue is not empty, but the producer
+ * wakes the consumer once the link is made.
+ */
+public class MPSCQueue<T> {
+    private final AtomicReference<Node<T>> head;
+    private Node<T> tail;
+    private volatile Thread waiter = null;
+    private volatile boolean woken = false;
+
+    private static class Node<T> {
+	volatile Node<T> next;
+	T val;
+
+	Node(T val) {
+	    this.val = val;
+	}
+    }
+
+    public MPSCQueue() {
+	tail = new Node<T>(null);
+	head = new AtomicReference<>(tail);
+    }
+
+    public void offer(T val) {
+	Node<T> n = new Node<>(val);
+	head.getAndSet(n).next = n;
+	Thread w = waiter;
+	if(w != null)
+	    LockSupport.unpark(w);
+    }
+
+    /* Consumer only. */
+    public T poll() {
+	Node<T> n = tail.next;
+	if(n == null)
+	    return(null);
+	tail = n;
+	T ret = n.val;
+	n.val = null;
+	return(ret);
+    }
+
+    /* Consumer only. */
+    public boolean isEmpty() {
+	return(tail.next == null);
+    }
+
+    /* Makes the consumer return from await() even if nothing has
+     * been queued, so that it can check other conditions. */
+    public void wake() {
+	woken = true;
+	Thread w = waiter;
+	if(w != null)
+	    LockSupport.unpark(w);
+    }
+
+    /* Consumer only. Waits until the queue is non-empty, wake() is
+     * called or the timeout passes, and returns whether the queue is
+     * non-empty. */
+    public boolean await(long timeout) throws InterruptedException {
+	long end = System.nanoTime() + (timeout * 1000000);
+	waiter = Thread.currentThread();
+	try {
+	    while(!woken && isEmpty()) {
+		long left = end - System.nanoTime();
+		if(left <= 0)
+		    break;
+		LockSupport.parkNanos(this, left);
+		if(Thread.interrupted())
+		    throw(new InterruptedException());
+	    }
+	} finally {
+	    waiter = null;
+	    woken = false;
+	}
+	return(!isEmpty());
+    }
+}
@@ -0,0 +1,332 @@
+package haven;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Builds the terrain meshes of an MCache on up to Config.mapthreads
+ * threads, by default one per processor. Queued cuts are not built in
+ * the order they were submitted, but those in view of the map view's
+ * camera first, and otherwise nearest first to its focus, so that the
+ * terrain in view is what appears first after logging in or
+ * teleporting (unless haven.mapprio is off). Jobs of cuts rebuilt or
+ * trimmed away are dequeued as they are cancelled. A job whose build
+ * runs into something still loading is, as with Defer, queued again
+ * when next asked for.
+ */
+public class MapBuilder {
+    /* Moving the focus farther than this at once is taken to be a
+     * teleport. */
+    public static final double jump = MCache.cmaps.x * MCache.tilesz.x;
+    private final List<Job> queue = new ArrayList<>();
+    private final Collection<Thread> pool = new ArrayList<>();
+    private final AtomicInteger busy = new AtomicInteger(0);
+    private volatile Focus focus = null;
+    private int seq = 0, idle = 0;
+    private double jumped = -1;
+    public long nbuilt, ncancelled, buildns;
+    public double firstvis = -1;
+
+    private static class Focus {
+	final Coord2d c;
+	final Matrix4f clip;
+
+	Focus(Coord3f c, Matrix4f clip) {
+	    this.c = new Coord2d(c.x, c.y);
+	    this.clip = clip;
+	}
+    }
+
+    public static class NotDone extends Loading {
+	public final transient Job job;
+
+	public NotDone(Job job, Loading cause) {
+	    super("Building map...", cause);
+	    this.job = job;
+	}
+
+	/* As with Defer, a waiter is woken both when the job is done
+	 * and when its build ran into something loading, and then
+	 * polls it, so that it is queued again. */
+	public void waitfor(Runnable callback, Consumer<Waitable.Waiting> reg) {
+	    synchronized(job) {
+		if(job.done()) {
+		    reg.accept(Waitable.Waiting.dummy);
+		    callback.run();
+		} else {
+		    reg.accept(new Waitable.Checker(callback) {
+			    protected Object monitor() {return(job);}
+			    protected boolean check() {return(job.done());}
+			    protected Waitable.Waiting add() {return(job.wq.add(this));}
+			}.addi());
+		}
+	    }
+	}
+    }
+
+    public class Job {
+	public final Coord cc;
+	private final Defer.Callable<MapMesh> task;
+	private final Coord2d c;
+	private final float x1, y1, x2, y2, z1, z2;
+	private final Waitable.Queue wq = new Waitable.Queue();
+	private final int seq;
+	private MapMesh val = null;
+	private Throwable exc = null;
+	private Loading lastload = null;
+	private boolean done = false, resched = false, cancelled = false;
+
+	private Job(Coord cc, int zmin, int zmax, Defer.Callable<MapMesh> task, int seq) {
+	    this.cc = cc;
+	    this.task = task;
+	    this.seq = seq;
+	    Coord2d ul = cc.mul(MCache.cutsz).mul(MCache.tilesz), br = cc.add(1, 1).mul(MCache.cutsz).mul(MCache.tilesz);
+	    this.c = ul.add(br).div(2);
+	    this.x1 = (float)ul.x; this.y1 = (float)ul.y; this.z1 = zmin;
+	    this.x2 = (float)br.x; this.y2 = (float)br.y; this.z2 = zmax;
+	}
+
+	private void run() {
+	    synchronized(this) {
+		if(done)
+		    return;
+	    }
+	    long st = System.nanoTime();
+	    MapMesh val = null;
+	    Throwable exc = null;
+	    Loading load = null;
+	    busy.getAndIncrement();
+	    try {
+		val = task.call();
+	    } catch(Loading l) {
+		load = l;
+	    } catch(Throwable t) {
+		exc = t;
+	    } finally {
+		busy.getAndDecrement();
+	    }
+	    boolean discard = false;
+	    synchronized(this) {
+		if(cancelled) {
+		    discard = true;
+		} else if(load != null) {
+		    lastload = load;
+		    resched = true;
+		    wq.wnotify();
+		} else {
+		    this.val = val;
+		    this.exc = exc;
+		    done = true;
+		    wq.wnotify();
+		}
+	    }
+	    if(discard) {
+		if(val != null)
+		    val.dispose();
+	    } else if(load == null) {
+		finished(this, System.nanoTime() - st);
+	    }
+	}
+
+	private void poll() {
+	    synchronized(this) {
+		if(!resched)
+		    return;
+		resched = false;
+	    }
+	    enqueue(this);
+	}
+
+	public boolean done() {
+	    poll();
+	    synchronized(this) {
+		return(done);
+	    }
+	}
+
+	public MapMesh get() {
+	    poll();
+	    synchronized(this) {
+		if(done) {
+		    if(exc != null)
+			throw(new Defer.DeferredException(exc));
+		    return(val);
+		}
+		throw(new NotDone(this, lastload));
+	    }
+	}
+
+	public void cancel() {
+	    synchronized(queue) {
+		if(queue.remove(this))
+		    ncancelled++;
+	    }
+	    synchronized(this) {
+		resched = false;
+		if(!done) {
+		    cancelled = true;
+		    exc = new Defer.CancelledException();
+		    done = true;
+		    wq.wnotify();
+		}
+	    }
+	}
+    }
+
+    private class Worker extends HackThread {
+	Worker() {
+	    super("Map builder");
+	    setDaemon(true);
+	}
+
+	public void run() {
+	    try {
+		while(true) {
+		    Job job;
+		    synchronized(queue) {
+			double start = Utils.rtime();
+			while((job = pick()) == null) {
+			    if(Utils.rtime() - start > 5)
+				return;
+			    idle++;
+			    try {
+				queue.wait(1000);
+			    } finally {
+				idle--;
+			    }
+			}
+		    }
+		    job.run();
+		}
+	    } catch(InterruptedException e) {
+	    } finally {
+		synchronized(queue) {
+		    pool.remove(this);
+		    if(pool.isEmpty() && !queue.isEmpty())
+			spawn();
+		}
+	    }
+	}
+    }
+
+    private void spawn() {
+	Thread th = new Worker();
+	th.start();
+	pool.add(th);
+    }
+
+    private void enqueue(Job job) {
+	synchronized(queue) {
+	    queue.add(job);
+	    queue.notify();
+	    if((queue.size() > idle) && (pool.size() < Math.max(Config.mapthreads, 1)))
+		spawn();
+	}
+    }
+
+    /* Queues the building of the cut at cc, counted in cuts from the
+     * origin of the map, whose heights range from zmin to zmax. */
+    public Job submit(Coord cc, int zmin, int zmax, Defer.Callable<MapMesh> task) {
+	Job job;
+	synchronized(queue) {
+	    job = new Job(cc, zmin, zmax, task, seq++);
+	}
+	enqueue(job);
+	return(job);
+    }
+
+    /* Whether any part of the cut is in view, by whether its bounding
+     * box is entirely outside one side of the view frustum, which
+     * errs on the side of counting it as in view. */
+    private static boolean visible(Focus f, Job job) {
+	if(f.clip == null)
+	    return(false);
+	float[] m = f.clip.m;
+	int all = ~0;
+	for(int i = 0; i < 8; i++) {
+	    float x = ((i & 1) == 0) ? job.x1 : job.x2;
+	    float y = -(((i & 2) == 0) ? job.y1 : job.y2);
+	    float z = ((i & 4) == 0) ? job.z1 : job.z2;
+	    float cx = (m[0] * x) + (m[4] * y) + (m[ 8] * z) + m[12];
+	    float cy = (m[1] * x) + (m[5] * y) + (m[ 9] * z) + m[13];
+	    float cw = (m[3] * x) + (m[7] * y) + (m[11] * z) + m[15];
+	    int out = 0;
+	    if(cx < -cw) out |= 1;
+	    if(cx >  cw) out |= 2;
+	    if(cy < -cw) out |= 4;
+	    if(cy >  cw) out |= 8;
+	    if(cw <= 0)  out |= 16;
+	    all &= out;
+	}
+	return(all == 0);
+    }
+
+    /* Must be called with the queue locked. */
+    private Job pick() {
+	int n = queue.size();
+	if(n == 0)
+	    return(null);
+	Focus f = Config.mapprio ? this.focus : null;
+	int bi = 0;
+	double bk = 0;
+	for(int i = 0; i < n; i++) {
+	    Job job = queue.get(i);
+	    double k;
+	    if(f == null)
+		k = job.seq;
+	    else
+		k = job.c.dist(f.c) + (visible(f, job) ? 0 : 1e9);
+	    if((i == 0) || (k < bk)) {
+		bi = i;
+		bk = k;
+	    }
+	}
+	Job ret = queue.get(bi);
+	queue.set(bi, queue.get(n - 1));
+	queue.remove(n - 1);
+	return(ret);
+    }
+
+    private void finished(Job job, long ns) {
+	Focus f = this.focus;
+	synchronized(queue) {
+	    nbuilt++;
+	    buildns += ns;
+	    if((jumped >= 0) && (f != null) && visible(f, job)) {
+		firstvis = Utils.rtime() - jumped;
+		jumped = -1;
+	    }
+	}
+    }
+
+    /* Called by the map view each frame with the point the camera
+     * looks at, the combined projection and view matrix of the camera
+     * (or null when unknown, in which case no cut counts as in view),
+     * and whether the terrain at the focus is already built. On
+     * arriving somewhere that is not, the time until the first cut in
+     * view is built is measured as firstvis. */
+    public void focus(Coord3f c, Matrix4f clip, BooleanSupplier built) {
+	Focus prev = this.focus;
+	Focus f = this.focus = (c == null) ? null : new Focus(c, clip);
+	if((f != null) && ((prev == null) || (f.c.dist(prev.c) > jump)) && !built.getAsBoolean()) {
+	    synchronized(queue) {
+		jumped = Utils.rtime();
+	    }
+	}
+    }
+
+    public int qdepth() {
+	synchronized(queue) {
+	    return(queue.size());
+	}
+    }
+
+    public String stats() {
+	synchronized(queue) {
+	    return(String.format("%d queued, %d/%d busy, %,d built (%.2f ms avg), %,d cancelled, first in view %s",
+				 queue.size(), busy.get(), pool.size(), nbuilt, (nbuilt == 0) ? 0.0 : (buildns / 1e6 / nbuilt), ncancelled,
+				 (firstvis < 0) ? "-" : String.format("%.2f s", firstvis)));
+	}
+    }
+}
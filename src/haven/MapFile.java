@@ -473,7 +473,8 @@ public class MapFile {
 	    int[] rmap = new int[256];
 	    boolean[] norepl = new boolean[256];
 	    Arrays.fill(tmap, -1);
-	    for(int tn : cg.tiles) {
+	    for(int i = 0; i < cmaps.x * cmaps.y; i++) {
+		int tn = cg.tiles.get(i);
 		if(tmap[tn] == -1) {
 		    tmap[tn] = nt;
 		    rmap[nt] = tn;
@@ -497,8 +498,8 @@ public class MapFile {
 	    for(int i = 0; i < nt; i++)
 		infos[i] = new TileInfo(sets[i], prios[i]);
 	    byte[] tiles = new byte[cmaps.x * cmaps.y];
-	    for(int i = 0; i < cg.tiles.length; i++)
-		tiles[i] = (byte)(tmap[cg.tiles[i]]);
+	    for(int i = 0; i < tiles.length; i++)
+		tiles[i] = (byte)(tmap[cg.tiles.get(i)]);
 	    Grid g = new Grid(cg.id, infos, tiles, System.currentTimeMillis());
 	    g.norepl = norepl;
 	    g.useq = oseq;
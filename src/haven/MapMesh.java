@@ -44,6 +44,13 @@ public class MapMesh implements RenderTree.Node, Disposable {
     private Map<DataID, Object> data = new LinkedHashMap<DataID, Object>();
     private List<RenderTree.Node> extras = new ArrayList<RenderTree.Node>();
     private List<Disposable> dparts = new ArrayList<Disposable>();
+    /* Under which MeshCache can keep it, once built. */
+    MeshCache.Key key = null;
+    /* The meshes of its models with the references to their
+     * materials, for MeshCache to store on disk; null if some model
+     * has no reference, or if it was loaded from there. */
+    List<Pair<int[], FastMesh>> models = new ArrayList<>();
+    private long bytes = -1;
 
     public interface DataID<T> {
 	public T make(MapMesh m);
@@ -251,6 +258,8 @@ public class MapMesh implements RenderTree.Node, Disposable {
     public static class Model extends MeshBuf implements ConsHooks {
     	public final MapMesh m;
     	public final NodeWrap mat;
+    	private int[] ref = null;
+    	private boolean noref = false;
 
     	public Model(MapMesh m, NodeWrap mat) {
     	    this.m = m;
@@ -261,10 +270,30 @@ public class MapMesh implements RenderTree.Node, Disposable {
     	public void calcnrm() {}
     	public boolean clean() {return(false);}
 
+    	/* Marks how the tiler t makes the material again through
+    	 * Tiler.refmat, given the matref of the part d the model is
+    	 * laid from and the tiler's own arguments. */
+    	public Model ref(Tiler t, Tiler.MPart d, int... args) {
+    	    int matref = (d == null) ? 0 : d.matref;
+    	    if((d != null) && (d.mat != null) && (matref == 0)) {
+    		noref = true;
+    	    } else if(ref == null) {
+    		ref = new int[args.length + 2];
+    		ref[0] = t.id;
+    		ref[1] = matref;
+    		System.arraycopy(args, 0, ref, 2, args.length);
+    	    }
+    	    return(this);
+    	}
+
     	public void postcalcnrm(Random rnd) {
     	    FastMesh mesh = mkmesh();
     	    m.extras.add(mat.apply(mesh));
     	    m.dparts.add(mesh);
+    	    if((ref == null) || noref)
+    		m.models = null;
+    	    else if(m.models != null)
+    		m.models.add(new Pair<>(ref, mesh));
     	}
 
     	public static class MatKey implements DataID<Model> {
@@ -294,23 +323,28 @@ public class MapMesh implements RenderTree.Node, Disposable {
     	}
     }
 
-    public static MapMesh build(MCache mc, Random rnd, Coord ul, Coord sz) {
-    	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+    private void model(Random rnd) {
     	Coord c = new Coord();
-    	rnd = m.rnd();
-
     	for(c.y = 0; c.y < sz.y; c.y++) {
     	    for(c.x = 0; c.x < sz.x; c.x++) {
     		Coord gc = c.add(ul);
     		long ns = rnd.nextLong();
-    		mc.tiler(mc.gettile(gc)).model(m, rnd, c, gc);
+    		map.tiler(map.gettile(gc)).model(this, rnd, c, gc);
     		rnd.setSeed(ns);
     	    }
     	}
-    	for(Object obj : m.data.values()) {
+    	for(Object obj : data.values()) {
     	    if(obj instanceof ConsHooks)
     		((ConsHooks)obj).sfin();
     	}
+    }
+
+    public static MapMesh build(MCache mc, Random rnd, Coord ul, Coord sz) {
+    	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+    	Coord c = new Coord();
+    	rnd = m.rnd();
+
+    	m.model(rnd);
     	for(c.y = 0; c.y < sz.y; c.y++) {
     	    for(c.x = 0; c.x < sz.x; c.x++) {
     		Coord gc = c.add(ul);
@@ -337,6 +371,26 @@ public class MapMesh implements RenderTree.Node, Disposable {
     	return(m);
     }
 
+    /* Makes the mesh of models whose geometry MeshCache loaded from
+     * disk. Only the tilers' model pass is run, for the surface the
+     * flat mesh and the overlays are laid on. */
+    static MapMesh load(MCache mc, Random rnd, Coord ul, Coord sz, List<Pair<NodeWrap, FastMesh>> models) {
+    	MapMesh m = new MapMesh(mc, ul, sz, rnd);
+    	m.model(m.rnd());
+    	for(Object obj : m.data.values()) {
+    	    if(obj instanceof ConsHooks)
+    		((ConsHooks)obj).calcnrm();
+    	}
+    	for(Pair<NodeWrap, FastMesh> mod : models) {
+    	    m.extras.add(mod.a.apply(mod.b));
+    	    m.dparts.add(mod.b);
+    	}
+    	m.models = null;
+    	m.consflat();
+    	m.clean();
+    	return(m);
+    }
+
     private static Pipe.Op gmmat = Pipe.Op.compose(new States.DepthBias(-1, -1),
 						   new Order.Default(1001));
 
@@ -568,6 +622,26 @@ public class MapMesh implements RenderTree.Node, Disposable {
 	    p.dispose();
     }
 
+    private static long bytes(FastMesh m) {
+	long ret = m.indb.capacity() * 2L;
+	for(VertexBuf.AttribData d : m.vert.bufs)
+	    ret += (long)d.elfmt.size() * d.size();
+	return(ret);
+    }
+
+    /* The size of the vertex and index data of its meshes. */
+    public long bytes() {
+	if(bytes < 0) {
+	    long ret = (flat == null) ? 0 : bytes(flat);
+	    for(Disposable p : dparts) {
+		if(p instanceof FastMesh)
+		    ret += bytes((FastMesh)p);
+	    }
+	    bytes = ret;
+	}
+	return(bytes);
+    }
+
     public void added(RenderTree.Slot slot) {
 	for(RenderTree.Node e : extras)
 	    slot.add(e);
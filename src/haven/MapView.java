@@ -508,8 +508,9 @@ public class MapView extends PView implements DTarget, Console.Directory {
     private final Gobs gobs;
     private class Gobs implements RenderTree.Node, OCache.ChangeCallback {
 	final OCache oc = glob.oc;
-	final Map<Gob, Loader.Future<?>> adding = new HashMap<>();
+	final Set<Gob> adding = new HashSet<>();
 	final Map<Gob, RenderTree.Slot> current = new HashMap<>();
+	final Loader.Batch<Gob> attacher = glob.loader.new Batch<>(this::addgob, 4, 64);
 	RenderTree.Slot slot;
 
 	private void addgob(Gob ob) {
@@ -518,7 +519,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
 		return;
 	    synchronized(ob) {
     		synchronized(this) {
-    		    if(!adding.containsKey(ob))
+    		    if(!adding.contains(ob))
     			return;
     		}
     		RenderTree.Slot nslot;
@@ -530,7 +531,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
     		    return;
     		}
     		synchronized(this) {
-    		    if(adding.remove(ob) != null)
+    		    if(adding.remove(ob))
     			current.put(ob, nslot);
     		    else
     			nslot.remove();
@@ -544,8 +545,10 @@ public class MapView extends PView implements DTarget, Console.Directory {
 		    throw(new RuntimeException());
 		this.slot = slot;
 		synchronized(oc) {
-		    for(Gob ob : oc)
-			adding.put(ob, glob.loader.defer(() -> addgob(ob), null));
+		    for(Gob ob : oc) {
+			adding.add(ob);
+			attacher.submit(ob);
+		    }
 		    oc.callback(this);
 		}
 	    }
@@ -557,10 +560,12 @@ public class MapView extends PView implements DTarget, Console.Directory {
 		    throw(new RuntimeException());
 		this.slot = null;
 		oc.uncallback(this);
-		Collection<Loader.Future<?>> tasks = new ArrayList<>(adding.values());
+		/* Retried at once, the gobs still waiting to be attached
+		 * find themselves gone from adding and give up. */
+		Collection<Gob> waiting = new ArrayList<>(adding);
 		adding.clear();
-		for(Loader.Future<?> task : tasks)
-		    task.restart();
+		for(Gob ob : waiting)
+		    attacher.submit(ob, true);
 		current.clear();
 	    }
 	}
@@ -569,7 +574,8 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	    synchronized(this) {
 		if(current.containsKey(ob))
 		    throw(new RuntimeException());
-		adding.put(ob, glob.loader.defer(() -> addgob(ob), null));
+		adding.add(ob);
+		attacher.submit(ob);
 	    }
 	}
 
@@ -577,11 +583,8 @@ public class MapView extends PView implements DTarget, Console.Directory {
 	    RenderTree.Slot slot;
 	    synchronized(this) {
 		slot = current.remove(ob);
-		if(slot == null) {
-		    Loader.Future<?> t = adding.remove(ob);
-		    if(t != null)
-			t.restart();
-		}
+		if((slot == null) && adding.remove(ob))
+		    attacher.submit(ob, true);
 	    }
 	    if(slot != null) {
 		try {
@@ -836,9 +839,32 @@ public class MapView extends PView implements DTarget, Console.Directory {
     	String ret = String.format("Tree %s", tree.stats());
     	if(back != null)
     	    ret = String.format("%s, Inst %s, Draw %s", ret, instancer.stats(), back.stats());
+    	ret = String.format("%s, Tick %d/%d", ret, ticklist.ticked, ticklist.ticked + ticklist.skipped);
     	return(ret);
     }
 
+    /* Gobs near the player, the player itself and anyone being fought
+     * are ticked at full rate, and terrain in view is built first. */
+    private void updlod() {
+    	Coord3f cc;
+    	try {
+    	    cc = getcc();
+    	} catch(Loading e) {
+    	    cc = null;
+    	}
+    	Set<Long> pinned = new HashSet<>();
+    	if(plgob >= 0)
+    	    pinned.add(plgob);
+    	GameUI gui = getparent(GameUI.class);
+    	if((gui != null) && (gui.fv != null)) {
+    	    for(Fightview.Relation rel : gui.fv.lsrel)
+    		pinned.add(rel.gobid);
+    	}
+    	Matrix4f clip = (camload != null) ? null : camera.proj.fin(Matrix4f.id).mul(camera.view.fin(Matrix4f.id));
+    	glob.oc.lod.focus(cc, clip, pinned);
+    	glob.map.focus(cc, clip);
+    }
+
     private Coord3f smapcc = null;
     private ShadowMap.ShadowList slist = null;
     private ShadowMap smap = null;
@@ -1536,6 +1562,7 @@ public class MapView extends PView implements DTarget, Console.Directory {
     	    camload = e;
     	}
     	basic(Camera.class, camera);
+    	updlod();
     	amblight();
     	updsmap(amblight);
     	updweather();
@@ -0,0 +1,524 @@
+package haven;
+
+import java.util.*;
+import java.io.*;
+import java.util.zip.*;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+import haven.render.NodeWrap;
+import haven.render.sl.Attribute;
+import haven.resutil.*;
+
+/*
+ * Keeps the terrain meshes of grids trimmed from an MCache, so that
+ * coming back to an area, by walking or teleporting, reuses them
+ * instead of running the tilers again. A mesh is keyed by the id of
+ * its grid, its cut, and a digest of everything building it reads:
+ * the tiles within MCache.tilereach of the cut and the heights within
+ * zreach, the names and versions of their tileset resources, and the
+ * options changing how terrain is built. A refreshed grid or a new
+ * version of a tileset thus gives a new key, and the meshes built
+ * from the old data are never taken again but age out. The cache is
+ * bounded to Config.meshcache MB of vertex and index data, evicting
+ * the least recently cached meshes first.
+ *
+ * Meshes are also stored on disk, so that the first build of an area
+ * after logging in can load them. Only their geometry is stored, with
+ * a reference to each model's material from the tiler that made it,
+ * by which the tiler makes the material again when loading (see
+ * Tiler.refmat). Meshes with models whose tilers give no references
+ * are not stored.
+ */
+public class MeshCache {
+    public final MCache map;
+    private final LinkedHashMap<Key, MapMesh> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private long size = 0;
+    public long hits, misses, evicted, dhits, dmisses;
+
+    public static class Key {
+	public final long grid, digest;
+	public final Coord cc;
+	private final int hash;
+
+	Key(long grid, Coord cc, long digest) {
+	    this.grid = grid;
+	    this.cc = cc;
+	    this.digest = digest;
+	    this.hash = (int)(((grid * 31) + cc.hashCode()) * 31 + digest);
+	}
+
+	public int hashCode() {
+	    return(hash);
+	}
+
+	public boolean equals(Object o) {
+	    if(!(o instanceof Key))
+		return(false);
+	    Key k = (Key)o;
+	    return((k.grid == grid) && (k.digest == digest) && k.cc.equals(cc));
+	}
+    }
+
+    public MeshCache(MCache map) {
+	this.map = map;
+    }
+
+    private static long mix(long h, long v) {
+	h ^= v;
+	h *= 0x100000001b3L;
+	return(h ^ (h >>> 29));
+    }
+
+    /* The key of the cut with its upper-left tile at ul, in the grid
+     * with the given id. Throws Loading if any grid it reads from has
+     * yet to arrive, as building it would. */
+    public Key key(long grid, Coord cc, Coord ul, Coord sz) {
+	long h = 0xcbf29ce484222325L;
+	h = mix(h, (Config.disableelev ? 1 : 0) | (Config.disabletiletrans ? 2 : 0) | (Config.disableterrainsmooth ? 4 : 0));
+	boolean[] sets = new boolean[256];
+	int r = MCache.tilereach;
+	Coord tc = new Coord();
+	for(tc.y = ul.y - r; tc.y < ul.y + sz.y + r; tc.y++) {
+	    for(tc.x = ul.x - r; tc.x < ul.x + sz.x + r; tc.x++) {
+		int t = map.gettile(tc);
+		sets[t] = true;
+		h = mix(h, t);
+	    }
+	}
+	r = MCache.zreach;
+	for(tc.y = ul.y - r; tc.y <= ul.y + sz.y + r; tc.y++) {
+	    for(tc.x = ul.x - r; tc.x <= ul.x + sz.x + r; tc.x++)
+		h = mix(h, map.getz(tc));
+	}
+	for(int i = 0; i < sets.length; i++) {
+	    Resource.Spec set = map.nsets[i];
+	    if(sets[i] && (set != null))
+		h = mix(mix(h, set.name.hashCode()), set.ver);
+	}
+	return(new Key(grid, cc, h));
+    }
+
+    /* Takes the mesh for the key out of the cache, if it is there. */
+    public MapMesh take(Key key) {
+	synchronized(cache) {
+	    MapMesh ret = cache.remove(key);
+	    if(ret == null) {
+		misses++;
+		return(null);
+	    }
+	    hits++;
+	    size -= ret.bytes();
+	    return(ret);
+	}
+    }
+
+    /* Offers a mesh no longer used by the map, returning false if it
+     * is not kept, in which case the caller should dispose of it. */
+    public boolean put(MapMesh m) {
+	long max = Config.meshcache * 1024L * 1024L;
+	if((m.key == null) || (max <= 0))
+	    return(false);
+	List<MapMesh> old = new ArrayList<>();
+	synchronized(cache) {
+	    MapMesh prev = cache.put(m.key, m);
+	    if(prev != null) {
+		size -= prev.bytes();
+		old.add(prev);
+	    }
+	    size += m.bytes();
+	    for(Iterator<MapMesh> i = cache.values().iterator(); (size > max) && i.hasNext();) {
+		MapMesh e = i.next();
+		i.remove();
+		size -= e.bytes();
+		old.add(e);
+		evicted++;
+	    }
+	}
+	for(MapMesh e : old)
+	    e.dispose();
+	return(true);
+    }
+
+    /* Loads the mesh for the key from disk, if it was stored there,
+     * as MapMesh.build would make it from rnd. Throws Loading if a
+     * tiler for its materials has yet to load. */
+    public MapMesh load(Key key, Random rnd, Coord ul, Coord sz) {
+	Disk disk = Disk.get();
+	if(disk == null)
+	    return(null);
+	List<Pair<int[], FastMesh>> stored = disk.fetch(key);
+	List<Pair<NodeWrap, FastMesh>> models = new ArrayList<>();
+	if(stored != null) {
+	    for(Pair<int[], FastMesh> mod : stored) {
+		Tiler t = map.tiler(mod.a[0]);
+		NodeWrap mat = (t == null) ? null : t.refmat(mod.a[1], Arrays.copyOfRange(mod.a, 2, mod.a.length));
+		if(mat == null) {
+		    stored = null;
+		    break;
+		}
+		models.add(new Pair<>(mat, mod.b));
+	    }
+	}
+	synchronized(cache) {
+	    if(stored == null) {
+		dmisses++;
+		return(null);
+	    }
+	    dhits++;
+	}
+	MapMesh ret = MapMesh.load(map, rnd, ul, sz, models);
+	ret.key = key;
+	return(ret);
+    }
+
+    /* Stores a mesh just built on disk, in the background. */
+    public void store(MapMesh m) {
+	Disk disk = Disk.get();
+	if((disk != null) && (m.key != null) && (m.models != null))
+	    disk.store(m);
+    }
+
+    public void clear() {
+	List<MapMesh> old;
+	synchronized(cache) {
+	    old = new ArrayList<>(cache.values());
+	    cache.clear();
+	    size = 0;
+	}
+	for(MapMesh e : old)
+	    e.dispose();
+    }
+
+    public String stats() {
+	synchronized(cache) {
+	    String ret = String.format("%d meshes (%,d kB), %,d hits, %,d misses, %,d evicted", cache.size(), size / 1024, hits, misses, evicted);
+	    Disk disk = Disk.get();
+	    if(disk != null)
+		ret += String.format("; disk %s, %,d hits, %,d misses", disk.stats(), dhits, dmisses);
+	    return(ret);
+	}
+    }
+
+    /* The vertex arrays of the models stored, by kind. The attributes
+     * are those of the layers the tilers add to their models. */
+    private static class Attribs {
+	static final Attribute[] list = {BumpMap.tan, BumpMap.bit, AlphaTex.clipc, WaterTile.BottomFog.depth};
+
+	static int kind(VertexBuf.AttribData d) {
+	    Class<?> cl = d.getClass();
+	    if(cl == VertexBuf.VertexData.class)
+		return(0);
+	    if(cl == VertexBuf.NormalData.class)
+		return(1);
+	    if(cl == VertexBuf.TexelData.class)
+		return(2);
+	    if(cl == VertexBuf.ColorData.class)
+		return(3);
+	    if(cl == MeshBuf.AttribData.class) {
+		for(int i = 0; i < list.length; i++) {
+		    if(d.attr == list[i])
+			return(4 + i);
+		}
+	    }
+	    return(-1);
+	}
+
+	static VertexBuf.AttribData make(int kind, int nc, FloatBuffer data) {
+	    switch(kind) {
+	    case 0: return(new VertexBuf.VertexData(data));
+	    case 1: return(new VertexBuf.NormalData(data));
+	    case 2: return(new VertexBuf.TexelData(data));
+	    case 3: return(new VertexBuf.ColorData(data));
+	    }
+	    if((kind - 4) >= list.length)
+		throw(new Message.FormatError("Unknown vertex array kind: " + kind));
+	    return(new MeshBuf.AttribData(list[kind - 4], nc, data));
+	}
+    }
+
+    private static boolean writemesh(Message buf, FastMesh mesh) {
+	VertexBuf.AttribData[] bufs = mesh.vert.bufs;
+	int[] kinds = new int[bufs.length];
+	for(int i = 0; i < bufs.length; i++) {
+	    if((kinds[i] = Attribs.kind(bufs[i])) < 0)
+		return(false);
+	}
+	buf.adduint8(bufs.length);
+	for(int i = 0; i < bufs.length; i++) {
+	    FloatBuffer data = ((VertexBuf.FloatData)bufs[i]).data;
+	    buf.adduint8(kinds[i]);
+	    buf.adduint8(bufs[i].elfmt.nc);
+	    buf.addint32(data.capacity());
+	    for(int o = 0; o < data.capacity(); o++)
+		buf.addfloat32(data.get(o));
+	}
+	ShortBuffer ind = mesh.indb;
+	buf.addint32(ind.capacity());
+	for(int i = 0; i < ind.capacity(); i++)
+	    buf.adduint16(ind.get(i) & 0xffff);
+	return(true);
+    }
+
+    private static FastMesh readmesh(Message buf) {
+	VertexBuf.AttribData[] bufs = new VertexBuf.AttribData[buf.uint8()];
+	for(int i = 0; i < bufs.length; i++) {
+	    int kind = buf.uint8(), nc = buf.uint8();
+	    float[] data = new float[buf.int32()];
+	    for(int o = 0; o < data.length; o++)
+		data[o] = buf.float32();
+	    bufs[i] = Attribs.make(kind, nc, FloatBuffer.wrap(data));
+	}
+	short[] ind = new short[buf.int32()];
+	for(int i = 0; i < ind.length; i++)
+	    ind[i] = (short)buf.uint16();
+	return(new FastMesh(new VertexBuf(bufs), ind));
+    }
+
+    /*
+     * The meshes on disk, in ResCache.global, one for each cut of a
+     * grid, named by the grid's id and the cut. Each holds the digest
+     * of its key, so a cut built again from other data replaces it.
+     * An index of them is kept in the order they were last used, and
+     * the least recently used are removed beyond Config.meshdisk MB.
+     * Builders encode the meshes they store themselves, so that this
+     * keeps pace with building, and hand them to a thread of its own
+     * which writes them, waiting while more than maxpending bytes are
+     * yet to be written. It also saves the index, and quits when
+     * idle.
+     */
+    private static class Disk {
+	static final int ver = 1;
+	static final int maxpending = 16 << 20;
+	static Disk global = null;
+	final HashDirCache cache;
+	final LinkedHashMap<String, Integer> index = new LinkedHashMap<>(16, 0.75f, true);
+	final Map<String, byte[]> queue = new LinkedHashMap<>();
+	long size = 0, pending = 0, dropped = 0;
+	boolean loaded = false, dirty = false;
+	Thread writer = null;
+
+	Disk(HashDirCache cache) {
+	    this.cache = cache;
+	}
+
+	static Disk get() {
+	    if((Config.meshdisk <= 0) || !(ResCache.global instanceof HashDirCache))
+		return(null);
+	    synchronized(Disk.class) {
+		if(global == null)
+		    global = new Disk((HashDirCache)ResCache.global);
+		return(global);
+	    }
+	}
+
+	static String name(Key key) {
+	    return(String.format("mapmesh/%x-%d-%d", key.grid, key.cc.x, key.cc.y));
+	}
+
+	/* Must be called with the lock held. */
+	private Map<String, Integer> index() {
+	    if(!loaded) {
+		loaded = true;
+		try(StreamMessage fp = new StreamMessage(cache.fetch("mapmesh/index"))) {
+		    if(fp.uint8() == ver) {
+			for(int i = 0, n = fp.int32(); i < n; i++) {
+			    String nm = fp.string();
+			    int sz = fp.int32();
+			    index.put(nm, sz);
+			    size += sz;
+			}
+		    }
+		} catch(IOException | Message.BinError e) {
+		}
+	    }
+	    return(index);
+	}
+
+	List<Pair<int[], FastMesh>> fetch(Key key) {
+	    String nm = name(key);
+	    synchronized(this) {
+		if(index().get(nm) == null)
+		    return(null);
+		dirty = true;
+		process();
+	    }
+	    try(StreamMessage fp = new StreamMessage(cache.fetch(nm))) {
+		if(fp.uint8() != ver)
+		    return(null);
+		ZMessage z = new ZMessage(fp);
+		if((z.int64() != key.grid) || !z.coord().equals(key.cc) || (z.int64() != key.digest))
+		    return(null);
+		List<Pair<int[], FastMesh>> ret = new ArrayList<>();
+		for(int i = 0, n = z.uint16(); i < n; i++) {
+		    int[] ref = new int[z.uint8()];
+		    for(int o = 0; o < ref.length; o++)
+			ref[o] = z.int32();
+		    ret.add(new Pair<>(ref, readmesh(z)));
+		}
+		return(ret);
+	    } catch(IOException | Message.BinError e) {
+		return(null);
+	    }
+	}
+
+	void store(MapMesh m) {
+	    byte[] data = encode(m);
+	    synchronized(this) {
+		if(data == null) {
+		    dropped++;
+		    return;
+		}
+		try {
+		    while(!queue.isEmpty() && (pending + data.length > maxpending)) {
+			process();
+			wait();
+		    }
+		} catch(InterruptedException e) {
+		    dropped++;
+		    Thread.currentThread().interrupt();
+		    return;
+		}
+		byte[] prev = queue.put(name(m.key), data);
+		pending += data.length - ((prev == null) ? 0 : prev.length);
+		process();
+	    }
+	}
+
+	/* Returns null for meshes with vertex arrays that cannot be
+	 * stored. Deflated at the fastest level, as this runs in the
+	 * builders; it reads back as a ZMessage all the same. */
+	static byte[] encode(MapMesh m) {
+	    MessageBuf buf = new MessageBuf();
+	    buf.addint64(m.key.grid);
+	    buf.addcoord(m.key.cc);
+	    buf.addint64(m.key.digest);
+	    buf.adduint16(m.models.size());
+	    for(Pair<int[], FastMesh> mod : m.models) {
+		buf.adduint8(mod.a.length);
+		for(int v : mod.a)
+		    buf.addint32(v);
+		if(!writemesh(buf, mod.b))
+		    return(null);
+	    }
+	    byte[] raw = buf.fin();
+	    Deflater zo = new Deflater(Deflater.BEST_SPEED);
+	    try {
+		zo.setInput(raw);
+		zo.finish();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(raw.length / 2);
+		out.write(ver);
+		byte[] chunk = new byte[65536];
+		while(!zo.finished())
+		    out.write(chunk, 0, zo.deflate(chunk));
+		return(out.toByteArray());
+	    } finally {
+		zo.end();
+	    }
+	}
+
+	private void write(String nm, byte[] data) {
+	    try(OutputStream fp = cache.store(nm)) {
+		fp.write(data);
+	    } catch(IOException e) {
+		synchronized(this) {
+		    dropped++;
+		}
+		return;
+	    }
+	    List<String> old = new ArrayList<>();
+	    synchronized(this) {
+		Integer prev = index().put(nm, data.length);
+		size += data.length - ((prev == null) ? 0 : prev);
+		long max = Config.meshdisk * 1024L * 1024L;
+		for(Iterator<Map.Entry<String, Integer>> i = index.entrySet().iterator(); (size > max) && i.hasNext();) {
+		    Map.Entry<String, Integer> e = i.next();
+		    if(e.getKey().equals(nm))
+			continue;
+		    i.remove();
+		    size -= e.getValue();
+		    old.add(e.getKey());
+		}
+		dirty = true;
+	    }
+	    for(String e : old) {
+		try {
+		    cache.remove(e);
+		} catch(IOException exc) {
+		}
+	    }
+	}
+
+	private void save() {
+	    try(StreamMessage out = new StreamMessage(cache.store("mapmesh/index"))) {
+		synchronized(this) {
+		    out.adduint8(ver);
+		    out.addint32(index.size());
+		    for(Map.Entry<String, Integer> e : index.entrySet()) {
+			out.addstring(e.getKey());
+			out.addint32(e.getValue());
+		    }
+		}
+	    } catch(IOException | Message.BinError e) {
+	    }
+	}
+
+	private class Writer extends HackThread {
+	    Writer() {
+		super("Mesh cache writer");
+		setDaemon(true);
+	    }
+
+	    public void run() {
+		try {
+		    long last = System.currentTimeMillis();
+		    while(true) {
+			Map.Entry<String, byte[]> e = null;
+			long now = System.currentTimeMillis();
+			synchronized(Disk.this) {
+			    if(!queue.isEmpty()) {
+				Iterator<Map.Entry<String, byte[]>> i = queue.entrySet().iterator();
+				e = i.next();
+				i.remove();
+				pending -= e.getValue().length;
+				Disk.this.notifyAll();
+			    } else if(dirty) {
+				dirty = false;
+			    } else {
+				if(now - last > 10000) {
+				    writer = null;
+				    return;
+				}
+				Disk.this.wait(5000);
+				continue;
+			    }
+			}
+			if(e != null)
+			    write(e.getKey(), e.getValue());
+			else
+			    save();
+			last = now;
+		    }
+		} catch(InterruptedException e) {
+		} finally {
+		    synchronized(Disk.this) {
+			if(writer == this)
+			    writer = null;
+		    }
+		}
+	    }
+	}
+
+	/* Must be called with the lock held. */
+	private void process() {
+	    if(writer == null) {
+		writer = new Writer();
+		writer.start();
+	    }
+	    notifyAll();
+	}
+
+	synchronized String stats() {
+	    return(String.format("%d meshes (%,d kB), %,d dropped", index.size(), size / 1024, dropped));
+	}
+    }
+}
@@ -228,71 +228,277 @@ public abstract class Message {
 	return(uint32() / 0xffffffffp0);
     }
 
-    public Object[] list() {
-	ArrayList<Object> ret = new ArrayList<Object>();
-	list: while(true) {
-	    if(eom())
-		break;
-	    int t = uint8();
-	    switch(t) {
+    /* Reads a TTO list in place. next() steps to each value in turn,
+     * decoding numbers, colors and coordinates into the cursor
+     * itself so that consumers can read them without any boxing.
+     * Strings, byte arrays and sublists are only decoded if asked
+     * for, and are skipped otherwise. */
+    public static class Cursor {
+	public Message msg;
+	public int type = T_END;
+	public int ival, ival2;
+	public long lval;
+	public double fval, fval2;
+	private boolean pending, done;
+
+	public Cursor(Message msg) {
+	    this.msg = msg;
+	}
+
+	public Cursor() {
+	    this(null);
+	}
+
+	public Cursor reset(Message msg) {
+	    this.msg = msg;
+	    type = T_END;
+	    pending = done = false;
+	    return(this);
+	}
+
+	public boolean next() {
+	    if(pending) {
+		skipval(msg, type);
+		pending = false;
+	    }
+	    if(done || msg.eom()) {
+		type = T_END;
+		done = true;
+		return(false);
+	    }
+	    switch(type = msg.uint8()) {
 	    case T_END:
-		break list;
+		done = true;
+		return(false);
 	    case T_INT:
-		ret.add(int32());
-		break;
-	    case T_STR:
-		ret.add(string());
-		break;
-	    case T_COORD:
-		ret.add(coord());
+		ival = msg.int32();
 		break;
 	    case T_UINT8:
-		ret.add(uint8());
+		ival = msg.uint8();
 		break;
 	    case T_UINT16:
-		ret.add(uint16());
+		ival = msg.uint16();
 		break;
 	    case T_INT8:
-		ret.add(int8());
+		ival = msg.int8();
 		break;
 	    case T_INT16:
-		ret.add(int16());
+		ival = msg.int16();
 		break;
 	    case T_COLOR:
-		ret.add(color());
+		ival = (msg.uint8() << 16) | (msg.uint8() << 8) | msg.uint8();
+		ival |= msg.uint8() << 24;
 		break;
-	    case T_TTOL:
-		ret.add(list());
+	    case T_UID:
+		lval = msg.int64();
+		break;
+	    case T_FLOAT32:
+		fval = msg.float32();
+		break;
+	    case T_FLOAT64:
+		fval = msg.float64();
+		break;
+	    case T_COORD:
+		ival = msg.int32();
+		ival2 = msg.int32();
+		break;
+	    case T_FCOORD32:
+		fval = msg.float32();
+		fval2 = msg.float32();
+		break;
+	    case T_FCOORD64:
+		fval = msg.float64();
+		fval2 = msg.float64();
+		break;
+	    case T_STR: case T_BYTES: case T_TTOL:
+		pending = true;
 		break;
 	    case T_NIL:
-		ret.add(null);
 		break;
-	    case T_UID:
-		ret.add(int64());
+	    default:
+		throw(new FormatError("Encountered unknown type " + type + " in TTO list."));
+	    }
+	    return(true);
+	}
+
+	private static void skipval(Message msg, int type) {
+	    switch(type) {
+	    case T_STR:
+		while(msg.int8() != 0);
 		break;
 	    case T_BYTES:
-		int len = uint8();
-		if((len & 128) != 0)
-		    len = int32();
-		ret.add(bytes(len));
+		msg.skip(byteslen(msg));
 		break;
-	    case T_FLOAT32:
-		ret.add(float32());
+	    case T_TTOL:
+		while(!msg.eom()) {
+		    int t = msg.uint8();
+		    if(t == T_END)
+			break;
+		    skipval(msg, t);
+		}
 		break;
-	    case T_FLOAT64:
-		ret.add(float64());
+	    case T_INT: case T_FLOAT32:
+		msg.skip(4);
 		break;
-	    case T_FCOORD32:
-		ret.add(new Coord2d(float32(), float32()));
+	    case T_UINT8: case T_INT8:
+		msg.skip(1);
+		break;
+	    case T_UINT16: case T_INT16:
+		msg.skip(2);
+		break;
+	    case T_COLOR:
+		msg.skip(4);
+		break;
+	    case T_UID: case T_FLOAT64: case T_COORD: case T_FCOORD32:
+		msg.skip(8);
 		break;
 	    case T_FCOORD64:
-		ret.add(new Coord2d(float64(), float64()));
+		msg.skip(16);
+		break;
+	    case T_NIL:
 		break;
 	    default:
-		throw(new FormatError("Encountered unknown type " + t + " in TTO list."));
+		throw(new FormatError("Encountered unknown type " + type + " in TTO list."));
 	    }
 	}
-	return(ret.toArray());
+
+	private static int byteslen(Message msg) {
+	    int len = msg.uint8();
+	    if((len & 128) != 0)
+		len = msg.int32();
+	    return(len);
+	}
+
+	private FormatError mismatch(String what) {
+	    return(new FormatError("Expected " + what + " in TTO list, got type " + type));
+	}
+
+	public boolean isnil() {
+	    return(type == T_NIL);
+	}
+
+	public int intval() {
+	    switch(type) {
+	    case T_INT: case T_UINT8: case T_UINT16: case T_INT8: case T_INT16:
+		return(ival);
+	    case T_UID:
+		return((int)lval);
+	    case T_FLOAT32: case T_FLOAT64:
+		return((int)fval);
+	    }
+	    throw(mismatch("a number"));
+	}
+
+	public long longval() {
+	    if(type == T_UID)
+		return(lval);
+	    return(intval());
+	}
+
+	public double floatval() {
+	    if((type == T_FLOAT32) || (type == T_FLOAT64))
+		return(fval);
+	    return(longval());
+	}
+
+	public String str() {
+	    if(type == T_NIL)
+		return(null);
+	    if((type != T_STR) || !pending)
+		throw(mismatch("a string"));
+	    pending = false;
+	    return(msg.string());
+	}
+
+	public byte[] bytes() {
+	    if(type == T_NIL)
+		return(null);
+	    if((type != T_BYTES) || !pending)
+		throw(mismatch("bytes"));
+	    pending = false;
+	    return(msg.bytes(byteslen(msg)));
+	}
+
+	public Object[] list() {
+	    if(type == T_NIL)
+		return(null);
+	    if((type != T_TTOL) || !pending)
+		throw(mismatch("a list"));
+	    pending = false;
+	    return(msg.list());
+	}
+
+	public Coord coord() {
+	    if(type == T_NIL)
+		return(null);
+	    if(type != T_COORD)
+		throw(mismatch("a coordinate"));
+	    return(new Coord(ival, ival2));
+	}
+
+	public Coord2d coord2d() {
+	    if(type == T_NIL)
+		return(null);
+	    if(type == T_COORD)
+		return(new Coord2d(ival, ival2));
+	    if((type != T_FCOORD32) && (type != T_FCOORD64))
+		throw(mismatch("a coordinate"));
+	    return(new Coord2d(fval, fval2));
+	}
+
+	public Color color() {
+	    if(type == T_NIL)
+		return(null);
+	    if(type != T_COLOR)
+		throw(mismatch("a color"));
+	    return(new Color(ival, true));
+	}
+
+	/* The current value as list() would have decoded it. */
+	public Object value() {
+	    switch(type) {
+	    case T_INT: case T_UINT8: case T_UINT16: case T_INT8: case T_INT16:
+		return(ival);
+	    case T_UID:
+		return(lval);
+	    case T_FLOAT32:
+		return((float)fval);
+	    case T_FLOAT64:
+		return(fval);
+	    case T_COLOR:
+		return(color());
+	    case T_COORD:
+		return(coord());
+	    case T_FCOORD32: case T_FCOORD64:
+		return(coord2d());
+	    case T_STR:
+		return(str());
+	    case T_BYTES:
+		return(bytes());
+	    case T_TTOL:
+		return(list());
+	    case T_NIL:
+		return(null);
+	    }
+	    throw(mismatch("a value"));
+	}
+
+	/* Decodes the remainder of the list into an array. */
+	public Object[] rest() {
+	    ArrayList<Object> ret = new ArrayList<Object>();
+	    while(next())
+		ret.add(value());
+	    return(ret.toArray());
+	}
+
+	/* Skips past the remainder of the list. */
+	public void finish() {
+	    while(next());
+	}
+    }
+
+    public Object[] list() {
+	return(new Cursor(this).rest());
     }
 
     public abstract void overflow(int min);
@@ -34,6 +34,10 @@ public abstract class Moving extends GAttrib {
     public void move(Coord2d c) {}
 	
     public abstract Coord3f getc();
+
+    public Coord2d getc2() {
+	return(gob.rc);
+    }
     public abstract double getv();
 
     public Object staticp() {
@@ -0,0 +1,217 @@
+package haven;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Traffic telemetry for a Session: packet and byte counts per
+ * datagram, reliable message and object delta type, retransmission
+ * and duplicate counts, and a smoothed round-trip time estimated from
+ * acknowledgements of reliable messages in the manner of RFC 6298.
+ */
+public class NetStats {
+    public static final String[] msgnames = names(Session.class, "MSG_");
+    public static final String[] rmsgnames = names(RMessage.class, "RMSG_");
+    public static final String[] odnames = names(OCache.class, "OD_");
+    public final Counter in = new Counter("in", msgnames), out = new Counter("out", msgnames);
+    public final Counter rin = new Counter("rel in", rmsgnames), rout = new Counter("rel out", rmsgnames);
+    public final Counter od = new Counter("delta", odnames);
+    /* Deltas dropped unapplied because a later one overwrote them,
+     * counted without bytes. */
+    public final Counter elided = new Counter("elided", odnames);
+    public final AtomicLong wakeups = new AtomicLong(), retx = new AtomicLong(), dups = new AtomicLong();
+    private double srtt = -1, rttvar = 0;
+
+    private static String[] names(Class<?> cl, String pfx) {
+	String[] ret = new String[256];
+	for(java.lang.reflect.Field f : cl.getFields()) {
+	    if(f.getName().startsWith(pfx) && (f.getType() == Integer.TYPE) && java.lang.reflect.Modifier.isStatic(f.getModifiers())) {
+		try {
+		    int v = f.getInt(null);
+		    if((v >= 0) && (v < ret.length))
+			ret[v] = f.getName().substring(pfx.length());
+		} catch(IllegalAccessException e) {
+		}
+	    }
+	}
+	return(ret);
+    }
+
+    public static class Counter {
+	public final String name;
+	private final String[] names;
+	private final AtomicLongArray n = new AtomicLongArray(256), b = new AtomicLongArray(256);
+
+	public Counter(String name, String[] names) {
+	    this.name = name;
+	    this.names = names;
+	}
+
+	public void count(int type, int len) {
+	    type &= 0xff;
+	    n.incrementAndGet(type);
+	    b.addAndGet(type, len);
+	}
+
+	public long num(int type) {return(n.get(type));}
+	public long bytes(int type) {return(b.get(type));}
+
+	public long num() {
+	    long ret = 0;
+	    for(int i = 0; i < 256; i++)
+		ret += n.get(i);
+	    return(ret);
+	}
+
+	public long bytes() {
+	    long ret = 0;
+	    for(int i = 0; i < 256; i++)
+		ret += b.get(i);
+	    return(ret);
+	}
+
+	public String name(int type) {
+	    return((names[type] != null) ? names[type] : Integer.toString(type));
+	}
+
+	/* Returns the type with the most bytes not in excl, or -1. */
+	public int top(Collection<Integer> excl) {
+	    int ret = -1;
+	    long max = 0;
+	    for(int i = 0; i < 256; i++) {
+		long v = b.get(i);
+		if((v > max) && !excl.contains(i)) {
+		    ret = i;
+		    max = v;
+		}
+	    }
+	    return(ret);
+	}
+
+	public long[] snapshot() {
+	    long[] ret = new long[512];
+	    for(int i = 0; i < 256; i++) {
+		ret[i] = b.get(i);
+		ret[i + 256] = n.get(i);
+	    }
+	    return(ret);
+	}
+
+	public void reset() {
+	    for(int i = 0; i < 256; i++) {
+		n.set(i, 0);
+		b.set(i, 0);
+	    }
+	}
+
+	/* Prints the types that have seen traffic since base, which
+	 * may be null to print the totals. */
+	public void dump(PrintWriter out, long[] base) {
+	    for(int i = 0; i < 256; i++) {
+		long dn = n.get(i) - ((base == null) ? 0 : base[i + 256]);
+		long db = b.get(i) - ((base == null) ? 0 : base[i]);
+		if(dn > 0)
+		    out.printf("  %-7s %-10s %,10d %,14d\n", name, name(i), dn, db);
+	    }
+	}
+    }
+
+    public synchronized void rtt(long sample) {
+	if(srtt < 0) {
+	    srtt = sample;
+	    rttvar = sample / 2.0;
+	} else {
+	    rttvar = (0.75 * rttvar) + (0.25 * Math.abs(srtt - sample));
+	    srtt = (0.875 * srtt) + (0.125 * sample);
+	}
+    }
+
+    public synchronized double srtt() {return(srtt);}
+    public synchronized double rttvar() {return(rttvar);}
+
+    public Counter[] counters() {
+	return(new Counter[] {in, out, rin, rout, od, elided});
+    }
+
+    public void reset() {
+	for(Counter c : counters())
+	    c.reset();
+	wakeups.set(0);
+	retx.set(0);
+	dups.set(0);
+	synchronized(this) {
+	    srtt = -1;
+	    rttvar = 0;
+	}
+    }
+
+    public String rttstats() {
+	synchronized(this) {
+	    if(srtt < 0)
+		return("RTT -");
+	    return(String.format("RTT %.0f ms (var %.0f)", srtt, rttvar));
+	}
+    }
+
+    public String toString() {
+	return(String.format("%s, %,d retx, %,d dup, in %,d/%,d B, out %,d/%,d B, %,d wakeups, %,d deltas elided", rttstats(), retx.get(), dups.get(),
+			     in.num(), in.bytes(), out.num(), out.bytes(), wakeups.get(), elided.num()));
+    }
+
+    /* Summarizes the heaviest inbound datagram types. */
+    public String topin(int n) {
+	StringBuilder buf = new StringBuilder();
+	Collection<Integer> seen = new ArrayList<>();
+	for(int i = 0; i < n; i++) {
+	    int t = in.top(seen);
+	    if(t < 0)
+		break;
+	    seen.add(t);
+	    if(buf.length() > 0)
+		buf.append(", ");
+	    buf.append(String.format("%s %,d (%,d kB)", in.name(t), in.num(t), in.bytes(t) / 1024));
+	}
+	return(buf.toString());
+    }
+
+    public void dump(PrintWriter out) {
+	out.println(this);
+	for(Counter c : counters())
+	    c.dump(out, null);
+    }
+
+    /* Appends the traffic of each interval to a file, each block
+     * headed by a timestamp, for lining up against lag spikes. */
+    public class Dumper extends HackThread {
+	public final File file;
+	public final int interval;
+
+	public Dumper(File file, int interval) {
+	    super("Network stats dumper");
+	    setDaemon(true);
+	    this.file = file;
+	    this.interval = interval;
+	}
+
+	public void run() {
+	    Map<Counter, long[]> base = new HashMap<>();
+	    long retx0, dups0;
+	    try(PrintWriter out = new PrintWriter(new FileWriter(file, true))) {
+		while(true) {
+		    for(Counter c : counters())
+			base.put(c, c.snapshot());
+		    retx0 = retx.get(); dups0 = dups.get();
+		    Thread.sleep(interval * 1000L);
+		    out.printf("%tF %<tT.%<tL: %s, %,d retx, %,d dup\n", new Date(), rttstats(), retx.get() - retx0, dups.get() - dups0);
+		    for(Counter c : counters())
+			c.dump(out, base.get(c));
+		    out.flush();
+		}
+	    } catch(InterruptedException e) {
+	    } catch(IOException e) {
+		e.printStackTrace();
+	    }
+	}
+    }
+}
@@ -53,10 +53,45 @@ public class OCache implements Iterable<Gob> {
     public static final int OD_ICON = 19;
     public static final int OD_RESATTR = 20;
     public static final int OD_END = 255;
+    /* Delta types whose effect is overwritten by a later delta of the
+     * same type, mapped to the types which, when queued in between,
+     * make the earlier one matter again. Moves only set the position;
+     * the others act on the current Moving or Composite attribute,
+     * which those barriers may replace. Pose and step deltas only
+     * sometimes overwrite earlier ones, as their Partial says. */
+    private static final long[] supersedes = new long[256];
+    private static final boolean[] coalesces = new boolean[256];
+    private static void supersedes(int type, int... barriers) {
+	coalesces[type] = true;
+	for(int b : barriers)
+	    supersedes[type] |= 1L << b;
+    }
+    static {
+	supersedes(OD_MOVE);
+	supersedes(OD_LINSTEP, OD_LINBEG, OD_HOMING, OD_FOLLOW);
+	supersedes(OD_CMPPOSE, OD_RES, OD_COMPOSE);
+	supersedes(OD_CMPMOD, OD_RES, OD_COMPOSE);
+	supersedes(OD_CMPEQU, OD_RES, OD_COMPOSE);
+	supersedes(OD_ZOFF);
+	supersedes(OD_LUMIN);
+	supersedes(OD_HEALTH);
+	supersedes(OD_BUDDY);
+	supersedes(OD_ICON);
+	supersedes(OD_AVATAR);
+    }
     public static final Coord2d posres = new Coord2d(0x1.0p-10, 0x1.0p-10).mul(11, 11);
     /* XXX: Use weak refs */
     private Collection<Collection<Gob>> local = new LinkedList<Collection<Gob>>();
-    private Map<Long, Gob> objs = new TreeMap<Long, Gob>();
+    private final LongMap<Gob> objs = new LongMap<Gob>(1024);
+    /* All gobs in objs, densely packed in no particular order, each
+     * at its Gob.ocidx. An array handed out in a snapshot is never
+     * modified below that snapshot's length; removal from it copies
+     * the array first. */
+    private Gob[] dense = new Gob[1024];
+    private int ndense = 0;
+    private Snapshot snap = null;
+    private boolean shared = false;
+    public final GobGrid grid = new GobGrid();
     private Glob glob;
     private final Collection<ChangeCallback> cbs = new WeakList<ChangeCallback>();
 
@@ -65,8 +100,18 @@ public class OCache implements Iterable<Gob> {
     	public void removed(Gob ob);
     }
 
+    public final TickLOD lod = new TickLOD();
+    public final GobStats stats = new GobStats(this);
+    /* Reuses removed gobs, if asked to. */
+    public final GobPool pool;
+    private GobStats.Dumper statdump = null;
+    /* Applies the queued deltas of dirty gobs. */
+    public final Loader.Batch<GobInfo> applier;
+
     public OCache(Glob glob) {
 	       this.glob = glob;
+	       this.applier = (glob == null) ? null : glob.loader.new Batch<>(GobInfo::apply, 4, 64);
+	       this.pool = (Config.gobpool > 0) ? new GobPool(glob, Config.gobpool) : null;
     }
 
     public synchronized void callback(ChangeCallback cb) {
@@ -77,58 +122,219 @@ public class OCache implements Iterable<Gob> {
 	       cbs.remove(cb);
     }
 
+    /* An unchanging view of the gob table, for iterating over without
+     * holding the cache lock. */
+    public static class Snapshot implements Iterable<Gob> {
+	public final Gob[] gobs;
+	public final int n;
+
+	private Snapshot(Gob[] gobs, int n) {
+	    this.gobs = gobs;
+	    this.n = n;
+	}
+
+	public Iterator<Gob> iterator() {
+	    return(Arrays.asList(gobs).subList(0, n).iterator());
+	}
+
+	public void forEach(Consumer<? super Gob> action) {
+	    for(int i = 0; i < n; i++)
+		action.accept(gobs[i]);
+	}
+    }
+
+    public synchronized Snapshot snapshot() {
+	if(snap == null) {
+	    snap = new Snapshot(dense, ndense);
+	    shared = true;
+	}
+	return(snap);
+    }
+
+    /* Must be called with the cache locked. */
+    private void unshare(int sz) {
+	if(shared || (sz > dense.length)) {
+	    int n = dense.length;
+	    while(n < sz)
+		n *= 2;
+	    dense = Arrays.copyOf(dense, n);
+	    shared = false;
+	}
+	snap = null;
+    }
+
+    /* Must be called with the cache locked. Returns the gob replaced,
+     * if any. */
+    private Gob dput(Gob ob) {
+	Gob old = objs.put(ob.id, ob);
+	if(old == ob)
+	    return(null);
+	stats.created(GobStats.GOB);
+	if(old != null)
+	    grid.remove(old);
+	grid.add(ob);
+	if(old != null) {
+	    unshare(ndense);
+	    dense[ob.ocidx = old.ocidx] = ob;
+	    old.ocidx = -1;
+	} else {
+	    /* Appending leaves everything below any current snapshot's
+	     * length untouched, so only growth needs a copy. */
+	    if(ndense == dense.length)
+		unshare(ndense + 1);
+	    snap = null;
+	    dense[ob.ocidx = ndense++] = ob;
+	}
+	return(old);
+    }
+
+    /* Must be called with the cache locked. */
+    private Gob drem(long id) {
+	Gob old = objs.remove(id);
+	if(old != null) {
+	    grid.remove(old);
+	    unshare(ndense);
+	    Gob last = dense[--ndense];
+	    dense[last.ocidx = old.ocidx] = last;
+	    dense[ndense] = null;
+	    old.ocidx = -1;
+	}
+	return(old);
+    }
+
     public void add(Gob ob) {
+	Gob old;
     	synchronized(ob) {
     	    Collection<ChangeCallback> cbs;
     	    synchronized(this) {
     		cbs = new ArrayList<>(this.cbs);
-    		objs.put(ob.id, ob);
+    		old = dput(ob);
     	    }
     	    for(ChangeCallback cb : cbs)
     		cb.added(ob);
     	}
+	if(old != null) {
+	    synchronized(old) {
+		stats.removed(old);
+	    }
+	}
     }
 
     public void remove(long id) {
     	Gob old;
     	Collection<ChangeCallback> cbs;
     	synchronized(this) {
-    	    old = objs.remove(id);
+    	    old = drem(id);
     	    cbs = new ArrayList<>(this.cbs);
     	}
     	if(old != null) {
     	    synchronized(old) {
+    		stats.removed(old);
     		for(ChangeCallback cb : cbs)
     		    cb.removed(old);
     	    }
+    	    if(pool != null)
+    		pool.retire(old);
     	}
     }
 
+    /* Local gobs are rare enough that copying them each tick is
+     * of no concern. */
+    private synchronized List<Gob> locals() {
+	if(local.isEmpty())
+	    return(Collections.emptyList());
+	List<Gob> ret = new ArrayList<>();
+	for(Collection<Gob> gc : local)
+	    ret.addAll(gc);
+	return(ret);
+    }
+
+    private void tickeach(Consumer<Gob> task) {
+	Snapshot snap = snapshot();
+	List<Gob> locals = locals();
+	if(!Config.par) {
+	    snap.forEach(task);
+	    locals.forEach(task);
+	} else {
+	    Arrays.stream(snap.gobs, 0, snap.n).parallel().forEach(task);
+	    locals.parallelStream().forEach(task);
+	}
+    }
+
     public void ctick(double dt) {
-    	ArrayList<Gob> copy = new ArrayList<Gob>();
-    	synchronized(this) {
-    	    for(Gob g : this)
-    		copy.add(g);
-    	}
-    	Consumer<Gob> task = g -> {
-    	    synchronized(g) {
-    		g.ctick(dt);
-    	    }
-    	};
-    	if(!Config.par)
-    	    copy.forEach(task);
-    	else
-    	    copy.parallelStream().forEach(task);
+	lod.begin();
+    	tickeach(g -> {
+    		synchronized(g) {
+		    double gdt = lod.dt(g, dt);
+		    if(gdt >= 0) {
+			g.ctick(gdt);
+			grid.update(g);
+		    }
+    		}
+    	    });
+	lod.end();
+	groundz();
+	stats.check();
+	if(pool != null)
+	    pool.tick();
+    }
+
+    private Gob[] zgobs = new Gob[0];
+    private double[] zxy = new double[0], zbuf = new double[0];
+
+    /* Samples the ground heights under all gobs in one batch after
+     * ticking them, for their placement to find in Gob.groundz
+     * instead of each going to the map. */
+    private void groundz() {
+	if(glob == null)
+	    return;
+	Snapshot snap = snapshot();
+	List<Gob> locals = locals();
+	int n = snap.n + locals.size();
+	if(zgobs.length < n) {
+	    int sz = Math.max(zgobs.length, 256);
+	    while(sz < n)
+		sz *= 2;
+	    zgobs = new Gob[sz];
+	    zxy = new double[sz * 2];
+	    zbuf = new double[sz];
+	}
+	for(int i = 0; i < n; i++) {
+	    Gob g = zgobs[i] = (i < snap.n) ? snap.gobs[i] : locals.get(i - snap.n);
+	    Coord2d c;
+	    synchronized(g) {
+		c = g.getc2();
+	    }
+	    zxy[i * 2] = c.x;
+	    zxy[(i * 2) + 1] = c.y;
+	}
+	glob.map.getcz(zxy, zbuf, n);
+	for(int i = 0; i < n; i++) {
+	    Gob g = zgobs[i];
+	    synchronized(g) {
+		g.gzx = Double.isNaN(zbuf[i]) ? Double.NaN : zxy[i * 2];
+		g.gzy = zxy[(i * 2) + 1];
+		g.gz = zbuf[i];
+	    }
+	    zgobs[i] = null;
+	}
+    }
+
+    public void statdump(java.io.File file, int interval) {
+	GobStats.Dumper old;
+	synchronized(this) {
+	    old = statdump;
+	    statdump = (file == null) ? null : stats.new Dumper(file, interval);
+	    if(statdump != null)
+		statdump.start();
+	}
+	if(old != null)
+	    old.interrupt();
     }
 
     public void gtick(Render g) {
-    	ArrayList<Gob> copy = new ArrayList<Gob>();
-    	synchronized(this) {
-    	    for(Gob ob : this)
-    		copy.add(ob);
-    	}
     	if(!Config.par) {
-    	    copy.forEach(ob -> {
+    	    tickeach(ob -> {
     		    synchronized(ob) {
     			ob.gtick(g);
     		    }
@@ -136,7 +342,7 @@ public class OCache implements Iterable<Gob> {
     	} else {
     	    Collection<Render> subs = new ArrayList<>();
     	    ThreadLocal<Render> subv = new ThreadLocal<>();
-    	    copy.parallelStream().forEach(ob -> {
+    	    tickeach(ob -> {
     		    Render sub = subv.get();
     		    if(sub == null) {
     			sub = g.env().render();
@@ -159,7 +365,7 @@ public class OCache implements Iterable<Gob> {
     	Collection<Iterator<Gob>> is = new LinkedList<Iterator<Gob>>();
     	for(Collection<Gob> gc : local)
     	    is.add(gc.iterator());
-    	return(new I2<Gob>(objs.values().iterator(), new I2<Gob>(is)));
+    	return(new I2<Gob>(snapshot().iterator(), new I2<Gob>(is)));
     }
 
     public synchronized void ladd(Collection<Gob> gob) {
@@ -203,6 +409,29 @@ public class OCache implements Iterable<Gob> {
 	public void apply(Gob gob);
     }
 
+    /* A delta which leaves some of the effect of an earlier one of
+     * its type standing. */
+    public interface Partial extends Delta {
+	/* Whether this wholly overwrites prev, of the same type. */
+	public boolean overwrites(Delta prev);
+    }
+
+    /* A parsed delta as queued in GobInfo.pending, with its type kept
+     * for coalescing. */
+    public static class Pending implements Delta {
+	public final int type;
+	public final Delta d;
+
+	public Pending(int type, Delta d) {
+	    this.type = type;
+	    this.d = d;
+	}
+
+	public void apply(Gob gob) {
+	    d.apply(gob);
+	}
+    }
+
     public static void move(Gob g, Coord2d c, double a) {
 	       g.move(c, a);
     }
@@ -277,7 +506,26 @@ public class OCache implements Iterable<Gob> {
     	    w = msg.int32();
     	    e = (w < 0)?-1:(w * 0x1p-10);
     	}
-    	return(gob -> linstep(gob, t, e));
+    	return(new LinStep(t, e));
+    }
+
+    private static class LinStep implements Partial {
+	final double t, e;
+
+	LinStep(double t, double e) {
+	    this.t = t;
+	    this.e = e;
+	}
+
+	public void apply(Gob gob) {
+	    linstep(gob, t, e);
+	}
+
+	/* A step ending the move must be applied, or a later step
+	 * would advance a move the server had already stopped. */
+	public boolean overwrites(Delta prev) {
+	    return(!(prev instanceof LinStep) || (((LinStep)prev).t >= 0));
+	}
     }
 
     public static void speak(Gob g, float zo, String text) {
@@ -359,9 +607,32 @@ public class OCache implements Iterable<Gob> {
     	    }
     	    ttime = (msg.uint8() / 10.0f);
     	}
-    	List<ResData> cposes = poses, ctposes = tposes;
-    	float cttime = ttime;
-    	return(gob -> cmppose(gob, seq, cposes, ctposes, interp, cttime));
+    	return(new CmpPose(seq, poses, tposes, interp, ttime));
+    }
+
+    private static class CmpPose implements Partial {
+	final int seq;
+	final List<ResData> poses, tposes;
+	final boolean interp;
+	final float ttime;
+
+	CmpPose(int seq, List<ResData> poses, List<ResData> tposes, boolean interp, float ttime) {
+	    this.seq = seq;
+	    this.poses = poses;
+	    this.tposes = tposes;
+	    this.interp = interp;
+	    this.ttime = ttime;
+	}
+
+	public void apply(Gob gob) {
+	    cmppose(gob, seq, poses, tposes, interp, ttime);
+	}
+
+	/* Poses and one-shot poses are each only changed when given,
+	 * so only a delta giving both replaces an earlier one. */
+	public boolean overwrites(Delta prev) {
+	    return((poses != null) && (tposes != null));
+	}
     }
 
     public static void cmpmod(Gob g, List<Composited.MD> mod) {
@@ -630,6 +901,125 @@ public class OCache implements Iterable<Gob> {
 	return(gob -> resattr(gob, resid, dat));
     }
 
+    private static void skipresdata(Message msg, int resid) {
+	if((resid & 0x8000) != 0)
+	    msg.skip(msg.uint8());
+    }
+
+    private static void skipresdatas(Message msg) {
+	for(int resid; (resid = msg.uint16()) != 65535;)
+	    skipresdata(msg, resid);
+    }
+
+    private static void skipstring(Message msg) {
+	while(msg.int8() != 0);
+    }
+
+    /* Skips over a delta of the given type without decoding it, and
+     * so must follow the layouts read by the parsers above. */
+    public static void skip(int type, Message msg) {
+	switch(type) {
+	case OD_REM:
+	    break;
+	case OD_MOVE:
+	    msg.skip(10);
+	    break;
+	case OD_RES:
+	    skipresdata(msg, msg.uint16());
+	    break;
+	case OD_LINBEG:
+	    msg.skip(16);
+	    break;
+	case OD_LINSTEP: {
+	    int w = msg.int32();
+	    if((w != -1) && ((w & 0x80000000) != 0))
+		msg.skip(4);
+	    break;
+	}
+	case OD_HOMING:
+	    if(msg.uint32() != 0xffffffffl)
+		msg.skip(12);
+	    break;
+	case OD_SPEECH:
+	    msg.skip(2);
+	    skipstring(msg);
+	    break;
+	case OD_COMPOSE:
+	    msg.skip(2);
+	    break;
+	case OD_CMPPOSE: {
+	    int pfl = msg.uint8();
+	    msg.skip(1);
+	    if((pfl & 2) != 0)
+		skipresdatas(msg);
+	    if((pfl & 4) != 0) {
+		skipresdatas(msg);
+		msg.skip(1);
+	    }
+	    break;
+	}
+	case OD_CMPMOD:
+	    while(msg.uint16() != 65535)
+		skipresdatas(msg);
+	    break;
+	case OD_CMPEQU:
+	    for(int h; (h = msg.uint8()) != 255;) {
+		skipstring(msg);
+		skipresdata(msg, msg.uint16());
+		if((h & 0x80) != 0)
+		    msg.skip(6);
+	    }
+	    break;
+	case OD_ZOFF:
+	    msg.skip(2);
+	    break;
+	case OD_LUMIN:
+	    msg.skip(11);
+	    break;
+	case OD_AVATAR:
+	    while(msg.uint16() != 65535);
+	    break;
+	case OD_FOLLOW:
+	    if(msg.uint32() != 0xffffffffl) {
+		msg.skip(2);
+		skipstring(msg);
+	    }
+	    break;
+	case OD_OVERLAY: {
+	    msg.skip(4);
+	    int resid = msg.uint16();
+	    if(resid != 65535)
+		skipresdata(msg, resid);
+	    break;
+	}
+	case OD_HEALTH:
+	    msg.skip(1);
+	    break;
+	case OD_BUDDY:
+	    if(msg.int8() != 0) {
+		skipstring(msg);
+		msg.skip(2);
+	    }
+	    break;
+	case OD_ICON:
+	    if(msg.uint16() != 65535)
+		msg.skip(1);
+	    break;
+	case OD_RESATTR:
+	    msg.skip(2);
+	    msg.skip(msg.uint8());
+	    break;
+	default:
+	    throw(new Session.MessageException("Unknown objdelta type: " + type, msg));
+	}
+    }
+
+    /* Skips the deltas of one object, up to and including OD_END. */
+    public static void skip(Message msg) {
+	for(int type; (type = msg.uint8()) != OD_END;)
+	    skip(type, msg);
+    }
+
     public Delta parse(int type, Message msg) {
 	switch(type) {
 	case OD_MOVE:
@@ -681,7 +1071,7 @@ public class OCache implements Iterable<Gob> {
 	public int frame;
 	public boolean nremoved, added, gremoved, virtual;
 	public Gob gob;
-	public Loader.Future<?> applier;
+	private Delta applying = null;
 
 	public GobInfo(long id, int frame) {
 	    this.id = id;
@@ -700,7 +1090,7 @@ public class OCache implements Iterable<Gob> {
 			break main;
 		    }
 		    if(gob == null) {
-			gob = new Gob(glob, Coord2d.z, id);
+			gob = (pool != null) ? pool.get(id) : new Gob(glob, Coord2d.z, id);
 			gob.virtual = virtual;
 		    }
 		}
@@ -709,6 +1099,7 @@ public class OCache implements Iterable<Gob> {
 		    synchronized(this) {
 			if((d = pending.peek()) == null)
 			    break;
+			applying = d;
 		    }
 		    synchronized(gob) {
 			d.apply(gob);
@@ -716,6 +1107,7 @@ public class OCache implements Iterable<Gob> {
 		    synchronized(this) {
 			if((pending.poll()) != d)
 			    throw(new RuntimeException());
+			applying = null;
 		    }
 		}
 		if(!added) {
@@ -724,21 +1116,42 @@ public class OCache implements Iterable<Gob> {
 		}
 		gob.updated();
 	    }
-	    synchronized(this) {
-		applier = null;
-		checkdirty(false);
+	    checkdirty(false);
+	}
+
+	/* Must be called with this locked. Queues d after dropping the
+	 * latest queued delta of its type, if d overwrites it and no
+	 * barrier to that lies between them. The delta being applied is
+	 * left alone. */
+	void enqueue(Delta d) {
+	    if((d instanceof Pending) && coalesces[((Pending)d).type]) {
+		Pending p = (Pending)d;
+		long barriers = supersedes[p.type];
+		for(ListIterator<Delta> i = pending.listIterator(pending.size()); i.hasPrevious();) {
+		    Delta prev = i.previous();
+		    if((prev == applying) || !(prev instanceof Pending))
+			break;
+		    int pt = ((Pending)prev).type;
+		    if(pt == p.type) {
+			if(!(p.d instanceof Partial) || ((Partial)p.d).overwrites(((Pending)prev).d)) {
+			    i.remove();
+			    glob.sess.stats.elided.count(pt, 0);
+			}
+			break;
+		    }
+		    if((barriers & (1L << pt)) != 0)
+			break;
+		}
 	    }
+	    pending.add(d);
 	}
 
+	/* An interrupt retries the gob at once even if it is waiting
+	 * for something to load. */
 	public void checkdirty(boolean interrupt) {
 	    synchronized(this) {
-		if(applier == null) {
-		    if(nremoved ? (added && !gremoved) : (!added || !pending.isEmpty())) {
-			applier = glob.loader.defer(this::apply, null);
-		    }
-		} else if(interrupt) {
-		    applier.restart();
-		}
+		if(nremoved ? (added && !gremoved) : (!added || !pending.isEmpty()))
+		    applier.submit(this, interrupt);
 	    }
 	}
     }
@@ -783,16 +1196,18 @@ public class OCache implements Iterable<Gob> {
 	List<Delta> attrs = new ArrayList<>();
 	boolean hasrem = false;
 	GobInfo removed = null;
+	NetStats.Counter st = glob.sess.stats.od;
 	while(true) {
-	    int type = msg.uint8();
+	    int type = msg.uint8(), start = msg.rh;
 	    if(type == OD_END) {
 		break;
 	    } else if(type == OD_REM) {
 		removed = netremove(id, frame - 1);
 		hasrem = true;
 	    } else {
-		attrs.add(parse(type, msg));
+		attrs.add(new Pending(type, parse(type, msg)));
 	    }
+	    st.count(type, msg.rh - start + 1);
 	}
 	if(hasrem)
 	    return(removed);
@@ -804,7 +1219,8 @@ public class OCache implements Iterable<Gob> {
 		synchronized(ng) {
 		    ng.frame = frame;
 		    ng.virtual = ((fl & 2) != 0);
-		    ng.pending.addAll(attrs);
+		    for(Delta d : attrs)
+			ng.enqueue(d);
 		    ng.checkdirty(false);
 		}
 	    }
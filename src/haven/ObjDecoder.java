@@ -0,0 +1,136 @@
+package haven;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Decodes object deltas off the session reader thread. The reader
+ * only splits each OBJDATA datagram into per-object records, using
+ * OCache.skip to find where each ends, and hands every record to one
+ * of a fixed set of decoder threads chosen by object id. All records
+ * of one object thus pass through the same queue and are decoded in
+ * the order they arrived, which OCache.receive relies on to order
+ * frames. With no threads, records are decoded on the reader thread
+ * as they are split, as before.
+ */
+public class ObjDecoder {
+    public final OCache oc;
+    private final Lane[] lanes;
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private volatile Throwable error = null;
+    public final AtomicLong records = new AtomicLong(), bytes = new AtomicLong();
+    public final AtomicLong splitns = new AtomicLong(), decodens = new AtomicLong();
+    public final AtomicLong waitns = new AtomicLong(), maxwaitns = new AtomicLong();
+
+    private static class Record {
+	final int fl, frame;
+	final long id;
+	final byte[] data;
+	final long queued;
+
+	Record(int fl, long id, int frame, byte[] data) {
+	    this.fl = fl;
+	    this.id = id;
+	    this.frame = frame;
+	    this.data = data;
+	    this.queued = System.nanoTime();
+	}
+    }
+
+    private class Lane extends HackThread {
+	final MPSCQueue<Record> q = new MPSCQueue<>();
+	volatile boolean alive = true;
+
+	Lane(int n) {
+	    super("Object decoder " + n);
+	    setDaemon(true);
+	}
+
+	public void run() {
+	    try {
+		while(true) {
+		    Record r = q.poll();
+		    if(r == null) {
+			if(!alive)
+			    break;
+			q.await(1000);
+			continue;
+		    }
+		    long st = System.nanoTime();
+		    long wait = st - r.queued;
+		    waitns.addAndGet(wait);
+		    maxwaitns.accumulateAndGet(wait, Math::max);
+		    try {
+			oc.receive(r.fl, r.id, r.frame, new MessageBuf(r.data));
+		    } catch(RuntimeException e) {
+			error = e;
+		    }
+		    decodens.addAndGet(System.nanoTime() - st);
+		    pending.decrementAndGet();
+		}
+	    } catch(InterruptedException e) {
+	    }
+	}
+    }
+
+    public ObjDecoder(OCache oc, int threads) {
+	this.oc = oc;
+	lanes = new Lane[threads];
+	for(int i = 0; i < threads; i++) {
+	    lanes[i] = new Lane(i);
+	    lanes[i].start();
+	}
+    }
+
+    public int threads() {
+	return(lanes.length);
+    }
+
+    /* Takes the deltas of one object from msg, which must be backed
+     * by a complete buffer, and leaves msg after its OD_END. Errors
+     * from earlier records decoded on other threads are rethrown
+     * here, so that they still bring the session down. */
+    public void submit(int fl, long id, int frame, Message msg) {
+	Throwable err = error;
+	if(err != null)
+	    throw(new RuntimeException("Object decoding failed", err));
+	long st = System.nanoTime();
+	int start = msg.rh;
+	if(lanes.length == 0) {
+	    oc.receive(fl, id, frame, msg);
+	    decodens.addAndGet(System.nanoTime() - st);
+	} else {
+	    OCache.skip(msg);
+	    Record r = new Record(fl, id, frame, Arrays.copyOfRange(msg.rbuf, start, msg.rh));
+	    pending.incrementAndGet();
+	    lanes[(int)(((id * 0x9e3779b97f4a7c15L) >>> 33) % lanes.length)].q.offer(r);
+	}
+	splitns.addAndGet(System.nanoTime() - st);
+	records.incrementAndGet();
+	bytes.addAndGet(msg.rh - start);
+    }
+
+    /* Whether every submitted record has been decoded. */
+    public boolean idle() {
+	return(pending.get() == 0);
+    }
+
+    public void stop() {
+	for(Lane l : lanes) {
+	    l.alive = false;
+	    l.q.wake();
+	}
+    }
+
+    public void reset() {
+	for(AtomicLong v : new AtomicLong[] {records, bytes, splitns, decodens, waitns, maxwaitns})
+	    v.set(0);
+    }
+
+    public String toString() {
+	long n = Math.max(records.get(), 1);
+	return(String.format("Objdec %d threads: %,d records (%,d kB), reader %.2f us/rec, decode %.2f us/rec, wait %.2f ms avg %.2f ms max",
+			     lanes.length, records.get(), bytes.get() / 1024, splitns.get() / 1e3 / n, decodens.get() / 1e3 / n,
+			     waitns.get() / 1e6 / n, maxwaitns.get() / 1e6));
+    }
+}
@@ -45,7 +45,7 @@ public abstract class PView extends Widget {
     private final Light.LightList lights = new Light.LightList();
     private ActAudio audio;
     private final ScreenList list2d = new ScreenList();
-    private final TickList ticklist = new TickList();
+    protected final TickList ticklist = new TickList();
     private Sampler2D fragsamp;
 
     public PView(Coord sz) {
@@ -44,7 +44,7 @@ public class RMessage extends PMessage {
     public static final int RMSG_FRAGMENT = 14;
     public static final int RMSG_ADDWDG = 15;
 
-    public long last = 0;
+    public long last = 0, due = 0;
     public int retx = 0;
     public int seq;
 
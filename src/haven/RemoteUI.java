@@ -27,8 +27,13 @@
 package haven;
 
 public class RemoteUI implements UI.Receiver, UI.Runner {
+    /* The longest time, in seconds, that a batch of messages may
+     * hold the UI lock, so that a flood of them cannot stall the
+     * renderer for more than about a frame. */
+    public static final double maxbatch = 0.010;
     Session sess, ret;
     UI ui;
+    private final Message.Cursor args = new Message.Cursor();
 	
     public RemoteUI(Session sess) {
 	this.sess = sess;
@@ -46,8 +51,8 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
     public void ret(Session sess) {
 	synchronized(this.sess) {
 	    this.ret = sess;
-	    this.sess.notifyAll();
 	}
+	this.sess.uimsgs.wake();
     }
 
     public Session run(UI ui) throws InterruptedException {
@@ -55,19 +60,20 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
 	ui.setreceiver(this);
 	while(true) {
 	    PMessage msg;
+	    boolean more = false;
 	    synchronized(ui) {
+		double st = Utils.rtime();
 		while((msg = sess.getuimsg()) != null) {
 		    if(msg.type == RMessage.RMSG_NEWWDG) {
 			int id = msg.uint16();
 			String type = msg.string();
 			int parent = msg.uint16();
 			Object[] pargs = msg.list();
-			Object[] cargs = msg.list();
-			ui.newwidget(id, type, parent, pargs, cargs);
+			ui.newwidget(id, type, parent, pargs, args.reset(msg));
 		    } else if(msg.type == RMessage.RMSG_WDGMSG) {
 			int id = msg.uint16();
 			String name = msg.string();
-			ui.uimsg(id, name, msg.list());
+			ui.uimsg(id, name, args.reset(msg));
 		    } else if(msg.type == RMessage.RMSG_DSTWDG) {
 			int id = msg.uint16();
 			ui.destroy(id);
@@ -77,6 +83,10 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
 			Object[] pargs = msg.list();
 			ui.addwidget(id, parent, pargs);
 		    }
+		    if(Utils.rtime() - st > maxbatch) {
+			more = true;
+			break;
+		    }
 		}
 	    }
 	    synchronized(sess) {
@@ -86,8 +96,11 @@ public class RemoteUI implements UI.Receiver, UI.Runner {
 		}
 		if(!sess.alive())
 		    return(null);
-		sess.wait();
 	    }
+	    if(more)
+		Thread.sleep(1);
+	    else
+		sess.awaituimsg(1000);
 	}
     }
 }
@@ -326,6 +326,7 @@ public class Resource implements Serializable {
 	private Loading(Pool.Queued res) {
 	    super("Waiting for resource " + res.name + "...");
 	    this.res = res;
+	    subject(res.name);
 	}
 
 	public String toString() {
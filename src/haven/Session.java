@@ -30,9 +30,9 @@ import java.net.*;
 import java.util.*;
 import java.util.function.*;
 import java.io.*;
-import java.lang.ref.*;
+import java.util.concurrent.atomic.*;
 
-public class Session implements Resource.Resolver {
+public class Session implements Resource.Resolver, Console.Directory {
     public static final int PVER = 23;
 
     public static final int MSG_SESS = 0;
@@ -51,25 +51,43 @@ public class Session implements Resource.Resolver {
     public static final int SESSERR_EXPR = 5;
 
     static final int ackthresh = 30;
+    /* Sends that come due within sendtick ms of each other are made
+     * together, and batched datagrams are kept below maxdgram
+     * bytes. */
+    static final int sendtick = 5;
+    static final int maxdgram = 1000;
 
-    DatagramSocket sk;
-    SocketAddress server;
-    Thread rworker, sworker;
+    final Transport tr;
+    Thread rworker;
+    SWorker sworker;
     Object[] args;
     public int connfailed = 0;
     public String state = "conn";
-    int tseq = 0, rseq = 0;
+    int tseq = 0, rseq = 0, sbase = 0;
     int ackseq;
     long acktime = -1;
-    LinkedList<PMessage> uimsgs = new LinkedList<PMessage>();
-    Map<Integer, PMessage> waiting = new TreeMap<Integer, PMessage>();
-    LinkedList<RMessage> pending = new LinkedList<RMessage>();
+    final MPSCQueue<PMessage> uimsgs = new MPSCQueue<PMessage>();
+    /* Reliable messages are windowed by sequence number: sent but
+     * unacknowledged messages from sbase to tseq in swnd, and
+     * out-of-order receptions ahead of rseq in rwnd. Retransmission
+     * deadlines are kept in retxq, from which acknowledged messages
+     * are dropped lazily as they come due. */
+    final RMessage[] swnd = new RMessage[65536];
+    final PMessage[] rwnd = new PMessage[65536];
+    final PriorityQueue<RMessage> retxq = new PriorityQueue<RMessage>(Comparator.comparingLong(msg -> msg.due));
     Map<Long, ObjAck> objacks = new TreeMap<Long, ObjAck>();
     String username;
     byte[] cookie;
-    final Map<Integer, CachedRes> rescache = new TreeMap<Integer, CachedRes>();
+    /* Indexed by resource id, which is a uint16 on the wire. Entries
+     * are only ever added, so readers need no lock. */
+    final AtomicReferenceArray<CachedRes> rescache = new AtomicReferenceArray<CachedRes>(65536);
     public final Glob glob;
     public byte[] sesskey;
+    volatile Capture.Writer capture, pendcap;
+    volatile long lastsend = 0;
+    public final NetStats stats = new NetStats();
+    public final ObjDecoder objdec;
+    private NetStats.Dumper statdump = null;
 
     @SuppressWarnings("serial")
     public static class MessageException extends RuntimeException {
@@ -106,23 +124,29 @@ public class Session implements Resource.Resolver {
     private static class CachedRes {
 	private final Waitable.Queue wq = new Waitable.Queue();
 	private final int resid;
-	private String resnm = null;
+	private volatile String resnm = null;
 	private int resver;
-	private Reference<Ref> ind;
+	private final Ref ind = new Ref();
 	
 	private CachedRes(int id) {
 	    resid = id;
 	}
 	
 	private class Ref implements Indir<Resource> {
-	    private Resource res;
+	    private volatile Resource res;
 		    
 	    public Resource get() {
-		if(resnm == null)
-		    throw(new LoadingIndir(CachedRes.this));
-		if(res == null)
-		    res = Resource.remote().load(resnm, resver, 0).get();
-		return(res);
+		Resource res = this.res;
+		if(res != null)
+		    return(res);
+		String nm;
+		int ver;
+		synchronized(CachedRes.this) {
+		    if((nm = resnm) == null)
+			throw(new LoadingIndir(CachedRes.this));
+		    ver = resver;
+		}
+		return(this.res = Resource.remote().load(nm, ver, 0).get());
 	    }
 	
 	    public String toString() {
@@ -138,37 +162,35 @@ public class Session implements Resource.Resolver {
 	    }
 	}
 
-	private Ref get() {
-	    Ref ind = (this.ind == null)?null:(this.ind.get());
-	    if(ind == null)
-		this.ind = new WeakReference<Ref>(ind = new Ref());
-	    return(ind);
-	}
-	
 	public void set(String nm, int ver) {
 	    Resource.remote().load(nm, ver, -5);
 	    synchronized(this) {
 		this.resnm = nm;
 		this.resver = ver;
-		get().reset();
+		ind.reset();
 		wq.wnotify();
 	    }
 	}
     }
 
     private CachedRes cachedres(int id) {
-	synchronized(rescache) {
-	    CachedRes ret = rescache.get(id);
-	    if(ret != null)
-		return(ret);
-	    ret = new CachedRes(id);
-	    rescache.put(id, ret);
+	CachedRes ret = rescache.get(id);
+	if(ret != null)
 	    return(ret);
-	}
+	CachedRes nres = new CachedRes(id);
+	if(rescache.compareAndSet(id, null, nres))
+	    return(nres);
+	return(rescache.get(id));
     }
 
+    /* The same Indir is returned for every call with a given id, even
+     * across later rebindings of it. */
     public Indir<Resource> getres(int id) {
-	return(cachedres(id).get());
+	return(cachedres(id).ind);
+    }
+
+    void resid(int id, String name, int ver) {
+	cachedres(id).set(name, ver);
     }
 
     private class ObjAck {
@@ -188,7 +210,7 @@ public class Session implements Resource.Resolver {
     private class RWorker extends HackThread {
 	boolean alive;
 	int fragtype = -1;
-	byte[] fragbuf = null;
+	Defrag fragbuf = null;
 		
 	public RWorker() {
 	    super("Session reader");
@@ -196,22 +218,27 @@ public class Session implements Resource.Resolver {
 	}
 		
 	private void gotack(int seq) {
-	    synchronized(pending) {
-		for(ListIterator<RMessage> i = pending.listIterator(); i.hasNext(); ) {
-		    RMessage msg = i.next();
-		    if(msg.seq <= seq)
-			i.remove();
-		}
+	    synchronized(swnd) {
+		int n = Utils.floormod(seq - sbase, 65536);
+		if(n >= Utils.floormod(tseq - sbase, 65536))
+		    return;
+		/* Only messages sent once give unambiguous samples. */
+		RMessage msg = swnd[seq];
+		if(msg.retx == 1)
+		    stats.rtt(System.currentTimeMillis() - msg.last);
+		for(int i = 0; i <= n; i++)
+		    swnd[(sbase + i) % 65536] = null;
+		sbase = (seq + 1) % 65536;
 	    }
 	}
 		
 	private void getobjdata(Message msg) {
-	    OCache oc = glob.oc;
+	    boolean fresh = false;
 	    while(!msg.eom()) {
 		int fl = msg.uint8();
 		long id = msg.uint32();
 		int frame = msg.int32();
-		oc.receive(fl, id, frame, msg);
+		objdec.submit(fl, id, frame, msg);
 		synchronized(objacks) {
 		    if(objacks.containsKey(id)) {
 			ObjAck a = objacks.get(id);
@@ -220,11 +247,17 @@ public class Session implements Resource.Resolver {
 			a.recv = System.currentTimeMillis();
 		    } else {
 			objacks.put(id, new ObjAck(id, frame, System.currentTimeMillis()));
+			fresh = true;
 		    }
 		}
 	    }
-	    synchronized(sworker) {
-		sworker.notifyAll();
+	    /* Updates to objects already awaiting acknowledgement
+	     * never bring their deadlines forward. */
+	    if(fresh) {
+		synchronized(sworker) {
+		    sworker.objnew = true;
+		    sworker.notifyAll();
+		}
 	    }
 	}
 
@@ -234,18 +267,16 @@ public class Session implements Resource.Resolver {
 		if((head & 0x80) == 0) {
 		    if(fragbuf != null)
 			throw(new MessageException("Got start fragment while still defragmenting", msg));
-		    fragbuf = msg.bytes();
+		    fragbuf = new Defrag();
+		    fragbuf.append(msg);
 		    fragtype = head;
 		} else {
 		    if((head == 0x80) || (head == 0x81)) {
-			byte[] frag = msg.bytes();
-			byte[] curbuf = fragbuf;
-			byte[] newbuf = new byte[curbuf.length + frag.length];
-			System.arraycopy(curbuf, 0, newbuf, 0, curbuf.length);
-			System.arraycopy(frag, 0, newbuf, curbuf.length, frag.length);
-			fragbuf = newbuf;
+			if(fragbuf == null)
+			    throw(new MessageException("Got continuation fragment without a start fragment", msg));
+			fragbuf.append(msg);
 			if(head == 0x81) {
-			    PMessage nmsg = new PMessage(fragtype, fragbuf);
+			    PMessage nmsg = new PMessage(fragtype, fragbuf.msg());
 			    fragbuf = null;
 			    handlerel(nmsg);
 			}
@@ -255,9 +286,7 @@ public class Session implements Resource.Resolver {
 		}
 	    } else if((msg.type == RMessage.RMSG_NEWWDG) || (msg.type == RMessage.RMSG_WDGMSG) ||
 		      (msg.type == RMessage.RMSG_DSTWDG) || (msg.type == RMessage.RMSG_ADDWDG)) {
-		synchronized(uimsgs) {
-		    uimsgs.add(msg);
-		}
+		uimsgs.offer(msg);
 	    } else if(msg.type == RMessage.RMSG_MAPIV) {
 		glob.map.invalblob(msg);
 	    } else if(msg.type == RMessage.RMSG_GLOBLOB) {
@@ -266,7 +295,7 @@ public class Session implements Resource.Resolver {
 		int resid = msg.uint16();
 		String resname = msg.string();
 		int resver = msg.uint16();
-		cachedres(resid).set(resname, resver);
+		resid(resid, resname, resver);
 	    } else if(msg.type == RMessage.RMSG_PARTY) {
 		glob.party.msg(msg);
 	    } else if(msg.type == RMessage.RMSG_SFX) {
@@ -296,92 +325,50 @@ public class Session implements Resource.Resolver {
 	private void getrel(int seq, PMessage msg) {
 	    if(seq == rseq) {
 		int lastack;
-		synchronized(uimsgs) {
-		    handlerel(msg);
-		    while(true) {
-			rseq = ((lastack = rseq) + 1) % 65536;
-			if(!waiting.containsKey(rseq))
-			    break;
-			handlerel(waiting.get(rseq));
-			waiting.remove(rseq);
-		    }
+		handlerel(msg);
+		while(true) {
+		    rseq = ((lastack = rseq) + 1) % 65536;
+		    PMessage next = rwnd[rseq];
+		    if(next == null)
+			break;
+		    rwnd[rseq] = null;
+		    handlerel(next);
 		}
 		sendack(lastack);
-		synchronized(Session.this) {
-		    Session.this.notifyAll();
-		}
 	    } else if(Utils.floormod(seq - rseq, 65536) < 32768) {
-		waiting.put(seq, msg);
+		if(rwnd[seq] != null)
+		    stats.dups.incrementAndGet();
+		rwnd[seq] = msg;
+	    } else {
+		stats.dups.incrementAndGet();
 	    }
 	}
 		
 	public void run() {
 	    try {
 		alive = true;
-		try {
-		    sk.setSoTimeout(1000);
-		} catch(SocketException e) {
-		    throw(new RuntimeException(e));
-		}
 		while(alive) {
-		    DatagramPacket p = new DatagramPacket(new byte[65536], 65536);
+		    PMessage msg;
 		    try {
-			sk.receive(p);
+			msg = tr.recv();
 		    } catch(java.nio.channels.ClosedByInterruptException e) {
 			/* Except apparently Sun's J2SE doesn't throw this when interrupted :P*/
 			break;
-		    } catch(SocketTimeoutException e) {
-			continue;
 		    } catch(IOException e) {
 			throw(new RuntimeException(e));
 		    }
-		    if(!p.getSocketAddress().equals(server))
+		    if(pendcap != null)
+			startcap();
+		    if(msg == null)
 			continue;
-		    PMessage msg = new PMessage(p.getData()[0], p.getData(), 1, p.getLength() - 1);
-		    if(msg.type == MSG_SESS) {
-			if(state == "conn") {
-			    int error = msg.uint8();
-			    synchronized(Session.this) {
-				if(error == 0) {
-				    state = "";
-				} else {
-				    connfailed = error;
-				    Session.this.close();
-				}
-				Session.this.notifyAll();
-			    }
-			}
-		    }
-		    if(state != "conn") {
-			if(msg.type == MSG_SESS) {
-			} else if(msg.type == MSG_REL) {
-			    int seq = msg.uint16();
-			    while(!msg.eom()) {
-				int type = msg.uint8();
-				if((type & 0x80) != 0) {
-				    type &= 0x7f;
-				    int len = msg.uint16();
-				    getrel(seq, new PMessage(type, msg.bytes(len)));
-				} else {
-				    getrel(seq, new PMessage(type, msg.bytes()));
-				}
-				seq++;
-			    }
-			} else if(msg.type == MSG_ACK) {
-			    gotack(msg.uint16());
-			} else if(msg.type == MSG_MAPDATA) {
-			    glob.map.mapdata(msg);
-			} else if(msg.type == MSG_OBJDATA) {
-			    getobjdata(msg);
-			} else if(msg.type == MSG_CLOSE) {
-			    synchronized(Session.this) {
-				state = "fin";
-				Session.this.notifyAll();
-			    }
-			    Session.this.close();
-			} else {
-			    throw(new MessageException("Unknown message type: " + msg.type, msg));
-			}
+		    stats.in.count(msg.type, msg.rem() + 1);
+		    Capture.Writer cap = capture;
+		    if(cap != null)
+			cap.record(msg);
+		    try {
+			handlemsg(msg);
+		    } finally {
+			tr.release(msg);
 		    }
 		}
 	    } finally {
@@ -389,6 +376,80 @@ public class Session implements Resource.Resolver {
 		    state = "dead";
 		    Session.this.notifyAll();
 		}
+		uimsgs.wake();
+		tr.close();
+		capture(null);
+		statdump(null, 0);
+		glob.oc.statdump(null, 0);
+		objdec.stop();
+	    }
+	}
+
+	private void startcap() {
+	    Capture.Writer cap = pendcap;
+	    cap.header(state == "conn", rseq);
+	    for(int i = 0; i < rescache.length(); i++) {
+		CachedRes res = rescache.get(i);
+		if(res == null)
+		    continue;
+		synchronized(res) {
+		    if(res.resnm != null)
+			cap.resid(res.resid, res.resnm, res.resver);
+		}
+	    }
+	    cap.begin();
+	    capture = cap;
+	    pendcap = null;
+	}
+
+	private void handlemsg(PMessage msg) {
+	    if(msg.type == MSG_SESS) {
+		if(state == "conn") {
+		    int error = msg.uint8();
+		    synchronized(Session.this) {
+			if(error == 0) {
+			    state = "";
+			} else {
+			    connfailed = error;
+			    Session.this.close();
+			}
+			Session.this.notifyAll();
+		    }
+		}
+	    }
+	    if(state != "conn") {
+		if(msg.type == MSG_SESS) {
+		} else if(msg.type == MSG_REL) {
+		    int seq = msg.uint16();
+		    while(!msg.eom()) {
+			int type = msg.uint8();
+			PMessage rmsg;
+			if((type & 0x80) != 0) {
+			    type &= 0x7f;
+			    int len = msg.uint16();
+			    rmsg = new PMessage(type, msg.bytes(len));
+			} else {
+			    rmsg = new PMessage(type, msg.bytes());
+			}
+			stats.rin.count(type, rmsg.rem());
+			getrel(seq, rmsg);
+			seq++;
+		    }
+		} else if(msg.type == MSG_ACK) {
+		    gotack(msg.uint16());
+		} else if(msg.type == MSG_MAPDATA) {
+		    glob.map.mapdata(msg);
+		} else if(msg.type == MSG_OBJDATA) {
+		    getobjdata(msg);
+		} else if(msg.type == MSG_CLOSE) {
+		    synchronized(Session.this) {
+			state = "fin";
+			Session.this.notifyAll();
+		    }
+		    Session.this.close();
+		} else {
+		    throw(new MessageException("Unknown message type: " + msg.type, msg));
+		}
 	    }
 	}
 		
@@ -399,15 +460,51 @@ public class Session implements Resource.Resolver {
     }
 
     private class SWorker extends HackThread {
+	private final List<RMessage> retx = new ArrayList<>();
+	/* Guarded by this worker's monitor. objnew is raised by the
+	 * reader when an object arrives that has not yet been
+	 * acknowledged, which is always due at once. */
+	private boolean objnew = false;
+	private long objackdue = Long.MAX_VALUE;
 		
 	public SWorker() {
 	    super("Session writer");
 	    setDaemon(true);
 	}
 		
+	/* Sends the given reliable messages, which must be ordered
+	 * by sequence number, packing runs of consecutive ones into
+	 * shared datagrams. */
+	private void sendrel(List<RMessage> msgs) {
+	    for(int i = 0; i < msgs.size();) {
+		int n = 1, sz = 3 + msgs.get(i).size();
+		while(i + n < msgs.size()) {
+		    RMessage msg = msgs.get(i + n);
+		    if((msg.seq != (msgs.get(i + n - 1).seq + 1) % 65536) || (sz + 3 + msg.size() > maxdgram))
+			break;
+		    sz += 3 + msg.size();
+		    n++;
+		}
+		PMessage dgram = new PMessage(MSG_REL);
+		dgram.adduint16(msgs.get(i).seq);
+		for(int o = 0; o < n; o++) {
+		    RMessage msg = msgs.get(i + o);
+		    if(o < n - 1) {
+			dgram.adduint8(msg.type | 0x80);
+			dgram.adduint16(msg.size());
+		    } else {
+			dgram.adduint8(msg.type);
+		    }
+		    dgram.addbytes(msg.fin());
+		}
+		sendmsg(dgram);
+		i += n;
+	    }
+	}
+		
 	public void run() {
 	    try {
-		long to, last = 0, retries = 0;
+		long last = 0, retries = 0;
 		while(true) {
 					
 		    long now = System.currentTimeMillis();
@@ -436,23 +533,29 @@ public class Session implements Resource.Resolver {
 			}
 			Thread.sleep(100);
 		    } else {
-			to = 5000;
-			synchronized(pending) {
-			    if(pending.size() > 0)
-				to = 60;
-			}
-			synchronized(objacks) {
-			    if((objacks.size() > 0) && (to > 120))
-				to = 200;
-			}
+			long next = lastsend + 5000;
 			synchronized(this) {
+			    /* Checked under this lock so that a deadline
+			     * added after the check cannot have its
+			     * notification missed. */
+			    synchronized(swnd) {
+				RMessage msg = nextretx();
+				if(msg != null)
+				    next = Math.min(next, msg.due);
+			    }
 			    if(acktime > 0)
-				to = acktime + ackthresh - now;
+				next = Math.min(next, acktime + ackthresh);
+			    next = objnew ? 0 : Math.min(next, objackdue);
+			    long to = next - System.currentTimeMillis();
 			    if(to > 0)
 				this.wait(to);
+			    objnew = false;
 			}
+			stats.wakeups.incrementAndGet();
 			now = System.currentTimeMillis();
-			boolean beat = true;
+			/* Everything due within the tick is sent now,
+			 * so that it can share datagrams. */
+			long tick = now + sendtick;
 			/*
 			  if((closing != -1) && (now - closing > 500)) {
 			  Message cm = new Message(MSG_CLOSE);
@@ -462,48 +565,37 @@ public class Session implements Resource.Resolver {
 			  getThreadGroup().interrupt();
 			  }
 			*/
-			synchronized(pending) {
-			    if(pending.size() > 0) {
-				for(RMessage msg : pending) {
-				    int txtime;
-				    if(msg.retx == 0)
-					txtime = 0;
-				    else if(msg.retx == 1)
-					txtime = 80;
-				    else if(msg.retx < 4)
-					txtime = 200;
-				    else if(msg.retx < 10)
-					txtime = 620;
-				    else
-					txtime = 2000;
-				    if(now - msg.last > txtime) { /* XXX */
-					msg.last = now;
-					msg.retx++;
-					PMessage rmsg = new PMessage(MSG_REL);
-					rmsg.adduint16(msg.seq);
-					rmsg.adduint8(msg.type);
-					rmsg.addbytes(msg.fin());
-					sendmsg(rmsg);
-				    }
-				}
-				beat = false;
+			synchronized(swnd) {
+			    RMessage msg;
+			    while(((msg = nextretx()) != null) && (msg.due <= tick)) {
+				retxq.poll();
+				msg.last = now;
+				if(++msg.retx > 1)
+				    stats.retx.incrementAndGet();
+				msg.due = now + retxdelay(msg.retx);
+				retxq.add(msg);
+				retx.add(msg);
 			    }
+			    int base = sbase;
+			    retx.sort(Comparator.comparingInt(m -> Utils.floormod(m.seq - base, 65536)));
 			}
+			sendrel(retx);
+			retx.clear();
 			synchronized(objacks) {
 			    PMessage msg = null;
+			    long due = Long.MAX_VALUE;
 			    for(Iterator<ObjAck> i = objacks.values().iterator(); i.hasNext();) {
 				ObjAck a = i.next();
 				boolean send = false, del = false;
-				if(now - a.sent > 200)
+				if(a.sent + 200 <= tick)
 				    send = true;
-				if(now - a.recv > 120)
+				if(a.recv + 120 <= tick)
 				    send = del = true;
 				if(send) {
 				    if(msg == null) {
 					msg = new PMessage(MSG_OBJACK);
-				    } else if(msg.size() > 1000 - 8) {
+				    } else if(msg.size() > maxdgram - 8) {
 					sendmsg(msg);
-					beat = false;
 					msg = new PMessage(MSG_OBJACK);
 				    }
 				    msg.adduint32(a.id);
@@ -512,27 +604,27 @@ public class Session implements Resource.Resolver {
 				}
 				if(del)
 				    i.remove();
+				else
+				    due = Math.min(due, Math.min(a.sent + 200, a.recv + 120));
 			    }
-			    if(msg != null) {
+			    if(msg != null)
 				sendmsg(msg);
-				beat = false;
+			    synchronized(this) {
+				objackdue = due;
 			    }
 			}
 			synchronized(this) {
-			    if((acktime > 0) && (now - acktime >= ackthresh)) {
+			    if((acktime > 0) && (acktime + ackthresh <= tick)) {
 				byte[] msg = {MSG_ACK, 0, 0};
 				Utils.uint16e(ackseq, msg, 1);
 				sendmsg(msg);
 				acktime = -1;
-				beat = false;
-			    }
-			}
-			if(beat) {
-			    if(now - last > 5000) {
-				sendmsg(new byte[] {MSG_BEAT});
-				last = now;
 			    }
 			}
+			/* Any datagram keeps the session alive, so beats
+			 * are only needed after a silent interval. */
+			if(lastsend + 5000 <= tick)
+			    sendmsg(new byte[] {MSG_BEAT});
 		    }
 		}
 	    } catch(InterruptedException e) {
@@ -559,23 +651,57 @@ public class Session implements Resource.Resolver {
 	}
     }
 
-    public Session(SocketAddress server, String username, byte[] cookie, Object... args) {
-	this.server = server;
+    public Session(Transport tr, String username, byte[] cookie, Object... args) {
+	this.tr = tr;
 	this.username = username;
 	this.cookie = cookie;
 	this.args = args;
 	glob = new Glob(this);
-	try {
-	    sk = new DatagramSocket();
-	} catch(SocketException e) {
-	    throw(new RuntimeException(e));
-	}
+	objdec = new ObjDecoder(glob.oc, Config.odthreads);
+	tr.attach(this);
 	rworker = new RWorker();
 	rworker.start();
 	sworker = new SWorker();
 	sworker.start();
     }
 
+    public Session(SocketAddress server, String username, byte[] cookie, Object... args) {
+	this(Transport.open(server), username, cookie, args);
+	if(Config.netcap != null) {
+	    String fn = String.format("%s-%tY%<tm%<td-%<tH%<tM%<tS.hcap", username, new Date());
+	    try {
+		capture(new Capture.Writer(new File(Config.netcap, fn)));
+	    } catch(IOException e) {
+		e.printStackTrace();
+	    }
+	}
+	if(Config.netstats != null)
+	    statdump(new File(Config.netstats), Config.netstatsint);
+	if(Config.gobstats != null)
+	    glob.oc.statdump(new File(Config.gobstats), Config.gobstatsint);
+    }
+
+    /* Must be called with swnd locked. */
+    private RMessage nextretx() {
+	RMessage msg;
+	while(((msg = retxq.peek()) != null) && (swnd[msg.seq] != msg))
+	    retxq.poll();
+	return(msg);
+    }
+
+    private static long retxdelay(int retx) {
+	if(retx == 0)
+	    return(0);
+	else if(retx == 1)
+	    return(80);
+	else if(retx < 4)
+	    return(200);
+	else if(retx < 10)
+	    return(620);
+	else
+	    return(2000);
+    }
+
     private void sendack(int seq) {
 	synchronized(sworker) {
 	    if(acktime < 0)
@@ -589,28 +715,57 @@ public class Session implements Resource.Resolver {
 	sworker.interrupt();
     }
 
+    /* Recording starts with the next datagram handled by the reader,
+     * so that the header reflects the session state at that point. */
+    public void capture(Capture.Writer cap) {
+	Capture.Writer old;
+	synchronized(this) {
+	    old = (pendcap != null) ? pendcap : capture;
+	    capture = null;
+	    pendcap = cap;
+	}
+	if(old != null)
+	    old.close();
+    }
+
+    public void statdump(File file, int interval) {
+	NetStats.Dumper old;
+	synchronized(this) {
+	    old = statdump;
+	    statdump = (file == null) ? null : stats.new Dumper(file, interval);
+	    if(statdump != null)
+		statdump.start();
+	}
+	if(old != null)
+	    old.interrupt();
+    }
+
     public synchronized boolean alive() {
 	return(state != "dead");
     }
 
     public void queuemsg(PMessage pmsg) {
 	RMessage msg = new RMessage(pmsg);
-	msg.seq = tseq;
-	tseq = (tseq + 1) % 65536;
-	synchronized(pending) {
-	    pending.add(msg);
+	stats.rout.count(msg.type, msg.size());
+	synchronized(swnd) {
+	    msg.seq = tseq;
+	    tseq = (tseq + 1) % 65536;
+	    swnd[msg.seq] = msg;
+	    retxq.add(msg);
 	}
 	synchronized(sworker) {
 	    sworker.notify();
 	}
     }
 
+    /* UI messages have a single consumer, which may block in
+     * awaituimsg() until more arrive. */
     public PMessage getuimsg() {
-	synchronized(uimsgs) {
-	    if(uimsgs.size() == 0)
-		return(null);
-	    return(uimsgs.remove());
-	}
+	return(uimsgs.poll());
+    }
+
+    public boolean awaituimsg(long timeout) throws InterruptedException {
+	return(uimsgs.await(timeout));
     }
 
     public void sendmsg(PMessage msg) {
@@ -621,9 +776,65 @@ public class Session implements Resource.Resolver {
     }
 
     public void sendmsg(byte[] msg) {
+	Capture.Writer cap = capture;
+	if(cap != null)
+	    cap.record(Capture.DIR_OUT, msg, 0, msg.length);
+	lastsend = System.currentTimeMillis();
+	stats.out.count(msg[0], msg.length);
 	try {
-	    sk.send(new DatagramPacket(msg, msg.length, server));
+	    tr.send(msg, 0, msg.length);
 	} catch(IOException e) {
 	}
     }
+
+    private final Map<String, Console.Command> cmdmap = new TreeMap<String, Console.Command>();
+    {
+	cmdmap.put("netcap", (cons, args) -> {
+		if((args.length < 2) || args[1].equals("off")) {
+		    Capture.Writer cap = capture;
+		    capture(null);
+		    if(cap != null)
+			cons.out.println("Stopped " + cap);
+		} else {
+		    capture(new Capture.Writer(new File(args[1])));
+		}
+	    });
+	cmdmap.put("netstats", (cons, args) -> {
+		if(args.length < 2) {
+		    stats.dump(cons.out);
+		    cons.out.println(Session.this.objdec);
+		} else if(args[1].equals("reset")) {
+		    stats.reset();
+		    Session.this.objdec.reset();
+		} else if(args[1].equals("dump")) {
+		    if((args.length < 3) || args[2].equals("off"))
+			statdump(null, 0);
+		    else
+			statdump(new File(args[2]), (args.length > 3) ? Integer.parseInt(args[3]) : Config.netstatsint);
+		} else {
+		    throw(new Exception("usage: netstats [reset|dump FILE [SECS]|dump off]"));
+		}
+	    });
+	cmdmap.put("gobstats", (cons, args) -> {
+		GobStats gs = Session.this.glob.oc.stats;
+		if(args.length < 2) {
+		    gs.report(cons.out, gs.snapshot(), null, 20);
+		} else if(args[1].equals("reset")) {
+		    gs.reset();
+		} else if(args[1].equals("dump")) {
+		    if((args.length < 3) || args[2].equals("off"))
+			Session.this.glob.oc.statdump(null, 0);
+		    else
+			Session.this.glob.oc.statdump(new File(args[2]), (args.length > 3) ? Integer.parseInt(args[3]) : Config.gobstatsint);
+		} else {
+		    throw(new Exception("usage: gobstats [reset|dump FILE [SECS]|dump off]"));
+		}
+	    });
+	cmdmap.put("mapmem", (cons, args) -> {
+		Session.this.glob.map.memreport(cons.out);
+	    });
+    }
+    public Map<String, Console.Command> findcmds() {
+	return(cmdmap);
+    }
 }
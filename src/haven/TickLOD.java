@@ -0,0 +1,114 @@
+package haven;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/*
+ * Decides, for each gob and frame, whether the gob is ticked or has
+ * its tick deferred, so that far-off gobs which nobody looks at do not
+ * cost as much as those around the player. Gobs within Config.lodnear
+ * of the focus, those without a known position and those pinned by
+ * the map view are ticked every frame. Farther gobs are ticked every
+ * second frame while on screen, and off screen at an interval
+ * doubling with each doubling of distance, up to Config.lodmax
+ * frames. Deferred time is accumulated, so a tick passes all of it on
+ * at once. Intervals are powers of two and staggered by gob id, so
+ * that each frame takes an even share of the deferred ticks.
+ */
+public class TickLOD {
+    private volatile Focus focus = null;
+    private int frame = 0;
+    private final AtomicInteger nticked = new AtomicInteger(), nskipped = new AtomicInteger();
+    public volatile int ticked, skipped;
+    public final AtomicLong tticked = new AtomicLong(), tskipped = new AtomicLong();
+
+    private static class Focus {
+	final Coord2d c;
+	final float z;
+	final Matrix4f clip;
+	final Set<Long> pinned;
+
+	Focus(Coord3f c, Matrix4f clip, Set<Long> pinned) {
+	    this.c = new Coord2d(c.x, c.y);
+	    this.z = c.z;
+	    this.clip = clip;
+	    this.pinned = pinned;
+	}
+    }
+
+    /* Called by the map view each frame with the point to measure
+     * distances from, the combined projection and view matrix of its
+     * camera (or null when unknown, in which case nothing is counted
+     * as on screen), and the ids of gobs to always tick. */
+    public void focus(Coord3f c, Matrix4f clip, Set<Long> pinned) {
+	this.focus = (c == null) ? null : new Focus(c, clip, pinned);
+    }
+
+    private static boolean onscreen(Focus f, Coord2d c) {
+	if(f.clip == null)
+	    return(false);
+	float[] m = f.clip.m;
+	float x = (float)c.x, y = -(float)c.y, z = f.z;
+	float cx = (m[0] * x) + (m[4] * y) + (m[ 8] * z) + m[12];
+	float cy = (m[1] * x) + (m[5] * y) + (m[ 9] * z) + m[13];
+	float cw = (m[3] * x) + (m[7] * y) + (m[11] * z) + m[15];
+	/* A margin of a fifth of the screen, for the extent of the gob
+	 * itself and for the height ignored here. */
+	cw *= 1.2f;
+	return((cw > 0) && (cx > -cw) && (cx < cw) && (cy > -cw) && (cy < cw));
+    }
+
+    /* The number of frames between ticks of the given gob, which is
+     * always a power of two. */
+    public int interval(Gob gob) {
+	Focus f = this.focus;
+	Coord2d c = gob.gridc;
+	if(!Config.ticklod || (f == null) || (c == null) || (gob.gridslot < 0) || f.pinned.contains(gob.id))
+	    return(1);
+	double near = Config.lodnear * MCache.tilesz.x;
+	double d = c.dist(f.c);
+	if(d <= near)
+	    return(1);
+	int max = Integer.highestOneBit(Math.max(Config.lodmax, 1));
+	if(onscreen(f, c))
+	    return(Math.min(2, max));
+	int n = Math.min(2, max);
+	for(double r = near * 2; (d > r) && (n < max); r *= 2)
+	    n *= 2;
+	return(n);
+    }
+
+    public void begin() {
+	frame++;
+	nticked.set(0);
+	nskipped.set(0);
+    }
+
+    /* Returns the time to tick the gob with this frame, or a negative
+     * value if its tick is to be deferred. Must be called with the gob
+     * locked. */
+    public double dt(Gob gob, double dt) {
+	int n = interval(gob);
+	if((n > 1) && (((frame + (int)gob.id) & (n - 1)) != 0)) {
+	    gob.lodacc += dt;
+	    gob.lodskip = true;
+	    nskipped.incrementAndGet();
+	    return(-1);
+	}
+	dt += gob.lodacc;
+	gob.lodacc = 0;
+	gob.lodskip = false;
+	nticked.incrementAndGet();
+	return(dt);
+    }
+
+    public void end() {
+	tticked.addAndGet(ticked = nticked.get());
+	tskipped.addAndGet(skipped = nskipped.get());
+    }
+
+    public String stats() {
+	long t = tticked.get(), s = tskipped.get();
+	return(String.format("%d ticked, %d deferred (%.1f%% total deferred)", ticked, skipped, (100.0 * s) / Math.max(t + s, 1)));
+    }
+}
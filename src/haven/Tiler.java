@@ -46,6 +46,10 @@ public abstract class Tiler {
 	public float[] tcx, tcy;
 	public int[] f;
 	public Pipe.Op mat = null;
+	/* Which mat the part was given, for Tiler.refmat of the tiler
+	 * that gave it; 0 with a mat keeps the models laid from the
+	 * part off disk. */
+	public int matref = 0;
 
 	public MPart(Coord lc, Coord gc, Surface.Vertex[] v, float[] tcx, float[] tcy, int[] f) {
 	    this.lc = lc; this.gc = gc; this.v = v; this.tcx = tcx; this.tcy = tcy; this.f = f;
@@ -212,6 +216,14 @@ public abstract class Tiler {
     }
 
     public abstract void lay(MapMesh m, Random rnd, Coord lc, Coord gc);
+
+    /* Makes again the material of a model this tiler marked with
+     * MapMesh.Model.ref, when MeshCache loads its geometry from
+     * disk, or returns null if it cannot. */
+    public NodeWrap refmat(int matref, int[] ref) {
+	return(null);
+    }
+
     public abstract void trans(MapMesh m, Random rnd, Tiler gt, Coord lc, Coord gc, int z, int bmask, int cmask);
     
     public Pipe.Op drawstate(Glob glob, Coord3f c) {
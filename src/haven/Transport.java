@@ -0,0 +1,193 @@
+package haven;
+
+import java.net.*;
+import java.io.*;
+import java.util.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.Selector;
+import java.nio.channels.SelectionKey;
+
+/*
+ * The datagram layer underneath a Session. recv() returns null when
+ * nothing (from the server) arrived within the poll interval, and
+ * every message it does return must be handed back to release() once
+ * the reader is done with it, since it may be a view over a reused
+ * buffer.
+ */
+public abstract class Transport {
+    public abstract PMessage recv() throws IOException;
+    public abstract void send(byte[] buf, int off, int len) throws IOException;
+    public abstract SocketAddress local();
+    public abstract void close();
+
+    public void release(PMessage msg) {
+    }
+
+    protected void attach(Session sess) {
+    }
+
+    public static Transport open(SocketAddress server) {
+	if(Config.niotransport)
+	    return(new Channel(server));
+	return(new Datagram(server));
+    }
+
+    public static class Datagram extends Transport {
+	public final DatagramSocket sk;
+	public final SocketAddress server;
+
+	public Datagram(SocketAddress server) {
+	    this.server = server;
+	    try {
+		sk = new DatagramSocket();
+		sk.setSoTimeout(1000);
+	    } catch(SocketException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+
+	public PMessage recv() throws IOException {
+	    DatagramPacket p = new DatagramPacket(new byte[65536], 65536);
+	    try {
+		sk.receive(p);
+	    } catch(SocketTimeoutException e) {
+		return(null);
+	    }
+	    if(!p.getSocketAddress().equals(server) || (p.getLength() < 1))
+		return(null);
+	    return(new PMessage(p.getData()[0], p.getData(), 1, p.getLength() - 1));
+	}
+
+	public void send(byte[] buf, int off, int len) throws IOException {
+	    sk.send(new DatagramPacket(buf, off, len, server));
+	}
+
+	public SocketAddress local() {
+	    return(sk.getLocalSocketAddress());
+	}
+
+	public void close() {
+	    sk.close();
+	}
+
+	public String toString() {
+	    return("#<socket " + sk.getLocalPort() + " -> " + server + ">");
+	}
+    }
+
+    /* Receives through a non-blocking DatagramChannel straight into
+     * a small pool of reused heap buffers. The messages handed out
+     * are views over those buffers, so nothing is allocated per
+     * packet as long as the reader releases what it gets. Direct
+     * buffers would only add a copy, since Message decodes from a
+     * byte array. */
+    public static class Channel extends Transport {
+	public static final int maxpool = 16;
+	public final DatagramChannel ch;
+	public final SocketAddress server;
+	private final Selector sel;
+	private final Deque<Packet> free = new ArrayDeque<>();
+	private int allocated = 0;
+
+	private static class Packet extends PMessage {
+	    final ByteBuffer buf;
+
+	    Packet() {
+		super(0, new byte[65536], 1, 0);
+		buf = ByteBuffer.wrap(rbuf);
+	    }
+
+	    void reset(int len) {
+		type = rbuf[0];
+		rh = 1;
+		rt = len;
+	    }
+	}
+
+	public Channel(SocketAddress server) {
+	    this.server = server;
+	    try {
+		ch = DatagramChannel.open();
+		ch.bind(null);
+		ch.configureBlocking(false);
+		sel = Selector.open();
+		ch.register(sel, SelectionKey.OP_READ);
+	    } catch(IOException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+
+	private Packet take() {
+	    synchronized(free) {
+		Packet ret = free.poll();
+		if(ret != null)
+		    return(ret);
+		allocated++;
+	    }
+	    return(new Packet());
+	}
+
+	public void release(PMessage msg) {
+	    if(!(msg instanceof Packet))
+		return;
+	    synchronized(free) {
+		if(free.size() < maxpool)
+		    free.push((Packet)msg);
+	    }
+	}
+
+	public PMessage recv() throws IOException {
+	    Packet p = take();
+	    p.buf.clear();
+	    SocketAddress from;
+	    while((from = ch.receive(p.buf)) == null) {
+		/* The selector is woken by interrupts as well, and
+		 * the reader checks its own liveness on a null
+		 * return, so there is no need to tell the two apart
+		 * here. */
+		if(sel.select(1000) == 0) {
+		    release(p);
+		    return(null);
+		}
+		sel.selectedKeys().clear();
+	    }
+	    if(!from.equals(server) || (p.buf.position() < 1)) {
+		release(p);
+		return(null);
+	    }
+	    p.reset(p.buf.position());
+	    return(p);
+	}
+
+	public void send(byte[] buf, int off, int len) throws IOException {
+	    ch.send(ByteBuffer.wrap(buf, off, len), server);
+	}
+
+	public SocketAddress local() {
+	    try {
+		return(ch.getLocalAddress());
+	    } catch(IOException e) {
+		return(null);
+	    }
+	}
+
+	public void close() {
+	    try {
+		sel.close();
+		ch.close();
+	    } catch(IOException e) {
+	    }
+	}
+
+	public int allocated() {
+	    synchronized(free) {
+		return(allocated);
+	    }
+	}
+
+	public String toString() {
+	    return("#<channel " + local() + " -> " + server + ", " + allocated() + " buffers>");
+	}
+    }
+}
@@ -153,6 +153,7 @@ public class UI {
     	this.sess = sess;
         if(sess != null){
           this.sess.glob.ui = this;
+          cons.add(sess);
         }
     }
 
@@ -223,43 +224,62 @@ public class UI {
                 f = Widget.gettype2("inv-belt");
 
     	    Widget wdg = f.create(this, cargs); //null NullPointerException
-    	    wdg.attach(this);
-    	    if(parent != 65535) {
-        		Widget pwdg = getwidget(parent);
-        		if(pwdg == null)
-        		    throw(new UIException("Null parent widget " + parent + " for " + id, type, cargs));
-        		pwdg.addchild(wdg, pargs);
-
-                if (pwdg instanceof Window) {
-                    // here be horrors... FIXME
-                    GameUI gui = null;
-                    for (Widget w : rwidgets.keySet()) {
-                        if (w instanceof GameUI) {
-                            gui = (GameUI) w;
-                            break;
-                        }
-                    }
-                    processWindowContent(parent, gui, (Window) pwdg, wdg);
-                }
-    	    } else {
-                if (wdg instanceof Window) {
-                    // here be horrors... FIXME
-                    GameUI gui = null;
-                    for (Widget w : rwidgets.keySet()) {
-                        if (w instanceof GameUI) {
-                            gui = (GameUI) w;
-                            break;
-                        }
-                    }
-                    processWindowCreation(id, gui, (Window) wdg);
-                }
-            }
-    	    bind(wdg, id);
-            if(type.contains("rchan"))
-              realmchat = wdg;
+    	    place(id, type, parent, pargs, wdg);
     	}
     }
 
+    /* Creates the widget straight from its undecoded arguments,
+     * unless the belt hack needs to look at them first. */
+    public void newwidget(int id, String type, int parent, Object[] pargs, Message.Cursor cargs) throws InterruptedException {
+	if(Config.quickbelt && type.equals("wnd")) {
+	    newwidget(id, type, parent, pargs, cargs.rest());
+	    return;
+	}
+	Widget.Factory f = Widget.gettype2(type);
+	synchronized(this) {
+	    if(parent == beltWndId)
+		f = Widget.gettype2("inv-belt");
+	    place(id, type, parent, pargs, f.create(this, cargs));
+	}
+    }
+
+    private void place(int id, String type, int parent, Object[] pargs, Widget wdg) {
+	wdg.attach(this);
+	if(parent != 65535) {
+	    Widget pwdg = getwidget(parent);
+	    if(pwdg == null)
+		throw(new UIException("Null parent widget " + parent + " for " + id, type, pargs));
+	    pwdg.addchild(wdg, pargs);
+
+	    if (pwdg instanceof Window) {
+		// here be horrors... FIXME
+		GameUI gui = null;
+		for (Widget w : rwidgets.keySet()) {
+		    if (w instanceof GameUI) {
+			gui = (GameUI) w;
+			break;
+		    }
+		}
+		processWindowContent(parent, gui, (Window) pwdg, wdg);
+	    }
+	} else {
+	    if (wdg instanceof Window) {
+		// here be horrors... FIXME
+		GameUI gui = null;
+		for (Widget w : rwidgets.keySet()) {
+		    if (w instanceof GameUI) {
+			gui = (GameUI) w;
+			break;
+		    }
+		}
+		processWindowCreation(id, gui, (Window) wdg);
+	    }
+	}
+	bind(wdg, id);
+	if(type.contains("rchan"))
+	    realmchat = wdg;
+    }
+
     public void addwidget(int id, int parent, Object[] pargs) {
     	synchronized(this) {
     	    Widget wdg = getwidget(id);
@@ -409,6 +429,23 @@ public class UI {
 
     public void uimsg(int id, String msg, Object... args) {
     	Widget wdg = getwidget(id);
+    	notemsg(id, msg, wdg);
+    	if(wdg != null)
+    	    wdg.uimsg(msg.intern(), args);
+    	else
+    	    throw(new UIException("Uimsg to non-existent widget " + id, msg, args));
+    }
+
+    public void uimsg(int id, String msg, Message.Cursor args) {
+	Widget wdg = getwidget(id);
+	notemsg(id, msg, wdg);
+	if(wdg != null)
+	    wdg.uimsg(msg.intern(), args);
+	else
+	    throw(new UIException("Uimsg to non-existent widget " + id, msg, args.rest()));
+    }
+
+    private void notemsg(int id, String msg, Widget wdg) {
         if(realmchat != null){
             if(id == realmchat.wdgid()){
                 // System.out.println(msg);
@@ -420,10 +457,6 @@ public class UI {
                 }
             }
         }
-    	if(wdg != null)
-    	    wdg.uimsg(msg.intern(), args);
-    	else
-    	    throw(new UIException("Uimsg to non-existent widget " + id, msg, args));
     }
 
     private void setmods(InputEvent ev) {
@@ -142,6 +142,12 @@ public class Widget {
     @Resource.PublishedCode(name = "wdg", instancer = FactMaker.class)
     public interface Factory {
 	    public Widget create(UI ui, Object[] par);
+
+	    /* Factories that can read their arguments in place may
+	     * override this to avoid decoding them into an array. */
+	    public default Widget create(UI ui, Message.Cursor par) {
+		return(create(ui, par.rest()));
+	    }
     }
 
     public static class FactMaker implements Resource.PublishedCode.Instancer {
@@ -630,6 +636,13 @@ public class Widget {
 	this.focustab = focustab;
     }
 
+    /* Receives a message with its arguments still in the message,
+     * for widgets that want to read them without boxing. The rest
+     * get them decoded into an array. */
+    public void uimsg(String msg, Message.Cursor args) {
+	uimsg(msg, args.rest());
+    }
+
     public void uimsg(String msg, Object... args) {
 	if(msg == "tabfocus") {
 	    setfocustab(((Integer)args[0] != 0));
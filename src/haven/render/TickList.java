@@ -28,6 +28,7 @@ package haven.render;
 
 import java.util.*;
 import java.util.function.*;
+import java.util.concurrent.atomic.*;
 import haven.Config;
 
 public class TickList implements RenderList<TickList.TickNode> {
@@ -38,6 +39,7 @@ public class TickList implements RenderList<TickList.TickNode> {
 	final Object mon;
 	int rc = 0;
 	Object users = null;
+	double acc = 0;
 
 	public Entry(Ticking tick, Object mon) {
 	    this.tick = tick;
@@ -94,6 +96,16 @@ public class TickList implements RenderList<TickList.TickNode> {
 	public Ticking ticker();
     }
 
+    /* A monitor object which may ask for the ticks of the nodes it
+     * guards to be deferred for a frame. The deferred time is passed
+     * on with the next tick that is not. */
+    public static interface Throttled {
+	public boolean throttled();
+    }
+
+    /* Counts of the entries ticked and deferred by the last tick. */
+    public volatile int ticked, skipped;
+
     public void add(Slot<? extends TickNode> slot) {
 	Ticking tick = slot.obj().ticker();
 	synchronized(cur) {
@@ -127,12 +139,20 @@ public class TickList implements RenderList<TickList.TickNode> {
 	synchronized(cur) {
 	    copy = new ArrayList<>(cur.values());
 	}
+	AtomicInteger nskipped = new AtomicInteger(0);
 	Consumer<Entry> task = ent -> {
 	    if(ent.mon == null) {
 		ent.tick.autotick(dt);
 	    } else {
 		synchronized(ent.mon) {
-		    ent.tick.autotick(dt);
+		    if((ent.mon instanceof Throttled) && ((Throttled)ent.mon).throttled()) {
+			ent.acc += dt;
+			nskipped.incrementAndGet();
+			return;
+		    }
+		    double edt = dt + ent.acc;
+		    ent.acc = 0;
+		    ent.tick.autotick(edt);
 		}
 	    }
 	};
@@ -140,6 +160,8 @@ public class TickList implements RenderList<TickList.TickNode> {
 	    copy.forEach(task);
 	else
 	    copy.parallelStream().forEach(task);
+	skipped = nskipped.get();
+	ticked = copy.size() - skipped;
     }
 
     public void gtick(Render g) {
@@ -30,6 +30,7 @@ import java.util.*;
 import haven.*;
 import haven.MapMesh.Scan;
 import haven.Surface.Vertex;
+import haven.render.NodeWrap;
 
 public class CaveTile extends Tiler {
     public static final float h = 16;
@@ -117,7 +118,7 @@ public class CaveTile extends Tiler {
 
     private void mkwall(MapMesh m, Walls w, Coord ltc, Coord rtc) {
 	Vertex[] lw = w.fortile(ltc), rw = w.fortile(rtc);
-	MapMesh.Model mod = MapMesh.Model.get(m, wtex);
+	MapMesh.Model mod = MapMesh.Model.get(m, wtex).ref(this, null);
 	MeshBuf.Vertex[] lv = new MeshBuf.Vertex[lw.length], rv = new MeshBuf.Vertex[rw.length];
 	MeshBuf.Tex tex = mod.layer(mod.tex);
 	for(int i = 0; i < lv.length; i++) {
@@ -146,5 +147,13 @@ public class CaveTile extends Tiler {
 	    ground.lay(m, rnd, lc, gc);
     }
 
+    /* The ground tiler is made with the same id, so its models come
+     * here too, with arguments where the walls have none. */
+    public NodeWrap refmat(int matref, int[] ref) {
+	if(ref.length == 0)
+	    return((matref == 0) ? wtex : null);
+	return((ground == null) ? null : ground.refmat(matref, ref));
+    }
+
     public void trans(MapMesh m, Random rnd, Tiler gt, Coord lc, Coord gc, int z, int bmask, int cmask) {}
 }
@@ -91,7 +91,7 @@ public class GroundTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	Tex tex = t.tex();
 	float tl = tcx(tex, 0), tt = tcy(tex, 0), tw = tcx(tex, tex.sz().x) - tl, th = tcy(tex, tex.sz().y) - tt;
 	Pipe.Op st = stfor(tex, z, t.t != 'g');
-	MeshBuf buf = MapMesh.Model.get(m, st);
+	MeshBuf buf = MapMesh.Model.get(m, st).ref(this, null, z, (t.t != 'g') ? 1 : 0);
 
 	MeshBuf.Tex btex = buf.layer(MeshBuf.tex);
 	MeshVertex[] mv = new MeshVertex[v.length];
@@ -103,6 +103,15 @@ public class GroundTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	    buf.new Face(mv[f[i]], mv[f[i + 1]], mv[f[i + 2]]);
     }
 
+    /* All tiles of the set are packed into the same texture, so any
+     * of them gives the material. */
+    public NodeWrap refmat(int matref, int[] ref) {
+	Tile t = set.getres().layer(Tile.class);
+	if((matref != 0) || (ref.length != 2) || (t == null))
+	    return(null);
+	return(stfor(t.tex(), ref[0], ref[1] != 0));
+    }
+
     public void faces(MapMesh m, MPart d) {
 	_faces(m, set.ground.pick(m.rnd(d.lc)), 0, d.v, d.tcx, d.tcy, d.f);
     }
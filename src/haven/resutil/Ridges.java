@@ -653,9 +653,13 @@ public class Ridges extends MapMesh.Hooks {
 	    this.texh = texh;
 	}
 
+	protected Model model(MapMesh m) {
+	    return(Model.get(m, mat));
+	}
+
 	public void faces(MapMesh m, MPart mdesc) {
 	    RPart desc = (RPart)mdesc;
-	    Model mod = Model.get(m, mat);
+	    Model mod = model(m);
 	    MeshBuf.Tex tex = mod.layer(MeshBuf.tex);
 	    MeshBuf.Vec3Layer tan = mod.layer(BumpMap.ltan);
 	    MeshBuf.Vec3Layer bit = mod.layer(BumpMap.lbit);
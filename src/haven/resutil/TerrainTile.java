@@ -310,6 +310,7 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 		NodeWrap mat = (i == 0) ? this.base : (var[i - 1].mat);
 		Pipe.Op draw = d.mcomb((i == 0) ? this.draw : (var[i - 1].draw));
 		SModel buf = SModel.get(m, NodeWrap.compose(mat, draw), b.lvfac[i]);
+		buf.ref(this, d, 0, i);
 		for(int o = 0; o < d.v.length; o++)
 		    mv[o] = buf.get(d, o);
 		for(int fi = 0; fi < d.f.length; fi += 3)
@@ -320,12 +321,7 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 
     private final static Map<TexRender, AlphaTex> transtex = new WeakHashMap<TexRender, AlphaTex>();
 
-    /* XXX: Some strange javac bug seems to make it resolve the
-     * trans() references to the wrong signature, thus the name
-     * distinction. */
-    public void _faces(MapMesh m, int z, Tile trans, MPart d) {
-	Tex ttex = trans.tex();
-	float tl = tcx(ttex, 0), tt = tcy(ttex, 0), tw = tcx(ttex, ttex.sz().x) - tl, th = tcy(ttex, ttex.sz().y) - tt;
+    private static AlphaTex alpha(Tex ttex) {
 	TexRender gt;
 	if(ttex instanceof TexRender)
 	    gt = (TexRender)ttex;
@@ -338,6 +334,16 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	    if((alpha = transtex.get(gt)) == null)
 		transtex.put(gt, alpha = new AlphaTex(gt.img, 0.01f));
 	}
+	return(alpha);
+    }
+
+    /* XXX: Some strange javac bug seems to make it resolve the
+     * trans() references to the wrong signature, thus the name
+     * distinction. */
+    public void _faces(MapMesh m, int z, Tile trans, MPart d) {
+	Tex ttex = trans.tex();
+	float tl = tcx(ttex, 0), tt = tcy(ttex, 0), tw = tcx(ttex, ttex.sz().x) - tl, th = tcy(ttex, ttex.sz().y) - tt;
+	AlphaTex alpha = alpha(ttex);
 	Blend b = m.data(blend);
 	Surface.MeshVertex[] mv = new Surface.MeshVertex[d.v.length];
 	for(int i = 0; i < var.length + 1; i++) {
@@ -345,7 +351,7 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 		NodeWrap mat = (i == 0) ? this.base : (var[i - 1].mat);
 		Pipe.Op draw = (i == 0) ? this.draw : (var[i - 1].draw);
 		draw = d.mcomb(Pipe.Op.compose(draw, new MapMesh.MLOrder(z, i), alpha));
-		MeshBuf buf = MapMesh.Model.get(m, NodeWrap.compose(mat, draw));
+		MeshBuf buf = MapMesh.Model.get(m, NodeWrap.compose(mat, draw)).ref(this, d, 1, z, i);
 		MeshBuf.Vec2Layer cc = buf.layer(AlphaTex.lclip);
 		for(int o = 0; o < d.v.length; o++) {
 		    mv[o] = b.lvfac[i].make(buf, d, o);
@@ -357,6 +363,25 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	}
     }
 
+    /* The transition tiles of transset are all packed into the same
+     * texture, so any of them gives the alpha. */
+    public NodeWrap refmat(int matref, int[] ref) {
+	if((matref != 0) || (ref.length < 2) || (ref[ref.length - 1] > var.length))
+	    return(null);
+	int i = ref[ref.length - 1];
+	NodeWrap mat = (i == 0) ? this.base : (var[i - 1].mat);
+	Pipe.Op draw = (i == 0) ? this.draw : (var[i - 1].draw);
+	if((ref[0] == 0) && (ref.length == 2))
+	    return(NodeWrap.compose(mat, draw));
+	if((ref[0] == 1) && (ref.length == 3) && (transset != null)) {
+	    Tile t = transset.getres().layer(Tile.class);
+	    if(t == null)
+		return(null);
+	    return(NodeWrap.compose(mat, Pipe.Op.compose(draw, new MapMesh.MLOrder(ref[1], i), alpha(t.tex()))));
+	}
+	return(null);
+    }
+
     private MCons tcons(final int z, final Tile t) {
 	return(new MCons() {
 		public void faces(MapMesh m, MPart d) {
@@ -422,7 +447,17 @@ public class TerrainTile extends Tiler implements Tiler.MCons, Tiler.CTrans {
 	public RidgeTile(int id, SNoise3 noise, NodeWrap base, Var[] var, Tileset transset, int rth, Pipe.Op rmat, float texh) {
 	    super(id, noise, base, var, transset);
 	    this.rth = rth;
-	    this.rcons = new Ridges.TexCons(rmat, texh);
+	    this.rcons = new Ridges.TexCons(rmat, texh) {
+		    protected MapMesh.Model model(MapMesh m) {
+			return(super.model(m).ref(RidgeTile.this, null, 2));
+		    }
+		};
+	}
+
+	public NodeWrap refmat(int matref, int[] ref) {
+	    if((ref.length == 1) && (ref[0] == 2))
+		return((matref == 0) ? ((Ridges.TexCons)rcons).mat : null);
+	    return(super.refmat(matref, ref));
 	}
 
 	public int breakz() {return(rth);}
@@ -374,6 +374,7 @@ public class WaterTile extends Tiler {
     public void lay(MapMesh m, Random rnd, Coord lc, Coord gc) {
 	MapMesh.MapSurface ms = m.data(MapMesh.gnd);
 	SModel smod = SModel.get(m, surfmat, VertFactory.id);
+	smod.ref(this, null);
 	MPart d = MPart.splitquad(lc, gc, ms.fortilea(lc), ms.split[ms.ts.o(lc)]);
 	MeshVertex[] v = smod.get(d);
 	smod.new Face(v[d.f[0]], v[d.f[1]], v[d.f[2]]);
@@ -381,9 +382,23 @@ public class WaterTile extends Tiler {
 	Bottom b = m.data(Bottom.id);
 	MPart bd = MPart.splitquad(lc, gc, b.fortilea(lc), ms.split[ms.ts.o(lc)]);
 	bd.mat = botmat;
+	bd.matref = 1;
 	bottom.faces(m, bd);
     }
 
+    /* The bottom tiler is made with the same id, so its models come
+     * here too, with arguments where the surface has none. */
+    public NodeWrap refmat(int matref, int[] ref) {
+	if(ref.length == 0)
+	    return((matref == 0) ? surfmat : null);
+	if(!(bottom instanceof Tiler))
+	    return(null);
+	NodeWrap ret = ((Tiler)bottom).refmat(0, ref);
+	if((ret == null) || (matref == 0))
+	    return(ret);
+	return((matref == 1) ? NodeWrap.compose(ret, botmat) : null);
+    }
+
     public void trans(MapMesh m, Random rnd, Tiler gt, Coord lc, Coord gc, int z, int bmask, int cmask) {
 	if(m.map.gettile(gc) <= id)
 	    return;
@@ -393,6 +408,7 @@ public class WaterTile extends Tiler {
 		Bottom b = m.data(Bottom.id);
 		MPart d = MPart.splitquad(lc, gc, b.fortilea(lc), ms.split[ms.ts.o(lc)]);
 		d.mat = botmat;
+		d.matref = 1;
 		((CTrans)bottom).tcons(z, bmask, cmask).faces(m, d);
 	    }
 	} else {
@@ -0,0 +1,102 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Measures Gob.getattr across 10k gobs carrying a few attributes, as
+ * drawing and ticking look them up, against a replica of the earlier
+ * attribute table, which walked the superclass chain of the asked-for
+ * class on every lookup and then looked it up in a HashMap. Lookups
+ * include subclasses of attribute classes and absent attributes.
+ */
+public class AttrBench {
+    @SuppressWarnings("unchecked")
+    public static final Class<? extends GAttrib>[] lookups = new Class[] {
+	Moving.class, LinMove.class, DrawOffset.class, GobHealth.class, KinInfo.class, Drawable.class,
+    };
+
+    private static class Legacy {
+	final Map<Class<? extends GAttrib>, GAttrib> attr = new HashMap<>();
+
+	static Class<? extends GAttrib> attrclass(Class<? extends GAttrib> cl) {
+	    while(true) {
+		Class<?> p = cl.getSuperclass();
+		if(p == GAttrib.class)
+		    return(cl);
+		cl = p.asSubclass(GAttrib.class);
+	    }
+	}
+
+	void setattr(GAttrib a) {
+	    attr.put(attrclass(a.getClass()), a);
+	}
+
+	<C extends GAttrib> C getattr(Class<C> c) {
+	    GAttrib attr = this.attr.get(attrclass(c));
+	    if(!c.isInstance(attr))
+		return(null);
+	    return(c.cast(attr));
+	}
+    }
+
+    private static long sink;
+
+    private static double run(Runnable pass, int nlookups) {
+	Bench.Result r = Bench.run(() -> {
+		pass.run();
+		return(nlookups);
+	    });
+	BaseTest.printf("  %8.2f +/- %5.2f ns/lookup", r.mean, r.dev);
+	return(r.mean);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int ngobs = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+	Random rnd = new Random(ngobs);
+	Gob[] gobs = new Gob[ngobs];
+	Legacy[] legacy = new Legacy[ngobs];
+	for(int i = 0; i < ngobs; i++) {
+	    Gob gob = gobs[i] = new Gob(null, Coord2d.z, i);
+	    Legacy l = legacy[i] = new Legacy();
+	    List<GAttrib> attrs = new ArrayList<>();
+	    attrs.add(new DrawOffset(gob, Coord3f.o));
+	    if(rnd.nextBoolean())
+		attrs.add(new LinMove(gob, Coord2d.z, new Coord2d(1, 0)));
+	    if(rnd.nextInt(4) == 0)
+		attrs.add(new GobHealth(gob, 4));
+	    for(GAttrib a : attrs) {
+		gob.setattr(a);
+		l.setattr(a);
+	    }
+	}
+	for(int i = 0; i < ngobs; i++) {
+	    for(Class<? extends GAttrib> c : lookups) {
+		if(gobs[i].getattr(c) != legacy[i].getattr(c))
+		    throw(new RuntimeException("slots and legacy table disagree on " + c.getSimpleName()));
+	    }
+	}
+	int nlookups = ngobs * lookups.length;
+	BaseTest.printf("%d gobs, %d classes per gob", ngobs, lookups.length);
+	BaseTest.printf("legacy table:");
+	double lt = run(() -> {
+		for(Legacy l : legacy) {
+		    for(Class<? extends GAttrib> c : lookups) {
+			if(l.getattr(c) != null)
+			    sink++;
+		    }
+		}
+	    }, nlookups);
+	BaseTest.printf("attribute slots:");
+	double st = run(() -> {
+		for(Gob gob : gobs) {
+		    for(Class<? extends GAttrib> c : lookups) {
+			if(gob.getattr(c) != null)
+			    sink++;
+		    }
+		}
+	    }, nlookups);
+	BaseTest.printf("speedup %.1fx", lt / st);
+    }
+}
@@ -34,6 +34,9 @@ public abstract class BaseTest implements Runnable {
     
     public BaseTest() {
 	tg = new ThreadGroup("Test process");
+	/* Config has to be initialized ahead of Resource, as it is
+	 * when started through MainFrame. */
+	Config.cmdline(new String[0]);
 	Resource.loadergroup = tg;
 	Audio.enabled = false;
 	Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -0,0 +1,87 @@
+package haven.test;
+
+import java.lang.management.*;
+
+/*
+ * The timing harness of the benches here. A workload is run for a
+ * few untimed warmup rounds and then for timed rounds of a fixed
+ * length each, and the mean and deviation over the timed rounds of
+ * its time per operation are given, along with what the bench thread
+ * allocated and how many collections ran per operation.
+ */
+public class Bench {
+    public static final int warmup = 3, iter = 5;
+    public static final long itertime = 500000000L;
+
+    public interface Workload {
+	/* Runs some of the workload, returning how many operations. */
+	public long run();
+    }
+
+    public interface Round {
+	/* Runs a whole round, returning its measure. */
+	public double run() throws InterruptedException;
+    }
+
+    public static class Result {
+	/* In nanoseconds per operation, or in the measure of a Round. */
+	public final double mean, dev;
+	/* Bytes allocated and collections run, per operation. */
+	public final double alloc, gcs;
+
+	public Result(double[] res, double alloc, double gcs) {
+	    double mean = 0, dev = 0;
+	    for(double r : res)
+		mean += r / res.length;
+	    for(double r : res)
+		dev += (r - mean) * (r - mean) / res.length;
+	    this.mean = mean;
+	    this.dev = Math.sqrt(dev);
+	    this.alloc = alloc;
+	    this.gcs = gcs;
+	}
+    }
+
+    public static long allocated() {
+	return(((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes());
+    }
+
+    public static long gcs() {
+	long ret = 0;
+	for(GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+	    ret += Math.max(gc.getCollectionCount(), 0);
+	return(ret);
+    }
+
+    public static Result run(int warmup, int iter, long itertime, Workload w) {
+	double[] res = new double[iter];
+	long alloc = 0, gcs = 0, ops = 0;
+	for(int i = 0; i < warmup + iter; i++) {
+	    long st = System.nanoTime(), a0 = allocated(), gc0 = gcs(), n = 0, e;
+	    do {
+		n += w.run();
+	    } while((e = System.nanoTime() - st) < itertime);
+	    if(i >= warmup) {
+		res[i - warmup] = (double)e / n;
+		alloc += allocated() - a0;
+		gcs += gcs() - gc0;
+		ops += n;
+	    }
+	}
+	return(new Result(res, (double)alloc / ops, (double)gcs / ops));
+    }
+
+    public static Result run(Workload w) {
+	return(run(warmup, iter, itertime, w));
+    }
+
+    public static Result rounds(int warmup, int iter, Round r) throws InterruptedException {
+	double[] res = new double[iter];
+	for(int i = 0; i < warmup + iter; i++) {
+	    double v = r.run();
+	    if(i >= warmup)
+		res[i - warmup] = v;
+	}
+	return(new Result(res, Double.NaN, Double.NaN));
+    }
+}
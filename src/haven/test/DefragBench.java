@@ -0,0 +1,87 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Times reassembly of 64 KB and 1 MB messages from datagram-sized
+ * fragments, comparing the old copy-per-fragment concatenation with
+ * Defrag in both its appending and offset modes.
+ */
+public class DefragBench {
+    public static final int fragsz = 500;
+
+    private static List<MessageBuf> fragments(byte[] data) {
+	List<MessageBuf> ret = new ArrayList<>();
+	for(int off = 0; off < data.length; off += fragsz)
+	    ret.add(new MessageBuf(data, off, Math.min(fragsz, data.length - off)));
+	return(ret);
+    }
+
+    private static int concat(List<MessageBuf> frags) {
+	byte[] buf = null;
+	for(MessageBuf frag : frags) {
+	    frag.rewind();
+	    byte[] f = frag.bytes();
+	    if(buf == null) {
+		buf = f;
+	    } else {
+		byte[] n = new byte[buf.length + f.length];
+		System.arraycopy(buf, 0, n, 0, buf.length);
+		System.arraycopy(f, 0, n, buf.length, f.length);
+		buf = n;
+	    }
+	}
+	return(buf.length);
+    }
+
+    private static int append(List<MessageBuf> frags) {
+	Defrag buf = new Defrag();
+	for(MessageBuf frag : frags) {
+	    frag.rewind();
+	    buf.append(frag);
+	}
+	return(buf.msg().rem());
+    }
+
+    private static int offset(Defrag.Table<Integer> tab, int id, int len, List<MessageBuf> frags) {
+	MessageBuf ret = null;
+	int off = 0;
+	for(MessageBuf frag : frags) {
+	    frag.rewind();
+	    int n = frag.rem();
+	    ret = tab.add(id, len, frag, off);
+	    off += n;
+	}
+	return(ret.rem());
+    }
+
+    private interface Method {
+	public int run(int iter);
+    }
+
+    private static void time(String name, int size, int iter, Method m) {
+	for(int i = 0; i < iter; i++)
+	    m.run(i);
+	long st = System.nanoTime();
+	for(int i = 0; i < iter; i++) {
+	    if(m.run(i) != size)
+		throw(new RuntimeException("reassembled message has wrong size"));
+	}
+	double t = (System.nanoTime() - st) / 1e6;
+	BaseTest.printf("%-8s %8d bytes: %9.3f ms/message", name, size, t / iter);
+    }
+
+    public static void main(String[] args) {
+	for(int size : new int[] {64 << 10, 1 << 20}) {
+	    byte[] data = new byte[size];
+	    new Random(size).nextBytes(data);
+	    List<MessageBuf> frags = fragments(data);
+	    int iter = (size < (1 << 20)) ? 2000 : 50;
+	    Defrag.Table<Integer> tab = new Defrag.Table<>(10000);
+	    time("concat", size, iter, i -> concat(frags));
+	    time("append", size, iter, i -> append(frags));
+	    time("offset", size, iter, i -> offset(tab, i, size, frags));
+	}
+    }
+}
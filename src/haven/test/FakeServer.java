@@ -0,0 +1,506 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/*
+ * A stand-in game server for load testing the client offline. It
+ * speaks enough of the session protocol to accept any login, create a
+ * map view and a small status window, answer map requests with
+ * generated grids, and stream object deltas for a configurable number
+ * of gobs wandering about the map. The real client can be pointed at
+ * it with a dummy cookie, e.g. "-U test -C 00 127.0.0.1:1870".
+ *
+ * Resource names are the usual game ones, but nothing is served, so
+ * whether the client can actually draw the gobs depends on the
+ * resource server it is configured with. Without one, bare mode
+ * leaves out drawables and poses, which cannot be applied to a gob
+ * until their resources have loaded.
+ */
+public class FakeServer implements Runnable {
+    public static final int ticklen = 50;
+    public static final int maxdgram = 1000;
+    public static final int RES_BODY = 0, RES_IDLE = 1, RES_WALK = 2, RES_ANIMAL = 3, RES_TREE = 4;
+    public static final int RES_GRASS = 5, RES_DIRT = 6;
+    public static final String[] resnames = {"gfx/borka/body", "gfx/borka/idle", "gfx/borka/walking",
+					     "gfx/kritter/rabbit/rabbit", "gfx/terobjs/trees/oak",
+					     "gfx/tiles/grass", "gfx/tiles/dirt"};
+    public static final int[] resvers = {1, 1, 1, 1, 1, 1, 1};
+    public static final int WDG_MAP = 1, WDG_WND = 2, WDG_LBL = 3;
+    public final DatagramSocket sk;
+    public final int ngobs, rate, mapsz;
+    public boolean bare = false;
+    public final List<Obj> objs = new ArrayList<>();
+    private final Map<SocketAddress, Client> clients = new HashMap<>();
+    private final Map<Coord, byte[]> grids = new HashMap<>();
+    private final Random rnd = new Random(1);
+    private Thread th;
+    private int pktid = 0;
+    public long dgrams = 0, bytes = 0;
+
+    public class Obj {
+	public final long id;
+	public final boolean composite, mobile;
+	public int frame = 0, pseq = 0;
+	public double x, y, vx, vy;
+	public long legst, legend;
+	/* In fractional milliseconds, since rates may exceed 1000. */
+	public double next;
+	private boolean changed;
+
+	public Obj(long id, boolean composite, boolean mobile, long now) {
+	    this.id = id;
+	    this.composite = composite;
+	    this.mobile = mobile;
+	    double ext = mapsz * MCache.cmaps.x * 1024.0;
+	    x = (rnd.nextDouble() - 0.5) * ext;
+	    y = (rnd.nextDouble() - 0.5) * ext;
+	    legst = legend = now;
+	    next = now + (rnd.nextDouble() * 1000.0 / rate);
+	}
+
+	public boolean moving() {
+	    return((vx != 0) || (vy != 0));
+	}
+
+	/* Starts a new leg, either standing still or walking at about
+	 * three tiles per second in a direction that keeps the gob
+	 * within the map. */
+	void leg(long now) {
+	    double t = (now - legst) / 1000.0;
+	    x += vx * t;
+	    y += vy * t;
+	    if(rnd.nextInt(4) == 0) {
+		vx = vy = 0;
+	    } else {
+		double a = rnd.nextDouble() * Math.PI * 2, v = 3072;
+		double lim = mapsz * MCache.cmaps.x * 512.0 * 0.9;
+		if((Math.abs(x) > lim) || (Math.abs(y) > lim))
+		    a = Math.atan2(-y, -x);
+		vx = Math.cos(a) * v;
+		vy = Math.sin(a) * v;
+	    }
+	    legst = now;
+	    legend = now + 1000 + rnd.nextInt(4000);
+	    pseq = (pseq + 1) % 256;
+	    changed = true;
+	}
+
+	void addpos(Message buf) {
+	    buf.adduint8(OCache.OD_MOVE);
+	    buf.addcoord(new Coord((int)x, (int)y));
+	    buf.adduint16((int)((Math.atan2(vy, vx) / (Math.PI * 2)) * 65536) & 0xffff);
+	}
+
+	void addlin(Message buf, long now) {
+	    if(moving()) {
+		buf.adduint8(OCache.OD_LINBEG);
+		buf.addcoord(new Coord((int)x, (int)y));
+		buf.addcoord(new Coord((int)vx, (int)vy));
+		addstep(buf, now);
+	    } else {
+		buf.adduint8(OCache.OD_LINSTEP);
+		buf.addint32(-1);
+	    }
+	}
+
+	void addstep(Message buf, long now) {
+	    buf.adduint8(OCache.OD_LINSTEP);
+	    buf.addint32((int)((now - legst) * 1024 / 1000));
+	}
+
+	void addpose(Message buf) {
+	    buf.adduint8(OCache.OD_CMPPOSE);
+	    buf.adduint8(2);
+	    buf.adduint8(pseq);
+	    buf.adduint16(moving() ? RES_WALK : RES_IDLE);
+	    buf.adduint16(65535);
+	}
+
+	/* The complete state of the object, for clients that have not
+	 * seen it before. */
+	void full(Message buf, long now) {
+	    if(bare) {
+	    } else if(composite) {
+		buf.adduint8(OCache.OD_COMPOSE);
+		buf.adduint16(RES_BODY);
+		addpose(buf);
+	    } else {
+		buf.adduint8(OCache.OD_RES);
+		buf.adduint16(mobile ? RES_ANIMAL : RES_TREE);
+	    }
+	    addpos(buf);
+	    addlin(buf, now);
+	}
+
+	/* What has changed since the last update. */
+	void delta(Message buf, long now) {
+	    if(changed) {
+		addpos(buf);
+		addlin(buf, now);
+		if(composite && !bare)
+		    addpose(buf);
+	    } else if(moving()) {
+		addstep(buf, now);
+	    }
+	}
+    }
+
+    public class Client {
+	public final SocketAddress addr;
+	public final String user;
+	private final Deque<Rel> unacked = new ArrayDeque<>();
+	private int tseq = 0, rseq = 0;
+	private boolean fresh = true;
+	private long lastrecv;
+
+	Client(SocketAddress addr, String user, long now) {
+	    this.addr = addr;
+	    this.user = user;
+	    this.lastrecv = now;
+	}
+
+	void queue(int type, Object... args) {
+	    PMessage msg = new PMessage(type);
+	    for(Object arg : args) {
+		if(arg instanceof Object[])
+		    msg.addlist((Object[])arg);
+		else if(arg instanceof String)
+		    msg.addstring((String)arg);
+		else
+		    msg.adduint16((Integer)arg);
+	    }
+	    unacked.add(new Rel(tseq, msg));
+	    tseq = (tseq + 1) % 65536;
+	}
+
+	void ack(int seq) {
+	    while(!unacked.isEmpty() && (Utils.floormod(seq - unacked.peek().seq, 65536) < 32768))
+		unacked.remove();
+	}
+
+	/* Sends whatever reliable messages are new or overdue, packed
+	 * into as few datagrams as the size limit allows. */
+	void sendrel(long now) throws IOException {
+	    PMessage buf = null;
+	    Rel prev = null;
+	    for(Rel rel : unacked) {
+		if(now - rel.sent < 500)
+		    continue;
+		byte[] data = rel.msg.fin();
+		if((buf != null) && ((rel.seq != (prev.seq + 1) % 65536) || (buf.size() + data.length + 8 > maxdgram))) {
+		    buf.adduint8(prev.msg.type);
+		    buf.addbytes(prev.msg.fin());
+		    send(addr, buf);
+		    buf = null;
+		}
+		if(buf == null) {
+		    buf = new PMessage(Session.MSG_REL);
+		    buf.adduint16(rel.seq);
+		} else {
+		    byte[] pdata = prev.msg.fin();
+		    buf.adduint8(prev.msg.type | 0x80);
+		    buf.adduint16(pdata.length);
+		    buf.addbytes(pdata);
+		}
+		rel.sent = now;
+		prev = rel;
+	    }
+	    if(buf != null) {
+		buf.adduint8(prev.msg.type);
+		buf.addbytes(prev.msg.fin());
+		send(addr, buf);
+	    }
+	}
+    }
+
+    private static class Rel {
+	final int seq;
+	final PMessage msg;
+	long sent = 0;
+
+	Rel(int seq, PMessage msg) {
+	    this.seq = seq;
+	    this.msg = msg;
+	}
+    }
+
+    public FakeServer(SocketAddress addr, int ngobs, int rate, int mapsz) throws IOException {
+	if(rate <= 0)
+	    throw(new IllegalArgumentException("update rate must be positive: " + rate));
+	this.sk = new DatagramSocket(addr);
+	this.ngobs = ngobs;
+	this.rate = rate;
+	this.mapsz = mapsz;
+	long now = System.currentTimeMillis();
+	for(int i = 0; i < ngobs; i++) {
+	    /* Every fourth object is a walking composite, the
+	     * first of them being the player whom the map view
+	     * follows. */
+	    boolean composite = (i % 4) == 0;
+	    objs.add(new Obj(i + 1, composite, composite || ((i % 4) != 1), now));
+	}
+    }
+
+    public SocketAddress address() {
+	return(sk.getLocalSocketAddress());
+    }
+
+    private void send(SocketAddress to, PMessage msg) throws IOException {
+	byte[] buf = new byte[msg.size() + 1];
+	buf[0] = (byte)msg.type;
+	msg.fin(buf, 1);
+	sk.send(new DatagramPacket(buf, buf.length, to));
+	dgrams++;
+	bytes += buf.length;
+    }
+
+    private void login(Client cl) {
+	for(int i = 0; i < resnames.length; i++)
+	    cl.queue(RMessage.RMSG_RESID, i, resnames[i], resvers[i]);
+	cl.queue(RMessage.RMSG_NEWWDG, WDG_MAP, "mapview", 0, new Object[] {Coord.z},
+		 new Object[] {new Coord(800, 600), Coord.z, 1});
+	cl.queue(RMessage.RMSG_NEWWDG, WDG_WND, "wnd", 0, new Object[] {new Coord(20, 20)},
+		 new Object[] {new Coord(200, 45), "Load test"});
+	for(int i = 0; i < 3; i++)
+	    cl.queue(RMessage.RMSG_NEWWDG, WDG_LBL + i, "lbl", WDG_WND, new Object[] {new Coord(0, i * 15)}, new Object[] {""});
+    }
+
+    private void handle(SocketAddress from, PMessage msg, long now) throws IOException {
+	Client cl = clients.get(from);
+	if(msg.type == Session.MSG_SESS) {
+	    msg.uint16();
+	    msg.string();
+	    int pver = msg.uint16();
+	    String user = msg.string();
+	    PMessage rep = new PMessage(Session.MSG_SESS);
+	    if(pver != Session.PVER) {
+		rep.adduint8(Session.SESSERR_PVER);
+	    } else {
+		rep.adduint8(0);
+		if(cl == null) {
+		    clients.put(from, cl = new Client(from, user, now));
+		    login(cl);
+		}
+	    }
+	    send(from, rep);
+	    return;
+	}
+	if(cl == null)
+	    return;
+	cl.lastrecv = now;
+	if(msg.type == Session.MSG_REL) {
+	    int seq = msg.uint16();
+	    while(!msg.eom()) {
+		int type = msg.uint8();
+		if((type & 0x80) != 0)
+		    msg.skip(msg.uint16());
+		else
+		    msg.skip(msg.rem());
+		if(seq == cl.rseq)
+		    cl.rseq = (cl.rseq + 1) % 65536;
+		seq = (seq + 1) % 65536;
+	    }
+	    PMessage ack = new PMessage(Session.MSG_ACK);
+	    ack.adduint16((cl.rseq + 65535) % 65536);
+	    send(from, ack);
+	} else if(msg.type == Session.MSG_ACK) {
+	    cl.ack(msg.uint16());
+	} else if(msg.type == Session.MSG_MAPREQ) {
+	    mapdata(cl, msg.coord());
+	} else if(msg.type == Session.MSG_CLOSE) {
+	    send(from, new PMessage(Session.MSG_CLOSE));
+	    clients.remove(from);
+	}
+    }
+
+    private byte[] grid(Coord gc) {
+	byte[] ret = grids.get(gc);
+	if(ret != null)
+	    return(ret);
+	MessageBuf buf = new MessageBuf();
+	buf.addcoord(gc);
+	buf.addstring("");
+	buf.adduint8(255);
+	ZMessage z = new ZMessage(buf);
+	z.addint64(((long)gc.x << 32) | (gc.y & 0xffffffffL));
+	z.adduint8(0);
+	z.addstring(resnames[RES_GRASS]);
+	z.adduint16(resvers[RES_GRASS]);
+	z.adduint8(1);
+	z.addstring(resnames[RES_DIRT]);
+	z.adduint16(resvers[RES_DIRT]);
+	z.adduint8(255);
+	int w = MCache.cmaps.x, h = MCache.cmaps.y;
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0; x < w; x++)
+		z.adduint8((((x / 10) + (y / 10)) % 7 == 0) ? 1 : 0);
+	}
+	for(int y = 0; y < h; y++) {
+	    for(int x = 0; x < w; x++) {
+		double wx = (gc.x * w) + x, wy = (gc.y * h) + y;
+		z.addint16((short)(Math.sin(wx / 17.0) * Math.cos(wy / 23.0) * 40));
+	    }
+	}
+	z.adduint8(255);
+	z.finish();
+	ret = buf.fin();
+	grids.put(gc, ret);
+	return(ret);
+    }
+
+    private void mapdata(Client cl, Coord gc) throws IOException {
+	byte[] data = grid(gc);
+	int id = pktid++;
+	for(int off = 0; off < data.length; off += maxdgram - 16) {
+	    int len = Math.min(maxdgram - 16, data.length - off);
+	    PMessage msg = new PMessage(Session.MSG_MAPDATA);
+	    msg.addint32(id);
+	    msg.adduint16(off);
+	    msg.adduint16(data.length);
+	    msg.addbytes(data, off, len);
+	    send(cl.addr, msg);
+	}
+    }
+
+    private void tick(long now) throws IOException {
+	List<Obj> upd = new ArrayList<>();
+	for(Obj obj : objs) {
+	    if(now < obj.next)
+		continue;
+	    obj.next += 1000.0 / rate;
+	    if(obj.mobile && (now >= obj.legend))
+		obj.leg(now);
+	    if(obj.changed || obj.moving()) {
+		obj.frame++;
+		upd.add(obj);
+	    }
+	}
+	for(Iterator<Client> i = clients.values().iterator(); i.hasNext();) {
+	    Client cl = i.next();
+	    if(now - cl.lastrecv > 30000) {
+		i.remove();
+		continue;
+	    }
+	    if((now / 1000) != ((now - ticklen) / 1000)) {
+		cl.queue(RMessage.RMSG_WDGMSG, WDG_LBL, "set", new Object[] {"Objects: " + objs.size()});
+		cl.queue(RMessage.RMSG_WDGMSG, WDG_LBL + 1, "set", new Object[] {"Clients: " + clients.size()});
+		cl.queue(RMessage.RMSG_WDGMSG, WDG_LBL + 2, "set", new Object[] {String.format("Sent: %,d kB", bytes / 1024)});
+	    }
+	    cl.sendrel(now);
+	    objdata(cl, cl.fresh ? objs : upd, cl.fresh, now);
+	    cl.fresh = false;
+	}
+	for(Obj obj : upd)
+	    obj.changed = false;
+    }
+
+    private void objdata(Client cl, List<Obj> objs, boolean full, long now) throws IOException {
+	PMessage msg = null;
+	for(Obj obj : objs) {
+	    if(msg == null)
+		msg = new PMessage(Session.MSG_OBJDATA);
+	    msg.adduint8(0);
+	    msg.adduint32(obj.id);
+	    msg.addint32(obj.frame);
+	    if(full)
+		obj.full(msg, now);
+	    else
+		obj.delta(msg, now);
+	    msg.adduint8(OCache.OD_END);
+	    if(msg.size() > maxdgram - 64) {
+		send(cl.addr, msg);
+		msg = null;
+	    }
+	}
+	if(msg != null)
+	    send(cl.addr, msg);
+    }
+
+    public void run() {
+	byte[] buf = new byte[65536];
+	DatagramPacket p = new DatagramPacket(buf, buf.length);
+	long nexttick = System.currentTimeMillis();
+	try {
+	    while(!Thread.interrupted()) {
+		long now = System.currentTimeMillis();
+		if(now >= nexttick) {
+		    tick(now);
+		    nexttick = Math.max(nexttick + ticklen, now);
+		    continue;
+		}
+		sk.setSoTimeout((int)(nexttick - now));
+		try {
+		    sk.receive(p);
+		} catch(SocketTimeoutException e) {
+		    continue;
+		}
+		if(p.getLength() > 0)
+		    handle(p.getSocketAddress(), new PMessage(buf[0], buf, 1, p.getLength() - 1), System.currentTimeMillis());
+	    }
+	} catch(IOException e) {
+	    if(!sk.isClosed())
+		throw(new RuntimeException(e));
+	} finally {
+	    sk.close();
+	}
+    }
+
+    public void start() {
+	th = new Thread(this, "Fake server");
+	th.setDaemon(true);
+	th.start();
+    }
+
+    public void stop() {
+	th.interrupt();
+	sk.close();
+    }
+
+    public static void usage() {
+	System.err.println("usage: FakeServer [-b] [-p PORT] [-n GOBS] [-r RATE] [-m MAPSIZE]");
+	System.err.println("  -b  Bare mode; send no drawables");
+	System.err.println("  -p  UDP port on 127.0.0.1 (default 1870)");
+	System.err.println("  -n  Number of gobs (default 1000)");
+	System.err.println("  -r  Updates per second and gob (default 5)");
+	System.err.println("  -m  Width of the map the gobs roam, in grids (default 3)");
+    }
+
+    public static void main(String[] args) throws Exception {
+	PosixArgs opt = PosixArgs.getopt(args, "hbp:n:r:m:");
+	if(opt == null) {
+	    usage();
+	    System.exit(1);
+	}
+	int port = 1870, ngobs = 1000, rate = 5, mapsz = 3;
+	boolean bare = false;
+	for(char c : opt.parsed()) {
+	    switch(c) {
+	    case 'h':
+		usage();
+		System.exit(0);
+	    case 'b':
+		bare = true;
+		break;
+	    case 'p':
+		port = Integer.parseInt(opt.arg);
+		break;
+	    case 'n':
+		ngobs = Integer.parseInt(opt.arg);
+		break;
+	    case 'r':
+		rate = Integer.parseInt(opt.arg);
+		break;
+	    case 'm':
+		mapsz = Integer.parseInt(opt.arg);
+		break;
+	    }
+	}
+	FakeServer srv = new FakeServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), ngobs, rate, mapsz);
+	srv.bare = bare;
+	BaseTest.printf("Serving %d gobs on %s", ngobs, srv.address());
+	srv.run();
+    }
+}
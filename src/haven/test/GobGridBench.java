@@ -0,0 +1,99 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * Measures the cost of range, radius and nearest-neighbour queries
+ * through OCache's GobGrid against scanning every gob, for several
+ * gob counts spread over an area some ten map grids across. The
+ * answers of both are checked against each other before timing.
+ */
+public class GobGridBench {
+    public static final double area = MCache.cmaps.x * MCache.tilesz.x * 10;
+    public static final double radius = MCache.tilesz.x * 20;
+    public static final int nq = 200;
+    public static final long itertime = 300000000L;
+
+    private static Coord2d[] points(Random rnd, int n) {
+	Coord2d[] ret = new Coord2d[n];
+	for(int i = 0; i < n; i++)
+	    ret[i] = new Coord2d(rnd.nextDouble() * area, rnd.nextDouble() * area);
+	return(ret);
+    }
+
+    private static List<Gob> scanradius(OCache oc, Coord2d c, double r) {
+	List<Gob> ret = new ArrayList<>();
+	for(Gob gob : oc) {
+	    if(gob.rc.dist(c) <= r)
+		ret.add(gob);
+	}
+	ret.sort(Comparator.comparingDouble(gob -> gob.rc.dist(c)));
+	return(ret);
+    }
+
+    private static List<Gob> scannearest(OCache oc, Coord2d c, int k) {
+	PriorityQueue<Gob> best = new PriorityQueue<>(Comparator.comparingDouble((Gob gob) -> gob.rc.dist(c)).reversed());
+	for(Gob gob : oc) {
+	    best.add(gob);
+	    if(best.size() > k)
+		best.poll();
+	}
+	List<Gob> ret = new ArrayList<>(best);
+	ret.sort(Comparator.comparingDouble(gob -> gob.rc.dist(c)));
+	return(ret);
+    }
+
+    private static List<Gob> scanrect(OCache oc, Coord2d ul, Coord2d br) {
+	List<Gob> ret = new ArrayList<>();
+	for(Gob gob : oc) {
+	    if((gob.rc.x >= ul.x) && (gob.rc.y >= ul.y) && (gob.rc.x <= br.x) && (gob.rc.y <= br.y))
+		ret.add(gob);
+	}
+	return(ret);
+    }
+
+    private static long sink;
+
+    private static void bench(String name, int ngobs, Coord2d[] qs, Function<Coord2d, List<Gob>> q) {
+	Bench.Result r = Bench.run(Bench.warmup, Bench.iter, itertime, () -> {
+		for(Coord2d c : qs)
+		    sink += q.apply(c).size();
+		return(qs.length);
+	    });
+	BaseTest.printf("%6d gobs %-14s %9.2f +/- %6.2f us/query", ngobs, name, r.mean / 1e3, r.dev / 1e3);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int[] counts = {1000, 10000, 50000};
+	if(args.length > 0) {
+	    counts = new int[args.length];
+	    for(int i = 0; i < args.length; i++)
+		counts[i] = Integer.parseInt(args[i]);
+	}
+	Coord2d view = MCache.tilesz.mul(100, 100);
+	for(int n : counts) {
+	    Random rnd = new Random(n);
+	    OCache oc = new OCache(null);
+	    Coord2d[] pos = points(rnd, n);
+	    for(int i = 0; i < n; i++)
+		oc.add(new Gob(null, pos[i], i));
+	    Coord2d[] qs = points(rnd, nq);
+	    for(int i = 0; i < 50; i++) {
+		Coord2d c = qs[i];
+		if(!oc.grid.radius(c, radius, null).equals(scanradius(oc, c, radius)) ||
+		   !oc.grid.nearest(c, 5, Double.POSITIVE_INFINITY, null).equals(scannearest(oc, c, 5)) ||
+		   !new HashSet<>(oc.grid.rect(c, c.add(view), null)).equals(new HashSet<>(scanrect(oc, c, c.add(view)))))
+		    throw(new RuntimeException("grid and scan disagree at " + c));
+	    }
+	    bench("scan radius", n, qs, c -> scanradius(oc, c, radius));
+	    bench("grid radius", n, qs, c -> oc.grid.radius(c, radius, null));
+	    bench("scan nearest", n, qs, c -> scannearest(oc, c, 5));
+	    bench("grid nearest", n, qs, c -> oc.grid.nearest(c, 5, Double.POSITIVE_INFINITY, null));
+	    bench("scan rect", n, qs, c -> scanrect(oc, c, c.add(view)));
+	    bench("grid rect", n, qs, c -> oc.grid.rect(c, c.add(view), null));
+	}
+    }
+}
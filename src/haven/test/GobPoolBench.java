@@ -0,0 +1,58 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+
+/*
+ * Measures the allocation and young-generation collections caused by
+ * gob turnover, with and without OCache's GobPool. A window of live
+ * gobs moves along, each step removing the oldest gob and adding a new
+ * one carrying a position, a draw offset and often a linear move, as
+ * at the edge of view while travelling.
+ */
+public class GobPoolBench {
+    private static void run(String name, int live, int pool) {
+	Config.gobpool = pool;
+	Config.gobpoolage = 0;
+	OCache oc = new OCache(null);
+	Random rnd = new Random(live);
+	long[] ids = {live, 0};
+	for(long id = 0; id < live; id++)
+	    oc.add(new Gob(null, Coord2d.z, id));
+	Bench.Result r = Bench.run(() -> {
+		for(int o = 0; o < 100; o++) {
+		    oc.remove(ids[1]++);
+		    long id = ids[0]++;
+		    Gob gob = (oc.pool != null) ? oc.pool.get(id) : new Gob(null, Coord2d.z, id);
+		    synchronized(gob) {
+			gob.rc = new Coord2d(rnd.nextDouble() * 1000, rnd.nextDouble() * 1000);
+			gob.setattr(new DrawOffset(gob, Coord3f.o));
+			if(rnd.nextBoolean())
+			    gob.setattr(new LinMove(gob, gob.rc, new Coord2d(1, 0)));
+		    }
+		    oc.add(gob);
+		    if(oc.pool != null)
+			oc.pool.tick();
+		}
+		return(100);
+	    });
+	BaseTest.printf("%-8s %6d live: %8.0f +/- %5.0f ns/turnover, %,6.0f B/turnover, %.2f GCs per 100k turnovers",
+			name, live, r.mean, r.dev, r.alloc, r.gcs * 100000.0);
+	if(oc.pool != null)
+	    BaseTest.printf("         pool: %s", oc.pool);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int[] counts = {1000, 10000};
+	if(args.length > 0) {
+	    counts = new int[args.length];
+	    for(int i = 0; i < args.length; i++)
+		counts[i] = Integer.parseInt(args[i]);
+	}
+	for(int n : counts) {
+	    run("no pool", n, 0);
+	    run("pool", n, 256);
+	}
+    }
+}
@@ -0,0 +1,134 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/*
+ * Reports the memory taken by the tile data of synthetic land, shore
+ * and ocean grids fed through MCache.mapdata2, and measures reading
+ * tiles and heights of a land grid through Grid.gettile and getz, in
+ * the pattern of MapMesh building (each tile and its neighbours),
+ * against plain int arrays as grids kept before, and through MCache
+ * as MapMesh does.
+ */
+public class GridBench {
+    private static final Coord cmaps = MCache.cmaps;
+    private static long sink;
+
+    private static MessageBuf grid(Coord gc, long id, int[] tiles, int[] z) {
+	MessageBuf blob = new MessageBuf();
+	blob.addint64(id);
+	for(int i = 0; i < 4; i++) {
+	    blob.adduint8(i);
+	    blob.addstring("gfx/tiles/t" + i);
+	    blob.adduint16(1);
+	}
+	blob.adduint8(255);
+	for(int t : tiles)
+	    blob.adduint8(t);
+	for(int h : z)
+	    blob.addint16((short)h);
+	blob.adduint8(255);
+	byte[] raw = blob.fin();
+	Deflater zo = new Deflater();
+	zo.setInput(raw);
+	zo.finish();
+	byte[] buf = new byte[raw.length + 1024];
+	int n = zo.deflate(buf);
+	MessageBuf msg = new MessageBuf();
+	msg.addcoord(gc);
+	msg.addstring("");
+	msg.adduint8(255);
+	msg.addbytes(buf, 0, n);
+	return(new MessageBuf(msg.fin()));
+    }
+
+    /* Land has varied tiles and rolling heights; shore is land on one
+     * half and ocean on the other; ocean is one tile at one depth. */
+    private static int[][] data(String kind, Random rnd) {
+	int[] tiles = new int[cmaps.x * cmaps.y], z = new int[cmaps.x * cmaps.y];
+	for(int y = 0, i = 0; y < cmaps.y; y++) {
+	    for(int x = 0; x < cmaps.x; x++, i++) {
+		boolean sea = kind.equals("ocean") || (kind.equals("shore") && (x >= cmaps.x / 2));
+		tiles[i] = sea ? 3 : rnd.nextInt(3);
+		z[i] = sea ? -20 : (int)(Math.sin(x * 0.1) * Math.cos(y * 0.07) * 150) + rnd.nextInt(3);
+	    }
+	}
+	return(new int[][] {tiles, z});
+    }
+
+    private static double run(Runnable pass, int n) {
+	Bench.Result r = Bench.run(() -> {
+		pass.run();
+		return(n);
+	    });
+	BaseTest.printf("  %6.2f +/- %4.2f ns/tile", r.mean, r.dev);
+	return(r.mean);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	Random rnd = new Random(1);
+	MCache map = new MCache(null);
+	String[] kinds = {"land", "shore", "ocean"};
+	int[][] land = null;
+	for(int i = 0; i < kinds.length; i++) {
+	    int[][] d = data(kinds[i], rnd);
+	    if(i == 0)
+		land = d;
+	    Coord gc = new Coord(i, 0);
+	    map.request(gc);
+	    map.mapdata2(grid(gc, i + 1, d[0], d[1]));
+	}
+	PrintWriter out = new PrintWriter(System.out);
+	map.memreport(out);
+	MCache.Grid g = map.getgrid(Coord.z);
+	int[] tiles = land[0], z = land[1];
+	for(int i = 0; i < tiles.length; i++) {
+	    Coord tc = new Coord(i % cmaps.x, i / cmaps.x);
+	    if((g.gettile(tc) != tiles[i]) || (g.getz(tc) != z[i]))
+		throw(new RuntimeException("grid disagrees with its data at " + tc));
+	}
+	int n = (cmaps.x - 2) * (cmaps.y - 2);
+	BaseTest.printf("int arrays:");
+	double at = run(() -> {
+		long s = 0;
+		for(int y = 1; y < cmaps.y - 1; y++) {
+		    for(int x = 1; x < cmaps.x - 1; x++) {
+			int i = x + (y * cmaps.x);
+			s += tiles[i] + tiles[i - 1] + tiles[i + 1] + tiles[i - cmaps.x] + tiles[i + cmaps.x];
+			s += z[i] + z[i + 1] + z[i + cmaps.x] + z[i + cmaps.x + 1];
+		    }
+		}
+		sink += s;
+	    }, n);
+	BaseTest.printf("packed layers:");
+	double pt = run(() -> {
+		long s = 0;
+		Coord tc = new Coord();
+		for(tc.y = 1; tc.y < cmaps.y - 1; tc.y++) {
+		    for(tc.x = 1; tc.x < cmaps.x - 1; tc.x++) {
+			int x = tc.x, y = tc.y;
+			s += g.tiles.get(x, y) + g.tiles.get(x - 1, y) + g.tiles.get(x + 1, y) + g.tiles.get(x, y - 1) + g.tiles.get(x, y + 1);
+			s += g.getz(tc) + g.z.get(x + 1, y) + g.z.get(x, y + 1) + g.z.get(x + 1, y + 1);
+		    }
+		}
+		sink += s;
+	    }, n);
+	BaseTest.printf("packed layers through MCache.gettile and getz:");
+	run(() -> {
+		long s = 0;
+		Coord tc = new Coord();
+		for(tc.y = 1; tc.y < cmaps.y - 1; tc.y++) {
+		    for(tc.x = 1; tc.x < cmaps.x - 1; tc.x++) {
+			s += map.gettile(tc) + map.gettile(tc.add(-1, 0)) + map.gettile(tc.add(1, 0)) + map.gettile(tc.add(0, -1)) + map.gettile(tc.add(0, 1));
+			s += map.getz(tc) + map.getz(tc.add(1, 0)) + map.getz(tc.add(0, 1)) + map.getz(tc.add(1, 1));
+		    }
+		}
+		sink += s;
+	    }, n);
+	BaseTest.printf("packed/int ratio %.2f", pt / at);
+    }
+}
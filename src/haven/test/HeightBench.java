@@ -0,0 +1,147 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.zip.*;
+
+/*
+ * Measures frames of 10,000 height queries, as gobs, sprites and
+ * overlays make, over a 3x3 area of synthetic grids fed through
+ * MCache.mapdata2: one by one through the grids, as MCache.getcz did
+ * before, one by one through MCache's lock-free Heights, and all at
+ * once through the batch getcz. Each is run with the map otherwise
+ * idle, and while another thread keeps refilling a grid as the server
+ * does on changes, which holds the grids locked.
+ */
+public class HeightBench {
+    private static final Coord cmaps = MCache.cmaps;
+    private static double sink;
+
+    private static MessageBuf grid(Coord gc, long id, Random rnd) {
+	MessageBuf blob = new MessageBuf();
+	blob.addint64(id);
+	blob.adduint8(0);
+	blob.addstring("gfx/tiles/t0");
+	blob.adduint16(1);
+	blob.adduint8(255);
+	for(int i = 0; i < cmaps.x * cmaps.y; i++)
+	    blob.adduint8(0);
+	for(int y = 0; y < cmaps.y; y++) {
+	    for(int x = 0; x < cmaps.x; x++) {
+		int ax = (gc.x * cmaps.x) + x, ay = (gc.y * cmaps.y) + y;
+		blob.addint16((short)((Math.sin(ax * 0.1) * Math.cos(ay * 0.07) * 150) + rnd.nextInt(3)));
+	    }
+	}
+	blob.adduint8(255);
+	byte[] raw = blob.fin();
+	Deflater zo = new Deflater();
+	zo.setInput(raw);
+	zo.finish();
+	byte[] buf = new byte[raw.length + 1024];
+	int n = zo.deflate(buf);
+	MessageBuf msg = new MessageBuf();
+	msg.addcoord(gc);
+	msg.addstring("");
+	msg.adduint8(255);
+	msg.addbytes(buf, 0, n);
+	return(new MessageBuf(msg.fin()));
+    }
+
+    /* MCache.getcz as it was, locking the grids for each tile. */
+    private static double locked(MCache map, double px, double py) {
+	double tw = MCache.tilesz.x, th = MCache.tilesz.y;
+	Coord ul = new Coord(Utils.floordiv(px, tw), Utils.floordiv(py, th));
+	double sx = Utils.floormod(px, tw) / tw;
+	double sy = Utils.floormod(py, th) / th;
+	return(((1.0f - sy) * (((1.0f - sx) * map.getz(ul)) + (sx * map.getz(ul.add(1, 0))))) +
+	       (sy * (((1.0f - sx) * map.getz(ul.add(0, 1))) + (sx * map.getz(ul.add(1, 1))))));
+    }
+
+    private static void frame(String mode, MCache map, double[] xy, double[] z, int n) {
+	switch(mode) {
+	case "locked":
+	    for(int i = 0; i < n; i++)
+		z[i] = locked(map, xy[i * 2], xy[(i * 2) + 1]);
+	    break;
+	case "lock-free":
+	    for(int i = 0; i < n; i++)
+		z[i] = map.getcz(xy[i * 2], xy[(i * 2) + 1]);
+	    break;
+	case "batch":
+	    map.getcz(xy, z, n);
+	    break;
+	}
+	sink += z[n - 1];
+    }
+
+    private static void run(String mode, MCache map, double[] xy, int n, boolean refill) {
+	double[] z = new double[n];
+	boolean[] stop = {false};
+	Thread bg = null;
+	if(refill) {
+	    MessageBuf[] msgs = new MessageBuf[2];
+	    for(int i = 0; i < msgs.length; i++)
+		msgs[i] = grid(Coord.z, 1, new Random(i));
+	    bg = new HackThread(() -> {
+		    for(int i = 0; true; i++) {
+			synchronized(stop) {
+			    if(stop[0])
+				return;
+			}
+			map.request(Coord.z);
+			map.mapdata2(new MessageBuf(msgs[i % msgs.length]));
+		    }
+	    }, "Refiller");
+	    bg.start();
+	}
+	Bench.Result r = Bench.run(() -> {
+		frame(mode, map, xy, z, n);
+		return(1);
+	    });
+	if(bg != null) {
+	    synchronized(stop) {
+		stop[0] = true;
+	    }
+	    try {
+		bg.join();
+	    } catch(InterruptedException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+	BaseTest.printf("%-10s %-9s %8.1f +/- %5.1f us/frame, %5.1f ns/query, %,9.0f B/frame",
+			mode, refill ? "refilling" : "idle", r.mean / 1e3, r.dev / 1e3, r.mean / n, r.alloc);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int n = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+	MCache map = new MCache(null);
+	Random rnd = new Random(1);
+	for(int y = -1; y <= 1; y++) {
+	    for(int x = -1; x <= 1; x++) {
+		Coord gc = new Coord(x, y);
+		map.request(gc);
+		map.mapdata2(grid(gc, 1 + x + (y * 3) + 4, rnd));
+	    }
+	}
+	/* Positions spread over the middle grid and the edges of those
+	 * around it, as gobs within view would be. */
+	double[] xy = new double[n * 2];
+	double ext = (cmaps.x * 1.5) * MCache.tilesz.x;
+	for(int i = 0; i < n * 2; i++)
+	    xy[i] = (rnd.nextDouble() * 2 - 1) * ext * 0.9 + (cmaps.x * 0.5 * MCache.tilesz.x);
+	double[] a = new double[n], b = new double[n];
+	frame("locked", map, xy, a, n);
+	frame("batch", map, xy, b, n);
+	for(int i = 0; i < n; i++) {
+	    if(Math.abs(a[i] - b[i]) > 1e-9)
+		throw(new AssertionError(String.format("height %d at (%f, %f): %f != %f", i, xy[i * 2], xy[(i * 2) + 1], a[i], b[i])));
+	}
+	BaseTest.printf("%,d queries per frame over %d grids", n, 9);
+	for(boolean refill : new boolean[] {false, true}) {
+	    for(String mode : new String[] {"locked", "lock-free", "batch"})
+		run(mode, map, xy, n, refill);
+	}
+	System.exit(0);
+    }
+}
@@ -0,0 +1,161 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.net.*;
+
+/*
+ * Runs a headless session against an in-process FakeServer for each
+ * of a number of gob counts, and reports how client tick time, heap
+ * use and inbound traffic scale with the number of objects. The server
+ * runs in bare mode unless -d is given, in which case resources must
+ * be available to the client. With -l, the tick LOD is focused on the
+ * map origin, as if the player stood there, and the share of deferred
+ * gob ticks is reported.
+ */
+public class LoadTest extends BaseTest {
+    public final int[] counts;
+    public final int secs, rate, mapsz;
+    public boolean drawables = false, lod = false;
+
+    public LoadTest(int[] counts, int secs, int rate, int mapsz) {
+	this.counts = counts;
+	this.secs = secs;
+	this.rate = rate;
+	this.mapsz = mapsz;
+    }
+
+    private static long heap() {
+	Runtime rt = Runtime.getRuntime();
+	for(int i = 0; i < 3; i++)
+	    System.gc();
+	return(rt.totalMemory() - rt.freeMemory());
+    }
+
+    private static int gobs(OCache oc) {
+	int n = 0;
+	synchronized(oc) {
+	    for(Gob gob : oc)
+		n++;
+	}
+	return(n);
+    }
+
+    private void run(int ngobs) throws InterruptedException, IOException {
+	FakeServer srv = new FakeServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), ngobs, rate, mapsz);
+	srv.bare = !drawables;
+	srv.start();
+	long heap0 = heap();
+	Session sess = new Session(srv.address(), "load", new byte[0]);
+	try {
+	    synchronized(sess) {
+		while(sess.state != "") {
+		    if(sess.connfailed != 0)
+			throw(new RuntimeException("Connection failure (" + sess.connfailed + ")"));
+		    sess.wait();
+		}
+	    }
+	    int ext = (mapsz + 1) / 2;
+	    double st = Utils.rtime(), lastreq = 0;
+	    double ttime = 0, tmax = 0;
+	    int ticks = 0;
+	    while(Utils.rtime() - st < secs) {
+		while(sess.getuimsg() != null);
+		double now = Utils.rtime();
+		if(now - lastreq > 1) {
+		    /* Only the grids themselves are requested, since
+		     * meshing them needs the tile resources. */
+		    if(lastreq == 0) {
+			for(int y = -ext; y < ext; y++) {
+			    for(int x = -ext; x < ext; x++)
+				sess.glob.map.request(new Coord(x, y));
+			}
+		    }
+		    sess.glob.map.sendreqs();
+		    lastreq = now;
+		}
+		if(lod)
+		    sess.glob.oc.lod.focus(Coord3f.o, null, java.util.Collections.emptySet());
+		double t0 = Utils.rtime();
+		try {
+		    sess.glob.ctick();
+		} catch(Loading l) {
+		}
+		double dt = Utils.rtime() - t0;
+		if(now - st > 1) {
+		    /* Skip the login burst. */
+		    ttime += dt;
+		    tmax = Math.max(tmax, dt);
+		    ticks++;
+		}
+		Thread.sleep(16);
+	    }
+	    int seen = gobs(sess.glob.oc);
+	    long heap1 = heap();
+	    printf("%7d gobs: %7d seen, tick %7.3f ms avg %7.3f ms max, heap +%,7d kB (%,d B/gob), in %,d kB/s",
+		   ngobs, seen, (ticks == 0) ? 0.0 : (ttime * 1000 / ticks), tmax * 1000, (heap1 - heap0) / 1024,
+		   (seen == 0) ? 0 : ((heap1 - heap0) / seen), sess.stats.in.bytes() / 1024 / secs);
+	    if(lod)
+		printf("%7s        LOD: %s", "", sess.glob.oc.lod.stats());
+	} finally {
+	    sess.close();
+	    srv.stop();
+	}
+    }
+
+    public void run() {
+	try {
+	    for(int n : counts)
+		run(n);
+	} catch(InterruptedException e) {
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+    }
+
+    public static void usage() {
+	System.err.println("usage: LoadTest [-dl] [-t SECS] [-r RATE] [-m MAPSIZE] [GOBS...]");
+    }
+
+    public static void main(String[] args) {
+	PosixArgs opt = PosixArgs.getopt(args, "hdlt:r:m:");
+	if(opt == null) {
+	    usage();
+	    System.exit(1);
+	}
+	int secs = 10, rate = 5, mapsz = 3;
+	boolean drawables = false, lod = false;
+	for(char c : opt.parsed()) {
+	    switch(c) {
+	    case 'h':
+		usage();
+		System.exit(0);
+	    case 'd':
+		drawables = true;
+		break;
+	    case 'l':
+		lod = true;
+		break;
+	    case 't':
+		secs = Integer.parseInt(opt.arg);
+		break;
+	    case 'r':
+		rate = Integer.parseInt(opt.arg);
+		break;
+	    case 'm':
+		mapsz = Integer.parseInt(opt.arg);
+		break;
+	    }
+	}
+	int[] counts = {100, 1000, 5000};
+	if(opt.rest.length > 0) {
+	    counts = new int[opt.rest.length];
+	    for(int i = 0; i < counts.length; i++)
+		counts[i] = Integer.parseInt(opt.rest[i]);
+	}
+	LoadTest test = new LoadTest(counts, secs, rate, mapsz);
+	test.drawables = drawables;
+	test.lod = lod;
+	test.start();
+    }
+}
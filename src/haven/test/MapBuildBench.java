@@ -0,0 +1,149 @@
+package haven.test;
+
+import haven.*;
+import haven.render.*;
+import java.util.*;
+
+/*
+ * Simulates the terrain builds upon logging in: the grids around the
+ * player arrive one by one from the corner, each queueing its 16 cuts
+ * and the rebuilding of the edge cuts of the grids around it, as
+ * MCache does. Reports how long it takes until the first cut in view
+ * of a follow camera, the cut under the player, and all cuts are
+ * built, in submission order on two threads (as with Defer), in
+ * submission order on all threads, and prioritized on all threads.
+ */
+public class MapBuildBench {
+    public static final int iter = 5;
+
+    private static volatile long sink;
+    private static long perms;
+
+    private static void spin(double ms) {
+	long n = (long)(perms * ms), x = 0;
+	for(long i = 0; i < n; i++)
+	    x = (x * 31) + i;
+	sink += x;
+    }
+
+    /* Builds are stand-ins doing a fixed amount of work, rather than
+     * waiting a fixed time, so that threads sharing a processor are
+     * slowed down as builds would be. */
+    private static void calibrate() {
+	perms = 100000;
+	for(int i = 0; i < 5; i++) {
+	    long st = System.nanoTime();
+	    spin(100);
+	    perms = (long)(perms * 100 / ((System.nanoTime() - st) / 1e6));
+	}
+    }
+
+    private static double[] run(int rad, double cost, int arrive) {
+	MapBuilder b = new MapBuilder();
+	Coord cutn = MCache.cutn;
+	Coord2d fc = MCache.cmaps.mul(MCache.tilesz).div(2);
+	Coord3f base = new Coord3f((float)fc.x, -(float)fc.y, 0);
+	float ca = 0.75f, field = 0.5f, elev = (float)Math.PI / 6;
+	Matrix4f clip = Projection.makefrustum(new Matrix4f(), -field, field, -ca * field, ca * field, 1, 5000)
+	    .mul(PointedCam.compute(base, 500, elev, 0));
+	Coord fcut = fc.floor(MCache.tilesz).div(MCache.cutsz);
+	b.focus(new Coord3f((float)fc.x, (float)fc.y, 0), clip, () -> false);
+	Map<Coord, MapBuilder.Job> jobs = new HashMap<>();
+	double[] fdone = {-1};
+	long st = System.nanoTime();
+	Set<Coord> arrived = new HashSet<>();
+	for(int gy = -rad; gy <= rad; gy++) {
+	    for(int gx = -rad; gx <= rad; gx++) {
+		Coord gc = new Coord(gx, gy);
+		arrived.add(gc);
+		List<Coord> cuts = new ArrayList<>();
+		for(int y = 0; y < cutn.y; y++) {
+		    for(int x = 0; x < cutn.x; x++)
+			cuts.add(gc.mul(cutn).add(x, y));
+		}
+		for(int dy = -1; dy <= 1; dy++) {
+		    for(int dx = -1; dx <= 1; dx++) {
+			Coord nc = gc.add(dx, dy);
+			if(((dx == 0) && (dy == 0)) || !arrived.contains(nc))
+			    continue;
+			for(int y = 0; y < cutn.y; y++) {
+			    for(int x = 0; x < cutn.x; x++) {
+				if(((dx == 0) || (x == ((dx < 0) ? cutn.x - 1 : 0))) && ((dy == 0) || (y == ((dy < 0) ? cutn.y - 1 : 0))))
+				    cuts.add(nc.mul(cutn).add(x, y));
+			    }
+			}
+		    }
+		}
+		for(Coord cc : cuts) {
+		    MapBuilder.Job prev = jobs.put(cc, b.submit(cc, 0, 0, () -> {
+				spin(cost);
+				if(cc.equals(fcut)) {
+				    synchronized(fdone) {
+					fdone[0] = (System.nanoTime() - st) / 1e6;
+				    }
+				}
+				return(null);
+			    }));
+		    if(prev != null)
+			prev.cancel();
+		}
+		try {
+		    Thread.sleep(arrive);
+		} catch(InterruptedException e) {
+		    throw(new RuntimeException(e));
+		}
+	    }
+	}
+	while(true) {
+	    boolean done = true;
+	    for(MapBuilder.Job job : jobs.values())
+		done &= job.done();
+	    if(done)
+		break;
+	    try {
+		Thread.sleep(1);
+	    } catch(InterruptedException e) {
+		throw(new RuntimeException(e));
+	    }
+	}
+	double all = (System.nanoTime() - st) / 1e6;
+	synchronized(fdone) {
+	    return(new double[] {b.firstvis * 1000, fdone[0], all, b.nbuilt, b.ncancelled});
+	}
+    }
+
+    private static void report(String name, int rad, double cost, int arrive) {
+	double[][] res = new double[iter][];
+	run(rad, cost, arrive);
+	for(int i = 0; i < iter; i++)
+	    res[i] = run(rad, cost, arrive);
+	String[] nms = {"first in view", "under player", "all"};
+	StringBuilder buf = new StringBuilder();
+	for(int o = 0; o < nms.length; o++) {
+	    double mean = 0, dev = 0;
+	    for(double[] r : res)
+		mean += r[o] / iter;
+	    for(double[] r : res)
+		dev += (r[o] - mean) * (r[o] - mean) / iter;
+	    buf.append(String.format(", %s %.1f +/- %.1f ms", nms[o], mean, Math.sqrt(dev)));
+	}
+	BaseTest.printf("%-22s %d threads%s (%.0f built, %.0f cancelled)", name, Config.mapthreads, buf, res[0][3], res[0][4]);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int rad = (args.length > 0) ? Integer.parseInt(args[0]) : 1;
+	double cost = (args.length > 1) ? Double.parseDouble(args[1]) : 3;
+	int arrive = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+	int ncpu = Runtime.getRuntime().availableProcessors();
+	calibrate();
+	BaseTest.printf("%dx%d grids arriving every %d ms, %.1f ms per cut", (rad * 2) + 1, (rad * 2) + 1, arrive, cost);
+	Config.mapprio = false;
+	Config.mapthreads = 2;
+	report("submission order", rad, cost, arrive);
+	Config.mapthreads = ncpu;
+	report("submission order", rad, cost, arrive);
+	Config.mapprio = true;
+	report("prioritized", rad, cost, arrive);
+    }
+}
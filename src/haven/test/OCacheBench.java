@@ -0,0 +1,90 @@
+package haven.test;
+
+import haven.*;
+import java.util.*;
+import java.util.function.*;
+
+/*
+ * Measures the per-frame overhead of iterating and looking up gobs in
+ * OCache against a replica of the earlier table, which was a TreeMap
+ * copied into an ArrayList under the cache lock on every tick. Each
+ * frame replaces a few gobs, as happens when walking through a town,
+ * walks all gobs once and looks each of them up by id.
+ */
+public class OCacheBench {
+    public static final int warmup = 5, iter = 10, churn = 20;
+
+    private static class Legacy {
+	final Map<Long, Gob> objs = new TreeMap<>();
+
+	synchronized void add(Gob ob) {objs.put(ob.id, ob);}
+	synchronized void remove(long id) {objs.remove(id);}
+	synchronized Gob getgob(long id) {return(objs.get(id));}
+
+	void tick(Consumer<Gob> task) {
+	    ArrayList<Gob> copy = new ArrayList<>();
+	    synchronized(this) {
+		for(Gob g : objs.values())
+		    copy.add(g);
+	    }
+	    copy.forEach(task);
+	}
+    }
+
+    private interface Table {
+	public void add(Gob ob);
+	public void remove(long id);
+	public Gob getgob(long id);
+	public void tick(Consumer<Gob> task);
+    }
+
+    private static long sink;
+
+    private static void bench(String name, Table t, int ngobs) {
+	Random rnd = new Random(1);
+	long[] ids = new long[ngobs];
+	long[] next = {0};
+	for(int i = 0; i < ngobs; i++)
+	    t.add(new Gob(null, Coord2d.z, ids[i] = next[0]++));
+	Consumer<Gob> task = g -> sink += g.id;
+	Bench.Result r = Bench.run(warmup, iter, Bench.itertime, () -> {
+		for(int o = 0; o < churn; o++) {
+		    int k = rnd.nextInt(ngobs);
+		    t.remove(ids[k]);
+		    t.add(new Gob(null, Coord2d.z, ids[k] = next[0]++));
+		}
+		t.tick(task);
+		for(int o = 0; o < ngobs; o++)
+		    sink += t.getgob(ids[o]).id;
+		return(1);
+	    });
+	BaseTest.printf("%-8s %6d gobs: %8.1f +/- %5.1f us/frame, %,9.0f B/frame (incl. %d new gobs)",
+			name, ngobs, r.mean / 1e3, r.dev / 1e3, r.alloc, churn);
+    }
+
+    public static void main(String[] args) {
+	Config.cmdline(new String[0]);
+	int[] counts = {1000, 10000};
+	if(args.length > 0) {
+	    counts = new int[args.length];
+	    for(int i = 0; i < args.length; i++)
+		counts[i] = Integer.parseInt(args[i]);
+	}
+	for(int n : counts) {
+	    Legacy l = new Legacy();
+	    bench("treemap", new Table() {
+		    public void add(Gob ob) {l.add(ob);}
+		    public void remove(long id) {l.remove(id);}
+		    public Gob getgob(long id) {return(l.getgob(id));}
+		    public void tick(Consumer<Gob> task) {l.tick(task);}
+		}, n);
+	    OCache oc = new OCache(null);
+	    bench("ocache", new Table() {
+		    public void add(Gob ob) {oc.add(ob);}
+		    public void remove(long id) {oc.remove(id);}
+		    public Gob getgob(long id) {return(oc.getgob(id));}
+		    public void tick(Consumer<Gob> task) {oc.snapshot().forEach(task);}
+		}, n);
+	}
+    }
+}
@@ -0,0 +1,60 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+
+/*
+ * Replays a packet capture through a headless Session as fast as the
+ * session takes it, once for each given number of object decoder
+ * threads, and reports how long the reader spent per object record
+ * and how long decoding the whole capture took. The per-type delta
+ * counts of each run are checked against the first, to make sure
+ * that splitting records off the reader thread finds the same deltas
+ * as decoding them there.
+ */
+public class ODBench {
+    private static long[] run(File file, int threads, long[] ref) throws IOException, InterruptedException {
+	Config.odthreads = threads;
+	Capture.Replay rp = new Capture.Replay(file, false);
+	Session sess = new Session(rp, "bench", new byte[0]);
+	double st = Utils.rtime(), t;
+	long[] counts;
+	try {
+	    while(!(rp.done() && sess.objdec.idle()) && sess.alive()) {
+		while(sess.getuimsg() != null);
+		Thread.sleep(1);
+	    }
+	    t = Utils.rtime() - st;
+	    counts = sess.stats.od.snapshot();
+	    BaseTest.printf("%d threads: %,d packets in %.3f s, %,.0f records/s", threads, rp.packets, t, sess.objdec.records.get() / t);
+	    BaseTest.printf("  %s", sess.objdec);
+	} finally {
+	    sess.close();
+	}
+	if((ref != null) && !java.util.Arrays.equals(ref, counts))
+	    throw(new RuntimeException("delta counts differ from the first run"));
+	return(counts);
+    }
+
+    public static void main(String[] args) throws Exception {
+	if(args.length < 1) {
+	    System.err.println("usage: ODBench CAPTURE [THREADS...]");
+	    System.exit(1);
+	}
+	Config.cmdline(new String[0]);
+	File file = new File(args[0]);
+	int[] threads = {0, 1, 2, 4};
+	if(args.length > 1) {
+	    threads = new int[args.length - 1];
+	    for(int i = 1; i < args.length; i++)
+		threads[i - 1] = Integer.parseInt(args[i]);
+	}
+	long[] ref = null;
+	for(int n : threads) {
+	    long[] c = run(file, n, ref);
+	    if(ref == null)
+		ref = c;
+	}
+	System.exit(0);
+    }
+}
@@ -0,0 +1,117 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+
+/*
+ * Feeds a packet capture (see Capture) through a headless Session,
+ * exercising object delta decoding, map data and the UI message
+ * queue without a server. The UI messages are decoded but not turned
+ * into widgets.
+ */
+public class Replay extends BaseTest {
+    public final File file;
+    public final boolean realtime;
+    public final int[] uimsgs = new int[256];
+
+    public Replay(File file, boolean realtime) {
+	this.file = file;
+	this.realtime = realtime;
+    }
+
+    private void uimsg(PMessage msg) {
+	uimsgs[msg.type]++;
+	if(msg.type == RMessage.RMSG_NEWWDG) {
+	    msg.uint16(); msg.string(); msg.uint16();
+	    msg.list(); msg.list();
+	} else if(msg.type == RMessage.RMSG_WDGMSG) {
+	    msg.uint16(); msg.string();
+	    msg.list();
+	} else if(msg.type == RMessage.RMSG_ADDWDG) {
+	    msg.uint16(); msg.uint16();
+	    msg.list();
+	}
+    }
+
+    private static int gobs(OCache oc) {
+	int n = 0;
+	synchronized(oc) {
+	    for(Gob gob : oc)
+		n++;
+	}
+	return(n);
+    }
+
+    public void run() {
+	Capture.Replay rp;
+	try {
+	    rp = new Capture.Replay(file, realtime);
+	} catch(IOException e) {
+	    throw(new RuntimeException(e));
+	}
+	Session sess = new Session(rp, "replay", new byte[0]);
+	double st = Utils.rtime(), lastrep = st;
+	try {
+	    while(!rp.done() && sess.alive()) {
+		PMessage msg;
+		while((msg = sess.getuimsg()) != null)
+		    uimsg(msg);
+		try {
+		    sess.glob.ctick();
+		} catch(Loading l) {
+		}
+		double now = Utils.rtime();
+		if(now - lastrep > 1) {
+		    printf("%s, %d gobs, loader %s", rp, gobs(sess.glob.oc), sess.glob.loader.stats());
+		    lastrep = now;
+		}
+		Thread.sleep(10);
+	    }
+	    PMessage msg;
+	    while((msg = sess.getuimsg()) != null)
+		uimsg(msg);
+	} catch(InterruptedException e) {
+	} finally {
+	    sess.close();
+	}
+	double t = Utils.rtime() - st;
+	printf("Replayed %d packets (%,d bytes) in %.3f s, %.1f packets/s", rp.packets, rp.bytes, t, rp.packets / t);
+	String[] names = {"SESS", "REL", "ACK", "BEAT", "MAPREQ", "MAPDATA", "OBJDATA", "OBJACK", "CLOSE"};
+	for(int i = 0; i < rp.types.length; i++) {
+	    if(rp.types[i] > 0)
+		printf("  MSG_%-8s %d", (i < names.length) ? names[i] : Integer.toString(i), rp.types[i]);
+	}
+	printf("UI messages: %d new, %d msg, %d dst, %d add", uimsgs[RMessage.RMSG_NEWWDG], uimsgs[RMessage.RMSG_WDGMSG],
+	       uimsgs[RMessage.RMSG_DSTWDG], uimsgs[RMessage.RMSG_ADDWDG]);
+	printf("Final state: %d gobs, loader %s", gobs(sess.glob.oc), sess.glob.loader.stats());
+	printf("Gob apply: %s", sess.glob.oc.applier.stats());
+	if(sess.glob.oc.pool != null)
+	    printf("Gob pool: %s", sess.glob.oc.pool);
+	PrintWriter out = new PrintWriter(System.out);
+	sess.stats.dump(out);
+	out.println(sess.objdec);
+	sess.glob.oc.stats.report(out, sess.glob.oc.stats.snapshot(), null, 10);
+	if(Config.loadstats)
+	    LoadStats.report(out, 10);
+	out.flush();
+    }
+
+    public static void usage() {
+	System.err.println("usage: Replay [-r] CAPTURE");
+	System.err.println("  -r  Replay in real time rather than as fast as possible");
+    }
+
+    public static void main(String[] args) {
+	PosixArgs opt = PosixArgs.getopt(args, "r");
+	if((opt == null) || (opt.rest.length < 1)) {
+	    usage();
+	    System.exit(1);
+	}
+	boolean realtime = false;
+	for(char c : opt.parsed()) {
+	    if(c == 'r')
+		realtime = true;
+	}
+	new Replay(new File(opt.rest[0]), realtime).start();
+    }
+}
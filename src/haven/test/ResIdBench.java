@@ -0,0 +1,104 @@
+package haven.test;
+
+import haven.*;
+import java.net.*;
+import java.util.*;
+import java.lang.ref.*;
+
+/*
+ * Measures Session.getres under parallel lookups against a replica of
+ * the earlier resource-id table, which was a TreeMap behind a single
+ * lock handing out weakly referenced Indirs. Each thread looks up ids
+ * drawn from a working set the size of a busy scene's.
+ */
+public class ResIdBench {
+    public static final int nids = 2000;
+
+    private static class Idle extends Transport {
+	public PMessage recv() throws java.io.IOException {
+	    try {
+		Thread.sleep(100);
+	    } catch(InterruptedException e) {
+		throw(new java.nio.channels.ClosedByInterruptException());
+	    }
+	    return(null);
+	}
+	public void send(byte[] buf, int off, int len) {}
+	public SocketAddress local() {return(null);}
+	public void close() {}
+    }
+
+    private static class Legacy {
+	final Map<Integer, Entry> cache = new TreeMap<>();
+
+	class Entry {
+	    Reference<Indir<Resource>> ind;
+
+	    synchronized Indir<Resource> get() {
+		Indir<Resource> ret = (ind == null) ? null : ind.get();
+		if(ret == null)
+		    ind = new WeakReference<>(ret = () -> null);
+		return(ret);
+	    }
+	}
+
+	Indir<Resource> getres(int id) {
+	    Entry ent;
+	    synchronized(cache) {
+		if((ent = cache.get(id)) == null)
+		    cache.put(id, ent = new Entry());
+	    }
+	    return(ent.get());
+	}
+    }
+
+    private interface Lookup {
+	public Indir<Resource> getres(int id);
+    }
+
+    private static double run(Lookup l, int nthreads) throws InterruptedException {
+	long[] counts = new long[nthreads];
+	Thread[] th = new Thread[nthreads];
+	long end = System.nanoTime() + Bench.itertime;
+	for(int i = 0; i < nthreads; i++) {
+	    int t = i;
+	    th[i] = new Thread(() -> {
+		    Random rnd = new Random(t);
+		    long n = 0, h = 0;
+		    do {
+			for(int o = 0; o < 1024; o++)
+			    h += System.identityHashCode(l.getres(rnd.nextInt(nids)));
+			n += 1024;
+		    } while(System.nanoTime() < end);
+		    counts[t] = n + (h & 0);
+		}, "Lookup " + i);
+	    th[i].start();
+	}
+	long total = 0;
+	for(int i = 0; i < nthreads; i++) {
+	    th[i].join();
+	    total += counts[i];
+	}
+	return((double)total / (Bench.itertime / 1e9));
+    }
+
+    private static void bench(String name, Lookup l, int nthreads) throws InterruptedException {
+	Bench.Result r = Bench.rounds(Bench.warmup, Bench.iter, () -> run(l, nthreads));
+	BaseTest.printf("%-8s %2d threads: %8.2f +/- %5.2f M lookups/s", name, nthreads, r.mean / 1e6, r.dev / 1e6);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+	Config.cmdline(new String[0]);
+	Session sess = new Session(new Idle(), "bench", new byte[0]);
+	Legacy legacy = new Legacy();
+	int max = (args.length > 0) ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+	try {
+	    for(int n = 1; n <= max; n *= 2) {
+		bench("treemap", legacy::getres, n);
+		bench("array", sess::getres, n);
+	    }
+	} finally {
+	    sess.close();
+	}
+    }
+}
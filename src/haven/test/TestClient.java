@@ -93,6 +93,15 @@ public class TestClient implements Runnable, UI.Context {
 	    super(TestClient.this, sz, sess);
 	}
 	
+	/* The robots want the arguments decoded either way. */
+	public void newwidget(int id, String type, int parent, Object[] pargs, Message.Cursor cargs) throws InterruptedException {
+	    newwidget(id, type, parent, pargs, cargs.rest());
+	}
+
+	public void uimsg(int id, String msg, Message.Cursor args) {
+	    uimsg(id, msg, args.rest());
+	}
+
 	public void newwidget(int id, String type, int parent, Object[] pargs, Object... cargs) throws InterruptedException {
 	    super.newwidget(id, type, parent, pargs, cargs);
 	    Widget w = getwidget(id);
@@ -0,0 +1,56 @@
+package haven.test;
+
+import haven.*;
+import java.net.*;
+
+/*
+ * Compares the per-packet allocation of the Session transports by
+ * blasting datagrams at each over loopback and reading them back the
+ * way Session's reader does.
+ */
+public class TransportBench {
+    public static void run(String name, Transport tr, DatagramSocket src, int num, int size) throws Exception {
+	SocketAddress dst = new InetSocketAddress(InetAddress.getLoopbackAddress(), ((InetSocketAddress)tr.local()).getPort());
+	Thread sender = new Thread(() -> {
+		byte[] buf = new byte[size];
+		buf[0] = (byte)Session.MSG_BEAT;
+		try {
+		    for(int i = 0; i < num; i++) {
+			src.send(new DatagramPacket(buf, buf.length, dst));
+			if((i % 64) == 63)
+			    Thread.sleep(1);
+		    }
+		} catch(Exception e) {
+		    throw(new RuntimeException(e));
+		}
+	    }, "Bench sender");
+	int got = 0, bytes = 0;
+	sender.start();
+	long st = System.nanoTime(), a0 = Bench.allocated();
+	while(got < num) {
+	    PMessage msg = tr.recv();
+	    if(msg == null)
+		break;
+	    got++;
+	    bytes += msg.rem();
+	    tr.release(msg);
+	}
+	long a1 = Bench.allocated(), et = System.nanoTime();
+	sender.join();
+	tr.close();
+	BaseTest.printf("%-8s %d/%d packets (%d bytes) in %.1f ms, %.1f bytes allocated/packet", name, got, num, bytes,
+			(et - st) / 1e6, (got == 0) ? 0.0 : ((double)(a1 - a0) / got));
+    }
+
+    public static void main(String[] args) throws Exception {
+	int num = (args.length > 0) ? Integer.parseInt(args[0]) : 100000;
+	int size = (args.length > 1) ? Integer.parseInt(args[1]) : 512;
+	try(DatagramSocket src = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+	    SocketAddress from = src.getLocalSocketAddress();
+	    for(int i = 0; i < 2; i++) {
+		run("socket", new Transport.Datagram(from), src, num, size);
+		run("channel", new Transport.Channel(from), src, num, size);
+	    }
+	}
+    }
+}
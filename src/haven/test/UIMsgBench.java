@@ -0,0 +1,190 @@
+package haven.test;
+
+import haven.*;
+import java.io.*;
+import java.util.*;
+import java.awt.Color;
+
+/*
+ * Compares decoding widget message arguments through Message.list()
+ * with reading them in place through Message.Cursor. The traffic is
+ * taken from the widget messages in a packet capture if one is given,
+ * and is otherwise a synthetic inventory-heavy mix. Each method gets
+ * a number of warmup iterations before the timed ones, and the mean
+ * and deviation over the timed iterations are reported along with
+ * the allocation per message.
+ */
+public class UIMsgBench {
+    public static final int warmup = 5, iter = 10;
+
+    private static PMessage wdgmsg(int id, String name, Object... args) {
+	PMessage msg = new PMessage(RMessage.RMSG_WDGMSG);
+	msg.adduint16(id);
+	msg.addstring(name);
+	msg.addlist(args);
+	return(new PMessage(msg.type, msg.fin()));
+    }
+
+    private static PMessage newwdg(int id, String type, int parent, Object[] pargs, Object... cargs) {
+	PMessage msg = new PMessage(RMessage.RMSG_NEWWDG);
+	msg.adduint16(id);
+	msg.addstring(type);
+	msg.adduint16(parent);
+	msg.addlist(pargs);
+	msg.addlist(cargs);
+	return(new PMessage(msg.type, msg.fin()));
+    }
+
+    public static List<PMessage> synthetic() {
+	List<PMessage> ret = new ArrayList<>();
+	Random rnd = new Random(1);
+	for(int i = 0; i < 2000; i++) {
+	    int id = 100 + rnd.nextInt(200);
+	    switch(rnd.nextInt(6)) {
+	    case 0:
+		ret.add(wdgmsg(id, "num", rnd.nextInt(100)));
+		break;
+	    case 1:
+		ret.add(wdgmsg(id, "meter", rnd.nextInt(100)));
+		break;
+	    case 2:
+		ret.add(wdgmsg(id, "tt", 1234, "Quality", 35.5, 1240, 12, 40));
+		break;
+	    case 3:
+		ret.add(wdgmsg(id, "set", new Color(255, 0, 0, 255), rnd.nextInt(100), new Color(0, 0, 255, 255), rnd.nextInt(100)));
+		break;
+	    case 4:
+		ret.add(wdgmsg(id, "set", "Stamina: " + rnd.nextInt(100)));
+		break;
+	    case 5:
+		ret.add(newwdg(id, "item", 50, new Object[] {new Coord(rnd.nextInt(8), rnd.nextInt(4))}, 4000 + rnd.nextInt(100), new byte[4]));
+		break;
+	    }
+	}
+	return(ret);
+    }
+
+    public static List<PMessage> captured(File file) throws IOException {
+	List<PMessage> ret = new ArrayList<>();
+	Capture.Replay rp = new Capture.Replay(file, false);
+	while(!rp.done()) {
+	    PMessage msg = rp.recv();
+	    if((msg == null) || (msg.type != Session.MSG_REL))
+		continue;
+	    msg.uint16();
+	    while(!msg.eom()) {
+		int type = msg.uint8();
+		byte[] data;
+		if((type & 0x80) != 0) {
+		    type &= 0x7f;
+		    data = msg.bytes(msg.uint16());
+		} else {
+		    data = msg.bytes();
+		}
+		if((type == RMessage.RMSG_WDGMSG) || (type == RMessage.RMSG_NEWWDG))
+		    ret.add(new PMessage(type, data));
+	    }
+	}
+	rp.close();
+	return(ret);
+    }
+
+    /* Reads the header of a widget message up to its argument list. */
+    private static int head(PMessage msg) {
+	msg.rewind();
+	int ret = msg.uint16() + msg.string().length();
+	if(msg.type == RMessage.RMSG_NEWWDG)
+	    ret += msg.uint16() + msg.list().length;
+	return(ret);
+    }
+
+    private static long touch(Object[] args) {
+	long ret = 0;
+	for(Object arg : args) {
+	    if(arg instanceof Integer)
+		ret += (Integer)arg;
+	    else if(arg instanceof String)
+		ret += ((String)arg).length();
+	    else if(arg instanceof Coord)
+		ret += ((Coord)arg).x;
+	    else if(arg instanceof Number)
+		ret += ((Number)arg).longValue();
+	    else if(arg instanceof Color)
+		ret += ((Color)arg).getRGB();
+	    else if(arg instanceof Object[])
+		ret += touch((Object[])arg);
+	}
+	return(ret);
+    }
+
+    private static long list(List<PMessage> msgs) {
+	long ret = 0;
+	for(PMessage msg : msgs) {
+	    ret += head(msg);
+	    ret += touch(msg.list());
+	}
+	return(ret);
+    }
+
+    private static long touch(Message.Cursor args) {
+	long ret = 0;
+	while(args.next()) {
+	    switch(args.type) {
+	    case Message.T_INT: case Message.T_UINT8: case Message.T_UINT16: case Message.T_INT8: case Message.T_INT16:
+	    case Message.T_UID: case Message.T_FLOAT32: case Message.T_FLOAT64:
+		ret += args.longval();
+		break;
+	    case Message.T_STR:
+		ret += args.str().length();
+		break;
+	    case Message.T_COORD:
+		ret += args.ival;
+		break;
+	    case Message.T_COLOR:
+		ret += args.ival;
+		break;
+	    case Message.T_TTOL:
+		ret += touch(args.list());
+		break;
+	    }
+	}
+	return(ret);
+    }
+
+    private static long cursor(List<PMessage> msgs, Message.Cursor args) {
+	long ret = 0;
+	for(PMessage msg : msgs) {
+	    ret += head(msg);
+	    ret += touch(args.reset(msg));
+	}
+	return(ret);
+    }
+
+    private interface Method {
+	public long run();
+    }
+
+    private static void bench(String name, int nmsg, Method m) {
+	long[] sum = {0};
+	Bench.Result r = Bench.run(warmup, iter, Bench.itertime, () -> {
+		sum[0] += m.run();
+		return(nmsg);
+	    });
+	BaseTest.printf("%-8s %8.1f +/- %5.1f ns/msg, %7.1f B/msg (%d)", name, r.mean, r.dev, r.alloc, sum[0] & 1);
+    }
+
+    public static void main(String[] args) throws IOException {
+	Config.cmdline(new String[0]);
+	List<PMessage> msgs = (args.length > 0) ? captured(new File(args[0])) : synthetic();
+	if(msgs.isEmpty()) {
+	    System.err.println("no widget messages found");
+	    System.exit(1);
+	}
+	BaseTest.printf("%d widget messages", msgs.size());
+	Message.Cursor cur = new Message.Cursor();
+	if(list(msgs) != cursor(msgs, cur))
+	    throw(new RuntimeException("decoders disagree"));
+	bench("list", msgs.size(), () -> list(msgs));
+	bench("cursor", msgs.size(), () -> cursor(msgs, cur));
+    }
+}